@@ -28,6 +28,30 @@ async function retrieveWeekData() {
   return [weekDates, values];
 }
 
+/**
+ * Makes get requests to '/user-stats-servlet' to receive every item of the
+ * user. The servlet returns the items a page at a time, so the nextCursor of
+ * each page is passed on to request the page after it.
+ *
+ * @return {Array} the items of all pages
+ */
+async function retrieveItems() {
+  const items = [];
+  let url = '/user-stats-servlet';
+  for (;;) {
+    const response = await fetch(url);
+    const responseJson = await response.json();
+    if (responseJson.items.length > 0) {
+      items.push(...JSON.parse(responseJson.items));
+    }
+    if (!responseJson.nextCursor) {
+      return items;
+    }
+    url = '/user-stats-servlet?cursor=' +
+        encodeURIComponent(responseJson.nextCursor);
+  }
+}
+
 /**
  * Determines if {@code itemDate} is in the same as {@code dateFilter}
  * (a week starts on Monday and ends on Sunday). Dates are
@@ -231,12 +255,10 @@ const CategoryDoughnutChart = (props) => {
 
   const [chartData, setChartData] = useState({});
   const chart = () => {
-    fetch('/user-stats-servlet')
-        .then((response) => response.json())
-        .then((responseJson) => {
+    retrieveItems()
+        .then((itemsJson) => {
           const itemNames = [];
           const itemValues = [];
-          const itemsJson = JSON.parse(responseJson.items);
           const items = {};
           if (props.dateFilter.length > 0) {
             itemsJson.forEach((item) => {
@@ -318,12 +340,10 @@ const ItemDoughnutChart = (props) => {
 
   const [chartData, setChartData] = useState({});
   const chart = () => {
-    fetch('/user-stats-servlet')
-        .then((response) => response.json())
-        .then((responseJson) => {
+    retrieveItems()
+        .then((itemsJson) => {
           const itemNames = [];
           const itemValues = [];
-          const itemsJson = JSON.parse(responseJson.items);
           const items = {};
           itemsJson.forEach((item) => {
             if ((props.dateFilter === '' ||
@@ -386,4 +406,4 @@ const ItemDoughnutChart = (props) => {
 
 export default LineChart;
 export {BarGraph, CategoryDoughnutChart, ItemDoughnutChart,
-  retrieveWeekData, inSameWeek};
+  retrieveWeekData, retrieveItems, inSameWeek};
@@ -4,7 +4,7 @@ import {mount} from 'enzyme';
 import React from 'react';
 import './setupTests.js';
 import App from './App';
-import LineChart, {retrieveWeekData, BarGraph, inSameWeek,
+import LineChart, {retrieveWeekData, retrieveItems, BarGraph, inSameWeek,
   CategoryDoughnutChart} from './UserChart';
 
 const component = mount(<App />);
@@ -33,6 +33,19 @@ it('Should parse the correct week data with multiple weeks in retrieveWeekData',
       });
     });
 
+it('Should follow nextCursor to every page in retrieveItems', () => {
+  fetch.mockResponses(
+      JSON.stringify({weeklyAggregate: '', items: '[{"name":"corn"}]',
+        nextCursor: 'page2'}),
+      JSON.stringify({weeklyAggregate: '', items: '[{"name":"milk"}]'}));
+
+  return retrieveItems().then((items) => {
+    expect(items).toStrictEqual([{name: 'corn'}, {name: 'milk'}]);
+    expect(fetch.mock.calls[fetch.mock.calls.length - 1][0])
+        .toBe('/user-stats-servlet?cursor=page2');
+  });
+});
+
 it('Should return true when inSameWeek("2020-07-25", "2020-07-26") is called',
     () => {
       return expect(inSameWeek('2020-07-25', '2020-07-26')).toBe(true);
@@ -54,6 +54,28 @@ const Item = (props) => {
   );
 };
 
+/**
+ * Makes get requests to '/search-entity' to receive every search result. The
+ * servlet returns the results a page at a time, so the cursor of each page is
+ * passed on to request the page after it.
+ * @param {String} url - url of the page to request.
+ * @param {Array} entities - results of the pages before it.
+ * @return {Promise<Array>} the results of all pages.
+ */
+const retrieveSearchResults = (url = '/search-entity', entities = []) => {
+  return fetch(url)
+      .then((response) => response.json())
+      .then((page) => {
+        const results = entities.concat(page.results || []);
+        if (!page.cursor) {
+          return results;
+        }
+        return retrieveSearchResults(
+            '/search-entity?cursor=' + encodeURIComponent(page.cursor),
+            results);
+      });
+};
+
 /**
  * Gets the search results and displays the result based on the result type.
  */
@@ -79,12 +101,11 @@ class SearchResult extends React.Component {
   }
 
   /**
-   * Calls search-entity endpoint in backend and collects the search result
-   * and updates the component state accordingly.
+   * Calls search-entity endpoint in backend and collects every page of the
+   * search result and updates the component state accordingly.
    */
   getEntity() {
-    fetch('/search-entity')
-        .then((response) => response.json())
+    retrieveSearchResults()
         .then((entities) => {
           if (entities === undefined || entities.length == 0) {
             console.error('no result found');
@@ -181,3 +202,4 @@ Item.propTypes = {
 };
 
 export default SearchResult;
+export {retrieveSearchResults};
@@ -2,7 +2,7 @@ import {enableFetchMocks} from 'jest-fetch-mock';
 enableFetchMocks();
 import React from 'react';
 import {mount} from 'enzyme';
-import SearchResult from './SearchResult';
+import SearchResult, {retrieveSearchResults} from './SearchResult';
 import '../setupTests.js';
 
 let component;
@@ -18,7 +18,7 @@ describe('SearchResult', () => {
 
   beforeEach(() => {
     fetch.resetMocks();
-    fetch.mockResponse(JSON.stringify(receipt));
+    fetch.mockResponse(JSON.stringify({results: receipt}));
     component = mount(<SearchResult />);
   });
 
@@ -40,7 +40,7 @@ describe('When api call response is of receipt', () => {
 
   beforeEach(() => {
     fetch.resetMocks();
-    fetch.mockResponse(JSON.stringify(receipt));
+    fetch.mockResponse(JSON.stringify({results: receipt}));
     component = mount(<SearchResult />);
   });
 
@@ -67,7 +67,7 @@ describe('When api call response is of item', () => {
 
   beforeEach(() => {
     fetch.resetMocks();
-    fetch.mockResponse(JSON.stringify(item));
+    fetch.mockResponse(JSON.stringify({results: item}));
     component = mount(<SearchResult />);
   });
 
@@ -88,3 +88,19 @@ describe('When api call response is of item', () => {
     expect(component.state('items')).toStrictEqual(item);
   });
 });
+
+describe('When the search result has more than one page', () => {
+  beforeEach(() => {
+    fetch.resetMocks();
+    fetch.mockResponses(
+        JSON.stringify({results: item, cursor: 'page2'}),
+        JSON.stringify({results: receipt}));
+  });
+
+  test('retrieveSearchResults follows the cursor to every page', () => {
+    return retrieveSearchResults().then((entities) => {
+      expect(entities).toStrictEqual(item.concat(receipt));
+      expect(fetch.mock.calls[1][0]).toBe('/search-entity?cursor=page2');
+    });
+  });
+});
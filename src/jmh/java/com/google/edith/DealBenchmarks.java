@@ -0,0 +1,27 @@
+package com.google.edith;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the deal lookup benchmarks with the gc profiler attached so that every result reports the
+ * allocation rate next to throughput and average time. Arguments are regular JMH command line
+ * options; without a benchmark pattern every benchmark in this package is run.
+ */
+public final class DealBenchmarks {
+  private DealBenchmarks() {}
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    OptionsBuilder options = new OptionsBuilder();
+    options.parent(commandLineOptions).addProfiler(GCProfiler.class);
+    if (commandLineOptions.getIncludes().isEmpty()) {
+      options.include(DealBenchmarks.class.getPackage().getName() + "\\..*Benchmark");
+    }
+    new Runner(options.build()).run();
+  }
+}
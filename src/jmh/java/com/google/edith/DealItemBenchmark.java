@@ -0,0 +1,61 @@
+package com.google.edith;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures parsing of the raw price, weight and shelf life strings into a DealItem. */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DealItemBenchmark {
+  @Param({"$1.69", "N/A"})
+  public String price;
+
+  @Param({"64 fl oz", "per lb"})
+  public String weight;
+
+  @Param({"1.0 2.0 Weeks", "NO_EXPIRATION"})
+  public String expirationTime;
+
+  @Benchmark
+  public DealItem setPrice() {
+    DealItem dealItem = new DealItem();
+    dealItem.setPrice(price);
+    return dealItem;
+  }
+
+  @Benchmark
+  public DealItem setWeight() {
+    DealItem dealItem = new DealItem();
+    dealItem.setWeight(weight);
+    return dealItem;
+  }
+
+  @Benchmark
+  public DealItem setExpirationTime() {
+    DealItem dealItem = new DealItem();
+    dealItem.setExpirationTime(expirationTime);
+    return dealItem;
+  }
+
+  @Benchmark
+  public double setAllFields() {
+    DealItem dealItem = new DealItem();
+    dealItem.setPrice(price);
+    dealItem.setWeight(weight);
+    dealItem.setExpirationTime(expirationTime);
+    return dealItem.getUnitPrice();
+  }
+}
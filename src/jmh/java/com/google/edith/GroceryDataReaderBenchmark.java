@@ -0,0 +1,55 @@
+package com.google.edith;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the deal lookup for one receipt item, end to end and with the cheapest item selection on
+ * its own. Name processing uses the offline client instead of the Natural Language API and is not
+ * cached, so every call covers entity extraction, the shelf life lookup and the price index.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroceryDataReaderBenchmark {
+  /** An exact product, one found by the fuzzy matcher and one with no deal. */
+  @Param({"apple juice", "Kroger Apple Juice 64oz", "tortillas"})
+  public String itemName;
+
+  private GroceryDataReader groceryReader;
+  private ImmutableList<DealItem> dealItems;
+
+  @Setup
+  public void setUp() {
+    GroceryNameProcessor processor =
+        new GroceryNameProcessor(() -> OfflineLanguageServiceClient.getInstance());
+    GroceryPriceIndex priceIndex = GroceryPriceIndex.getInstance();
+    groceryReader = new GroceryDataReader(priceIndex, ProductNameMatcher.getInstance(), processor);
+    dealItems = priceIndex.get("apple juice");
+  }
+
+  @Benchmark
+  public DealItem readFile() throws IOException {
+    return groceryReader.readFile(itemName, "5.6");
+  }
+
+  @Benchmark
+  public DealItem getCheapestItemPerUnit() {
+    return groceryReader.getCheapestItemPerUnit(dealItems);
+  }
+}
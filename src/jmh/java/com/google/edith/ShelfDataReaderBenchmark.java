@@ -0,0 +1,39 @@
+package com.google.edith;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures shelf life lookups. The index is loaded during setup so that only the lookup is timed.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShelfDataReaderBenchmark {
+  /** A product with pantry data, one with no usable data and one that is not in the file. */
+  @Param({"tortillas", "milk", "no deal"})
+  public String itemName;
+
+  @Setup
+  public void setUp() {
+    ShelfLifeIndex.getInstance();
+  }
+
+  @Benchmark
+  public String readFile() {
+    return ShelfDataReader.readFile(itemName);
+  }
+}
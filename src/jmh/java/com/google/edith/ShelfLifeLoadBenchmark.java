@@ -0,0 +1,78 @@
+package com.google.edith;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the two ways of loading the shelf life index: streaming foodkeeper.json into a map and
+ * memory-mapping the snapshot written at build time. Lookups are measured on both loaded indexes,
+ * and the gc profiler shows how much each loader allocates. Snapshot lookups are expected to take
+ * constant time and to allocate nothing, neither for products that are found nor for those that are
+ * not.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShelfLifeLoadBenchmark {
+  /** A product with pantry data and one that is not in the file. */
+  @Param({"tortillas", "no deal"})
+  public String itemName;
+
+  private File json;
+  private Path snapshot;
+  private ShelfLifeIndex fromJson;
+  private ShelfLifeIndex fromSnapshot;
+
+  @Setup
+  public void setUp() throws IOException {
+    ClassLoader classLoader = getClass().getClassLoader();
+    json = resourceFile(classLoader.getResource("foodkeeper.json"));
+    snapshot = resourceFile(classLoader.getResource(ShelfLifeSnapshot.RESOURCE_NAME)).toPath();
+    fromJson = loadJson();
+    fromSnapshot = loadSnapshot();
+  }
+
+  @Benchmark
+  public ShelfLifeIndex loadJson() throws IOException {
+    try (FileReader reader = new FileReader(json)) {
+      return ShelfLifeIndex.load(reader);
+    }
+  }
+
+  @Benchmark
+  public ShelfLifeIndex loadSnapshot() throws IOException {
+    return ShelfLifeSnapshot.read(snapshot);
+  }
+
+  @Benchmark
+  public String getFromJson() {
+    return fromJson.get(itemName);
+  }
+
+  @Benchmark
+  public String getFromSnapshot() {
+    return fromSnapshot.get(itemName);
+  }
+
+  private static File resourceFile(URL resource) {
+    return new File(resource.getFile());
+  }
+}
@@ -0,0 +1,227 @@
+package com.google.edith;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroceryNameProcessor that remembers the processed name of each receipt item so that repeated
+ * names are answered in process instead of calling the Natural Language API again. Entries are
+ * keyed on the lowercased input text, bounded in number and expire after a fixed time. Names
+ * answered by the offline fallback while the API is failing are kept for a much shorter time, so
+ * the API names replace them soon after it recovers. The cache holds the pending result of each
+ * name from the moment its load starts, so concurrent requests for the same names wait for one API
+ * call instead of each making their own.
+ */
+final class CachingGroceryNameProcessor extends GroceryNameProcessor {
+  static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+  static final long DEFAULT_EXPIRE_AFTER_WRITE_HOURS = 24;
+  static final long DEFAULT_FALLBACK_EXPIRE_AFTER_WRITE_MINUTES = 5;
+
+  /**
+   * System property choosing how names are processed: "remote" only calls the Natural Language API,
+   * "offline" only uses the local dictionary and "fallback", the default, calls the API and uses
+   * the local dictionary when the API is unreachable or fails.
+   */
+  static final String LANGUAGE_SERVICE_PROPERTY = "edith.languageService";
+
+  private final Ticker ticker;
+  private final long fallbackExpireAfterWriteNanos;
+  private final Cache<String, CompletableFuture<ProcessedName>> processedNames;
+
+  /** Processed name of one text with whether the fallback answered it and when. */
+  private static final class ProcessedName {
+    private final String name;
+    private final boolean fromFallback;
+    private final long loadedNanos;
+
+    ProcessedName(String name, boolean fromFallback, long loadedNanos) {
+      this.name = name;
+      this.fromFallback = fromFallback;
+      this.loadedNanos = loadedNanos;
+    }
+  }
+
+  /**
+   * @param expireAfterWrite - time names answered by the API are kept.
+   * @param fallbackExpireAfterWrite - time names answered by the fallback are kept.
+   */
+  CachingGroceryNameProcessor(
+      LanguageServiceClientProvider client,
+      long maximumSize,
+      long expireAfterWrite,
+      long fallbackExpireAfterWrite,
+      TimeUnit unit,
+      Ticker ticker) {
+    super(client);
+    this.ticker = ticker;
+    this.fallbackExpireAfterWriteNanos = unit.toNanos(fallbackExpireAfterWrite);
+    this.processedNames =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite, unit)
+            .ticker(ticker)
+            .recordStats()
+            .build();
+  }
+
+  /** Returns the processor shared by every request thread of this instance. */
+  static CachingGroceryNameProcessor getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** Lazily creates the shared processor. */
+  private static final class Holder {
+    private static final CachingGroceryNameProcessor INSTANCE =
+        new CachingGroceryNameProcessor(
+            createClientProvider(System.getProperty(LANGUAGE_SERVICE_PROPERTY, "fallback")),
+            DEFAULT_MAXIMUM_SIZE,
+            TimeUnit.HOURS.toMinutes(DEFAULT_EXPIRE_AFTER_WRITE_HOURS),
+            DEFAULT_FALLBACK_EXPIRE_AFTER_WRITE_MINUTES,
+            TimeUnit.MINUTES,
+            Ticker.systemTicker());
+  }
+
+  /** Returns the client provider for the given value of LANGUAGE_SERVICE_PROPERTY. */
+  static LanguageServiceClientProvider createClientProvider(String mode) {
+    switch (mode) {
+      case "remote":
+        return new SharedLanguageServiceClientProvider();
+      case "offline":
+        return () -> OfflineLanguageServiceClient.getInstance();
+      case "fallback":
+        return new FallbackLanguageServiceClientProvider(
+            new SharedLanguageServiceClientProvider(), OfflineLanguageServiceClient.getInstance());
+      default:
+        throw new IllegalArgumentException("Unknown language service: " + mode);
+    }
+  }
+
+  /**
+   * Returns the cached processed name for text, calling the Natural Language API only on a miss.
+   * Failed calls are not cached.
+   */
+  @Override
+  public String process(String text) throws Exception {
+    return processAll(ImmutableList.of(text)).get(0);
+  }
+
+  /**
+   * Returns the processed names of every text, sending only the names missing from the cache to the
+   * Natural Language API in a single batch. Names another request is already loading are waited for
+   * instead of being sent again.
+   */
+  @Override
+  public ImmutableList<String> processAll(List<String> texts) throws Exception {
+    Set<String> keys = new LinkedHashSet<>();
+    for (String text : texts) {
+      keys.add(text.toLowerCase());
+    }
+    // Read through the map view, which does not count as a cache hit.
+    Map<String, CompletableFuture<ProcessedName>> cachedNames = processedNames.asMap();
+    long now = ticker.read();
+    for (String key : keys) {
+      CompletableFuture<ProcessedName> cached = cachedNames.get(key);
+      if (cached != null && isExpiredFallback(cached, now)) {
+        cachedNames.remove(key, cached);
+      }
+    }
+
+    Map<String, CompletableFuture<ProcessedName>> namesByKey = new HashMap<>();
+    List<String> keysToLoad = new ArrayList<>();
+    for (String key : keys) {
+      CompletableFuture<ProcessedName> name = processedNames.getIfPresent(key);
+      if (name == null) {
+        CompletableFuture<ProcessedName> loading = new CompletableFuture<>();
+        name = cachedNames.putIfAbsent(key, loading);
+        if (name == null) {
+          name = loading;
+          keysToLoad.add(key);
+        }
+      }
+      namesByKey.put(key, name);
+    }
+    if (!keysToLoad.isEmpty()) {
+      load(keysToLoad, namesByKey);
+    }
+
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    for (String text : texts) {
+      try {
+        names.add(Uninterruptibles.getUninterruptibly(namesByKey.get(text.toLowerCase())).name);
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+        throw e;
+      }
+    }
+    return names.build();
+  }
+
+  /**
+   * Processes the names in one batch and completes their pending results. Failed calls are not
+   * cached: their pending results are removed and fail every request waiting for them.
+   */
+  private void load(List<String> keys, Map<String, CompletableFuture<ProcessedName>> namesByKey)
+      throws Exception {
+    Map<String, ProcessedName> loadedNames;
+    try {
+      loadedNames = loadNames(keys);
+    } catch (Exception | Error e) {
+      for (String key : keys) {
+        processedNames.asMap().remove(key, namesByKey.get(key));
+        namesByKey.get(key).completeExceptionally(e);
+      }
+      throw e;
+    }
+    for (String key : keys) {
+      namesByKey.get(key).complete(loadedNames.get(key));
+    }
+  }
+
+  private boolean isExpiredFallback(CompletableFuture<ProcessedName> cached, long now) {
+    if (!cached.isDone() || cached.isCompletedExceptionally()) {
+      return false;
+    }
+    ProcessedName name = cached.join();
+    return name.fromFallback && now - name.loadedNanos >= fallbackExpireAfterWriteNanos;
+  }
+
+  /**
+   * Processes the names in one batch. A batch is kept only briefly as soon as the fallback answered
+   * any part of it.
+   */
+  private Map<String, ProcessedName> loadNames(List<String> keys) throws Exception {
+    ProcessedNames loadedNames = processNames(keys);
+    long loadedNanos = ticker.read();
+    Map<String, ProcessedName> namesByKey = new HashMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      namesByKey.put(
+          keys.get(i),
+          new ProcessedName(loadedNames.names().get(i), loadedNames.fromFallback(), loadedNanos));
+    }
+    return namesByKey;
+  }
+
+  /** Returns the hit, miss and eviction counts of the cache of processed names. */
+  CacheStats stats() {
+    return processedNames.stats();
+  }
+
+  /** Drops every cached name. */
+  void invalidateAll() {
+    processedNames.invalidateAll();
+  }
+}
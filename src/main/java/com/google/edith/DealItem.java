@@ -35,6 +35,18 @@ public final class DealItem {
   private String expirationTime;
   private static final String EXPIRATION_TEMPLATE = "%s %s";
 
+  /**
+   * Creates the item returned when no store has a better deal than the receipt.
+   *
+   * @param expirationTime - shelf life of the product or NO_EXPIRATION.
+   */
+  static DealItem noDeal(String expirationTime) {
+    DealItem noDeal = new DealItem();
+    noDeal.setStore(Store.NO_STORE);
+    noDeal.setExpirationTime(expirationTime);
+    return noDeal;
+  }
+
   public void setStore(Store store) {
     this.storeName = store.toString();
   }
@@ -49,14 +61,15 @@ public final class DealItem {
   public void setPrice(String price) {
     if (price.equals("N/A") || price.isEmpty() || price.equals("?")) {
       this.price = 0.0;
-      return;
-    }
-    String result = price.substring(1, price.length());
-    try {
-      this.price = (double) Double.parseDouble(result);
-    } catch (NumberFormatException e) {
-      this.price = 0.0;
+    } else {
+      String result = price.substring(1, price.length());
+      try {
+        this.price = (double) Double.parseDouble(result);
+      } catch (NumberFormatException e) {
+        this.price = 0.0;
+      }
     }
+    updateUnitPrice();
   }
 
   /**
@@ -92,6 +105,7 @@ public final class DealItem {
         this.weight = 0.0;
       }
     }
+    updateUnitPrice();
   }
 
   public void setComment(String comment) {
@@ -128,19 +142,42 @@ public final class DealItem {
     this.expirationTime = String.format(EXPIRATION_TEMPLATE, min, timeMeasurement);
   }
 
+  /**
+   * Returns a copy of this item with the expiration time set, leaving this item untouched so that
+   * shared instances can be handed out safely.
+   */
+  DealItem withExpirationTime(String expirationTime) {
+    DealItem copy = new DealItem();
+    copy.storeName = storeName;
+    copy.price = price;
+    copy.weight = weight;
+    copy.comment = comment;
+    copy.unitPrice = unitPrice;
+    copy.setExpirationTime(expirationTime);
+    return copy;
+  }
+
   /**
    * Grocery items are compared by determining unit value, which is price divided by weight. This is
    * because the items at each different store are the same type, but differ by weight and price.
-   * Using the unit price allows us to compare them more equally. Since invalid input for weight
-   * leads to a default weight of 0.0, we need to prevent divide by 0 values as well.
+   * Using the unit price allows us to compare them more equally. The value is kept up to date by
+   * {@link #setPrice(String)} and {@link #setWeight(String)}, so reading it never writes to shared
+   * items.
    */
   public double getUnitPrice() {
+    return unitPrice;
+  }
+
+  /**
+   * Recomputes the unit price from the price and weight. Since invalid input for weight leads to a
+   * default weight of 0.0, we need to prevent divide by 0 values as well.
+   */
+  private void updateUnitPrice() {
     if (weight == 0 || price == 0) {
       this.unitPrice = 0.0;
     } else {
       this.unitPrice = this.price / this.weight;
     }
-    return unitPrice;
   }
 
   public String getStore() {
@@ -0,0 +1,127 @@
+package com.google.edith;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.edith.GroceryNameProcessor.LanguageServiceClientProvider;
+import com.google.edith.GroceryNameProcessor.LanguageServiceClientWrapper;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Provides clients that use the primary provider and answer from the fallback client whenever the
+ * primary client cannot be created, a call to it fails or it does not answer before the deadline.
+ */
+final class FallbackLanguageServiceClientProvider implements LanguageServiceClientProvider {
+  /** Time a call to the primary client may take before the fallback answers instead. */
+  static final long DEFAULT_DEADLINE_MILLIS = 2000;
+
+  private static final int MAX_CALL_THREADS = 8;
+  private static final int MAX_QUEUED_CALLS = 64;
+
+  private final LanguageServiceClientProvider primary;
+  private final LanguageServiceClientWrapper fallback;
+  private final ExecutorService executor;
+  private final long deadlineMillis;
+
+  FallbackLanguageServiceClientProvider(
+      LanguageServiceClientProvider primary, LanguageServiceClientWrapper fallback) {
+    this(primary, fallback, SharedExecutor.INSTANCE, DEFAULT_DEADLINE_MILLIS);
+  }
+
+  /**
+   * @param executor - executor the primary calls run on, so they can be abandoned at the deadline.
+   *     Calls it rejects are answered by the fallback.
+   * @param deadlineMillis - time allowed for each call to the primary client.
+   */
+  FallbackLanguageServiceClientProvider(
+      LanguageServiceClientProvider primary,
+      LanguageServiceClientWrapper fallback,
+      ExecutorService executor,
+      long deadlineMillis) {
+    this.primary = primary;
+    this.fallback = fallback;
+    this.executor = executor;
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  /** Bounded pool shared by every provider of this instance to run primary calls on. */
+  private static final class SharedExecutor {
+    private static final ExecutorService INSTANCE =
+        new ThreadPoolExecutor(
+            MAX_CALL_THREADS,
+            MAX_CALL_THREADS,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_CALLS),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("language-call-%d").build());
+  }
+
+  @Override
+  public LanguageServiceClientWrapper get() {
+    try {
+      return new FallbackClient(primary.get());
+    } catch (IOException | RuntimeException e) {
+      System.out.println(e.getMessage());
+      return new FallbackClient(null);
+    }
+  }
+
+  /** Delegates to the primary client and retries the request on the fallback when it fails. */
+  private final class FallbackClient implements LanguageServiceClientWrapper {
+    /** Primary client, or null when it could not be created and the fallback answers every call. */
+    private final LanguageServiceClientWrapper client;
+
+    private volatile boolean answeredByFallback;
+
+    FallbackClient(LanguageServiceClientWrapper client) {
+      this.client = client;
+    }
+
+    @Override
+    public AnalyzeEntitiesResponse analyzeEntities(AnalyzeEntitiesRequest request) {
+      if (client != null) {
+        try {
+          Future<AnalyzeEntitiesResponse> call =
+              executor.submit(() -> client.analyzeEntities(request));
+          try {
+            return call.get(deadlineMillis, TimeUnit.MILLISECONDS);
+          } catch (TimeoutException e) {
+            call.cancel(true);
+            System.out.println("Natural Language API call missed its deadline");
+          }
+        } catch (RejectedExecutionException e) {
+          System.out.println("Too many Natural Language API calls in flight");
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          Throwables.throwIfInstanceOf(cause, Error.class);
+          System.out.println(cause.getMessage());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      answeredByFallback = true;
+      return fallback.analyzeEntities(request);
+    }
+
+    @Override
+    public boolean answeredByFallback() {
+      return answeredByFallback;
+    }
+
+    @Override
+    public void close() throws Exception {
+      if (client != null) {
+        client.close();
+      }
+    }
+  }
+}
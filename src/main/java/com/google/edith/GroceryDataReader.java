@@ -1,13 +1,7 @@
 package com.google.edith;
 
 import com.google.common.collect.ImmutableList;
-import com.google.edith.DealItem.Store;
-import com.opencsv.CSVReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.net.URL;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -15,74 +9,83 @@ import java.util.List;
  * item.
  */
 public final class GroceryDataReader {
-  private static final ImmutableList<Store> STORES =
-      ImmutableList.of(Store.ALDI, Store.KROGER, Store.TRADER_JOES, Store.PUBLIX, Store.WALMART);
+  private final GroceryPriceIndex priceIndex;
+  private final ProductNameMatcher nameMatcher;
+  private final GroceryNameProcessor processor;
+
+  public GroceryDataReader() {
+    this(
+        GroceryPriceIndex.getInstance(),
+        ProductNameMatcher.getInstance(),
+        CachingGroceryNameProcessor.getInstance());
+  }
+
+  GroceryDataReader(
+      GroceryPriceIndex priceIndex,
+      ProductNameMatcher nameMatcher,
+      GroceryNameProcessor processor) {
+    this.priceIndex = priceIndex;
+    this.nameMatcher = nameMatcher;
+    this.processor = processor;
+  }
 
   /**
-   * Finds the specified product in the file and puts the data into DealItem objects to be handled.
+   * Finds the specified product in the price index and returns the cheapest DealItem for it, or a
+   * NO_STORE DealItem when there is no cheaper deal. Names without an exact entry fall back to the
+   * most similar product name above the matcher's threshold.
    */
   public DealItem readFile(String itemName, String itemPrice) throws IOException {
-    URL csvResource = getClass().getClassLoader().getResource("grocerydata.csv");
-    File groceryDataFile = new File(csvResource.getFile());
-    double price = (double) Double.parseDouble(itemPrice);
-
-    CSVReader reader = new CSVReader(new FileReader(groceryDataFile), ',');
-    DealItem cheapestItem = null;
-
-    // Should never be null with file grocerydatareader.csv.
-    String[] record = null;
-
     String item = "";
     try {
-      GroceryNameProcessor processor = new GroceryNameProcessor();
       item = processor.process(itemName);
     } catch (Exception e) {
       item = itemName;
     }
+    return readFile(itemName, item, itemPrice);
+  }
 
-    String expirationTime = ShelfDataReader.readFile(itemName);
+  /**
+   * Like {@link #readFile(String, String)} for an item whose name was already processed, such as by
+   * {@link GroceryNameProcessor#processAll}, so the name is not processed again.
+   *
+   * @param itemName - name the shelf life of the item is read for.
+   * @param processedName - name the price index is searched for.
+   */
+  public DealItem readFile(String itemName, String processedName, String itemPrice)
+      throws IOException {
+    double price = (double) Double.parseDouble(itemPrice);
+    String item = processedName;
 
-    while ((record = reader.readNext()) != null) {
-      if (record[0].equals(item.toLowerCase())) {
-        List<DealItem> dealItems = new ArrayList<DealItem>();
-        for (int i = 0; i < STORES.size(); i++) {
-          // Each store has 3 columns of data, so if i is the store number, the starting index of
-          // the data is i*3.
-          int storeDataStartColumn = i * 3;
-          DealItem dealItem = new DealItem();
-          dealItem.setStore(STORES.get(i));
-          dealItem.setPrice(record[storeDataStartColumn + 1]);
-          dealItem.setWeight(record[storeDataStartColumn + 2]);
-          dealItem.setComment(record[storeDataStartColumn + 3]);
-          if (expirationTime.isEmpty()) {
-            dealItem.setExpirationTime("NO_EXPIRATION");
-          } else {
-            dealItem.setExpirationTime(expirationTime);
-          }
-          dealItems.add(dealItem);
-        }
+    String expirationTime = ShelfDataReader.readFile(itemName);
+    if (expirationTime.isEmpty()) {
+      expirationTime = "NO_EXPIRATION";
+    }
 
-        cheapestItem = getCheapestItemPerUnit(dealItems);
-      }
+    DealItem cheapestItem = null;
+    List<DealItem> dealItems = priceIndex.get(GroceryPriceIndex.normalize(item));
+    if (dealItems.isEmpty()) {
+      dealItems =
+          nameMatcher
+              .match(item)
+              .map(match -> priceIndex.get(match.name()))
+              .orElse(ImmutableList.of());
+    }
+    if (!dealItems.isEmpty()) {
+      cheapestItem = getCheapestItemPerUnit(dealItems);
     }
-    reader.close();
+
     if (cheapestItem == null || cheapestItem.getPrice() > price) {
-      cheapestItem = new DealItem();
-      cheapestItem.setStore(Store.NO_STORE);
-      if (expirationTime.isEmpty()) {
-        cheapestItem.setExpirationTime("NO_EXPIRATION");
-      } else {
-        cheapestItem.setExpirationTime(expirationTime);
-      }
+      return DealItem.noDeal(expirationTime);
     }
-    return cheapestItem;
+    // Items in the index are shared across requests, so the expiration is set on a copy.
+    return cheapestItem.withExpirationTime(expirationTime);
   }
 
   /**
    * Gets the $/unit value of each item and returns the item that is cheapest per unit. dealItems
    * will never be empty because this function is only ever called when a product match is found.
    */
-  private DealItem getCheapestItemPerUnit(List<DealItem> dealItems) {
+  DealItem getCheapestItemPerUnit(List<DealItem> dealItems) {
     double cheapestValue = 10;
     DealItem cheapestItem = dealItems.get(0);
 
@@ -1,5 +1,6 @@
 package com.google.edith;
 
+import com.google.auto.value.AutoValue;
 import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
 import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
 import com.google.cloud.language.v1.Document;
@@ -8,11 +9,19 @@ import com.google.cloud.language.v1.EncodingType;
 import com.google.cloud.language.v1.Entity;
 import com.google.cloud.language.v1.EntityMention;
 import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class GroceryNameProcessor {
+  /** Maximum number of texts packed into a single Natural Language request by processAll. */
+  static final int MAX_BATCH_SIZE = 100;
+
+  /** Ends each packed text as its own sentence so that entities do not span two texts. */
+  private static final String TEXT_SEPARATOR = ".\n";
 
   interface LanguageServiceClientProvider {
     LanguageServiceClientWrapper get() throws IOException;
@@ -20,9 +29,26 @@ public class GroceryNameProcessor {
 
   interface LanguageServiceClientWrapper extends AutoCloseable {
     AnalyzeEntitiesResponse analyzeEntities(AnalyzeEntitiesRequest request);
+
+    /** Returns true if a call of this client was answered by a fallback instead of the API. */
+    default boolean answeredByFallback() {
+      return false;
+    }
   }
 
-  class LanguageServiceCloser implements LanguageServiceClientWrapper {
+  /** Processed names of a list of texts and whether a fallback answered for any of them. */
+  @AutoValue
+  abstract static class ProcessedNames {
+    abstract ImmutableList<String> names();
+
+    abstract boolean fromFallback();
+
+    static ProcessedNames create(ImmutableList<String> names, boolean fromFallback) {
+      return new AutoValue_GroceryNameProcessor_ProcessedNames(names, fromFallback);
+    }
+  }
+
+  static class LanguageServiceCloser implements LanguageServiceClientWrapper {
     private LanguageServiceClient client;
 
     LanguageServiceCloser() throws IOException {
@@ -38,28 +64,25 @@ public class GroceryNameProcessor {
     }
   }
 
-  private static LanguageServiceClientProvider clientProvider;
+  private final LanguageServiceClientProvider clientProvider;
 
   GroceryNameProcessor() {
-    this.clientProvider = () -> new LanguageServiceCloser();
+    this(defaultClientProvider());
   }
 
   GroceryNameProcessor(LanguageServiceClientProvider client) {
     this.clientProvider = client;
   }
 
+  /** Returns a provider that creates a new LanguageServiceClient for every call. */
+  static LanguageServiceClientProvider defaultClientProvider() {
+    return () -> new LanguageServiceCloser();
+  }
+
   public String process(String text) throws Exception {
     List<Entity> commonEntities = new ArrayList<Entity>();
     try (LanguageServiceClientWrapper client = clientProvider.get()) {
-      Document doc =
-          Document.newBuilder().setContent(text.toLowerCase()).setType(Type.PLAIN_TEXT).build();
-      AnalyzeEntitiesRequest request =
-          AnalyzeEntitiesRequest.newBuilder()
-              .setDocument(doc)
-              .setEncodingType(EncodingType.UTF16)
-              .build();
-
-      AnalyzeEntitiesResponse response = client.analyzeEntities(request);
+      AnalyzeEntitiesResponse response = client.analyzeEntities(createRequest(text.toLowerCase()));
 
       for (Entity entity : response.getEntitiesList()) {
         for (EntityMention mention : entity.getMentionsList()) {
@@ -75,4 +98,82 @@ public class GroceryNameProcessor {
     }
     return "";
   }
+
+  /**
+   * Processes every text with one Natural Language request per batch of MAX_BATCH_SIZE texts
+   * instead of one request per text. The texts of a batch are packed into a single document, one
+   * sentence per text, and each common entity mention is mapped back to its text by its offset.
+   *
+   * @param texts - receipt item names to process.
+   * @return ImmutableList<String> - processed name of each text in input order, or an empty string
+   *     when no common entity was found for that text.
+   */
+  public ImmutableList<String> processAll(List<String> texts) throws Exception {
+    return processNames(texts).names();
+  }
+
+  /** Like processAll, but also tells whether the names came from a fallback client. */
+  ProcessedNames processNames(List<String> texts) throws Exception {
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    boolean fromFallback = false;
+    for (List<String> batch : Lists.partition(texts, MAX_BATCH_SIZE)) {
+      ProcessedNames batchNames = processBatch(batch);
+      names.addAll(batchNames.names());
+      fromFallback |= batchNames.fromFallback();
+    }
+    return ProcessedNames.create(names.build(), fromFallback);
+  }
+
+  private ProcessedNames processBatch(List<String> texts) throws Exception {
+    StringBuilder content = new StringBuilder();
+    int[] textStarts = new int[texts.size()];
+    for (int i = 0; i < texts.size(); i++) {
+      if (i > 0) {
+        content.append(TEXT_SEPARATOR);
+      }
+      textStarts[i] = content.length();
+      content.append(texts.get(i).toLowerCase());
+    }
+
+    String[] names = new String[texts.size()];
+    boolean fromFallback;
+    try (LanguageServiceClientWrapper client = clientProvider.get()) {
+      AnalyzeEntitiesResponse response = client.analyzeEntities(createRequest(content.toString()));
+
+      // Keeps the first common entity of each text, like process does for a single text.
+      for (Entity entity : response.getEntitiesList()) {
+        for (EntityMention mention : entity.getMentionsList()) {
+          if (mention.getType() == EntityMention.Type.COMMON) {
+            int index = findTextIndex(textStarts, mention.getText().getBeginOffset());
+            if (names[index] == null) {
+              names[index] = entity.getName();
+            }
+          }
+        }
+      }
+      fromFallback = client.answeredByFallback();
+    }
+
+    for (int i = 0; i < names.length; i++) {
+      if (names[i] == null) {
+        names[i] = "";
+      }
+    }
+    return ProcessedNames.create(ImmutableList.copyOf(names), fromFallback);
+  }
+
+  /** Returns the index of the text that contains the UTF-16 offset in the packed document. */
+  private static int findTextIndex(int[] textStarts, int offset) {
+    int index = Arrays.binarySearch(textStarts, offset);
+    // A negative result is (-(insertion point) - 1) and the text starts just before that point.
+    return index >= 0 ? index : Math.max(0, -index - 2);
+  }
+
+  private static AnalyzeEntitiesRequest createRequest(String content) {
+    Document doc = Document.newBuilder().setContent(content).setType(Type.PLAIN_TEXT).build();
+    return AnalyzeEntitiesRequest.newBuilder()
+        .setDocument(doc)
+        .setEncodingType(EncodingType.UTF16)
+        .build();
+  }
 }
@@ -0,0 +1,105 @@
+package com.google.edith;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.edith.DealItem.Store;
+import com.opencsv.CSVReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable in-memory view of grocerydata.csv keyed by the lowercased product name. The file is
+ * parsed once per instance and the resulting index is shared by every request thread.
+ */
+final class GroceryPriceIndex {
+  static final ImmutableList<Store> STORES =
+      ImmutableList.of(Store.ALDI, Store.KROGER, Store.TRADER_JOES, Store.PUBLIX, Store.WALMART);
+
+  private final ImmutableMap<String, ImmutableList<DealItem>> dealItemsByName;
+
+  private GroceryPriceIndex(ImmutableMap<String, ImmutableList<DealItem>> dealItemsByName) {
+    this.dealItemsByName = dealItemsByName;
+  }
+
+  /** Returns the index built from grocerydata.csv, loading it on first use. */
+  static GroceryPriceIndex getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** Lazily loads the shared index; class initialization guarantees it is built exactly once. */
+  private static final class Holder {
+    private static final GroceryPriceIndex INSTANCE = loadResource("grocerydata.csv");
+  }
+
+  private static GroceryPriceIndex loadResource(String resourceName) {
+    URL csvResource = GroceryPriceIndex.class.getClassLoader().getResource(resourceName);
+    File groceryDataFile = new File(csvResource.getFile());
+    try (FileReader reader = new FileReader(groceryDataFile)) {
+      return load(reader);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Builds an index from csv rows where the first column is the product name followed by price,
+   * weight and comment columns for each store in {@link #STORES}. When a product name appears on
+   * more than one row the last row wins, which matches the previous full scan of the file.
+   */
+  static GroceryPriceIndex load(Reader csv) throws IOException {
+    Map<String, ImmutableList<DealItem>> dealItemsByName = new HashMap<>();
+    CSVReader reader = new CSVReader(csv, ',');
+    String[] record;
+    while ((record = reader.readNext()) != null) {
+      ImmutableList.Builder<DealItem> dealItems = ImmutableList.builder();
+      for (int i = 0; i < STORES.size(); i++) {
+        // Each store has 3 columns of data, so if i is the store number, the starting index of
+        // the data is i*3.
+        int storeDataStartColumn = i * 3;
+        DealItem dealItem = new DealItem();
+        dealItem.setStore(STORES.get(i));
+        dealItem.setPrice(record[storeDataStartColumn + 1]);
+        dealItem.setWeight(record[storeDataStartColumn + 2]);
+        // The setters compute the unit price, so items are never written after loading.
+        dealItem.setComment(record[storeDataStartColumn + 3]);
+        dealItems.add(dealItem);
+      }
+      dealItemsByName.put(normalize(record[0]), dealItems.build());
+    }
+    reader.close();
+    return new GroceryPriceIndex(ImmutableMap.copyOf(dealItemsByName));
+  }
+
+  /**
+   * Returns the pre-parsed deal items for every store carrying {@code normalizedName}, or an empty
+   * list when the product is not in the file. The returned items are shared and must not be
+   * mutated.
+   *
+   * @param normalizedName - product name as produced by {@link #normalize(String)}.
+   */
+  ImmutableList<DealItem> get(String normalizedName) {
+    ImmutableList<DealItem> dealItems = dealItemsByName.get(normalizedName);
+    return dealItems == null ? ImmutableList.of() : dealItems;
+  }
+
+  int size() {
+    return dealItemsByName.size();
+  }
+
+  /** Returns the normalized name of every product in the index. */
+  ImmutableSet<String> names() {
+    return dealItemsByName.keySet();
+  }
+
+  /** Converts a product name into the form used as an index key. */
+  static String normalize(String name) {
+    return name.trim().toLowerCase();
+  }
+}
@@ -0,0 +1,158 @@
+package com.google.edith;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.edith.GroceryNameProcessor.LanguageServiceClientWrapper;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the grocery product from receipt text without calling the Natural Language API. Each
+ * line of the document is tokenized, receipt abbreviations are expanded and the longest run of
+ * tokens naming a known product becomes a common entity. Known products are the names in
+ * grocerydata.csv followed by the names in foodkeeper.json.
+ */
+final class OfflineLanguageServiceClient implements LanguageServiceClientWrapper {
+  private static final Splitter TOKEN_SPLITTER =
+      Splitter.on(CharMatcher.inRange('a', 'z').negate()).omitEmptyStrings();
+
+  /** Abbreviations commonly printed on grocery receipts. */
+  private static final ImmutableMap<String, String> ABBREVIATIONS =
+      ImmutableMap.<String, String>builder()
+          .put("bnls", "boneless")
+          .put("brst", "breast")
+          .put("btr", "butter")
+          .put("chkn", "chicken")
+          .put("chz", "cheese")
+          .put("crm", "cream")
+          .put("grd", "ground")
+          .put("lg", "large")
+          .put("mlk", "milk")
+          .put("oj", "orange juice")
+          .put("org", "organic")
+          .put("pb", "peanut butter")
+          .put("sm", "small")
+          .put("tom", "tomatoes")
+          .put("whl", "whole")
+          .put("wht", "white")
+          .put("ygrt", "yogurt")
+          .build();
+
+  private final ImmutableMap<String, String> productsByPhrase;
+  private final int maxPhraseLength;
+
+  /**
+   * Creates a client that recognizes the given product names. When two names have the same tokens
+   * the first one is kept.
+   */
+  OfflineLanguageServiceClient(Iterable<String> productNames) {
+    Map<String, String> productsByPhrase = new HashMap<>();
+    int maxPhraseLength = 0;
+    for (String productName : productNames) {
+      List<String> tokens = tokenize(productName);
+      if (!tokens.isEmpty()) {
+        productsByPhrase.putIfAbsent(String.join(" ", tokens), productName);
+        maxPhraseLength = Math.max(maxPhraseLength, tokens.size());
+      }
+    }
+    this.productsByPhrase = ImmutableMap.copyOf(productsByPhrase);
+    this.maxPhraseLength = maxPhraseLength;
+  }
+
+  /** Returns the client built from the product names of this instance's data files. */
+  static OfflineLanguageServiceClient getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** Lazily builds the shared dictionary. */
+  private static final class Holder {
+    private static final OfflineLanguageServiceClient INSTANCE =
+        new OfflineLanguageServiceClient(
+            Iterables.concat(
+                GroceryPriceIndex.getInstance().names(), ShelfLifeIndex.getInstance().names()));
+  }
+
+  /**
+   * Returns one common entity for each line of the document that names a known product, with the
+   * mention offset set to the start of that line in UTF-16 code units.
+   */
+  @Override
+  public AnalyzeEntitiesResponse analyzeEntities(AnalyzeEntitiesRequest request) {
+    AnalyzeEntitiesResponse.Builder response = AnalyzeEntitiesResponse.newBuilder();
+    int lineStart = 0;
+    for (String line : Splitter.on('\n').split(request.getDocument().getContent())) {
+      String product = findProduct(tokenize(line));
+      if (product != null) {
+        EntityMention mention =
+            EntityMention.newBuilder()
+                .setType(EntityMention.Type.COMMON)
+                .setText(TextSpan.newBuilder().setContent(line).setBeginOffset(lineStart))
+                .build();
+        response.addEntities(
+            Entity.newBuilder()
+                .setName(product)
+                .setType(Entity.Type.CONSUMER_GOOD)
+                .addMentions(mention));
+      }
+      lineStart += line.length() + 1;
+    }
+    return response.build();
+  }
+
+  @Override
+  public void close() {}
+
+  /**
+   * Finds the longest run of tokens naming a known product. Among runs of the same length the last
+   * one wins, as receipts usually print the brand before the product.
+   */
+  private String findProduct(List<String> tokens) {
+    for (int length = Math.min(maxPhraseLength, tokens.size()); length > 0; length--) {
+      for (int start = tokens.size() - length; start >= 0; start--) {
+        String product = findPhrase(String.join(" ", tokens.subList(start, start + length)));
+        if (product != null) {
+          return product;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Looks up the phrase along with its simple plural and singular forms. */
+  private String findPhrase(String phrase) {
+    String product = productsByPhrase.get(phrase);
+    if (product == null) {
+      product = productsByPhrase.get(phrase + "s");
+    }
+    if (product == null) {
+      product = productsByPhrase.get(phrase + "es");
+    }
+    if (product == null && phrase.endsWith("s")) {
+      product = productsByPhrase.get(phrase.substring(0, phrase.length() - 1));
+    }
+    return product;
+  }
+
+  /** Splits text into lowercase words and expands receipt abbreviations. */
+  static ImmutableList<String> tokenize(String text) {
+    ImmutableList.Builder<String> tokens = ImmutableList.builder();
+    for (String token : TOKEN_SPLITTER.split(text.toLowerCase())) {
+      String expanded = ABBREVIATIONS.get(token);
+      if (expanded == null) {
+        tokens.add(token);
+      } else {
+        tokens.addAll(Splitter.on(' ').split(expanded));
+      }
+    }
+    return tokens.build();
+  }
+}
@@ -0,0 +1,141 @@
+package com.google.edith;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.primitives.Ints;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Approximate product name lookup backed by a character trigram inverted index. Candidates are
+ * scored with the Dice coefficient of their trigram sets, so "apples" finds "apple" and "apple
+ * juice 64oz" finds "apple juice" without another call to the Natural Language API.
+ */
+final class ProductNameMatcher {
+  static final double DEFAULT_THRESHOLD = 0.6;
+  static final String THRESHOLD_PROPERTY = "edith.productMatchThreshold";
+
+  private static final CharMatcher SEPARATORS =
+      CharMatcher.inRange('a', 'z').or(CharMatcher.inRange('0', '9')).negate();
+
+  /** Best candidate for a query and its similarity score between 0 and 1. */
+  @AutoValue
+  abstract static class Match {
+    abstract String name();
+
+    abstract double score();
+
+    static Match create(String name, double score) {
+      return new AutoValue_ProductNameMatcher_Match(name, score);
+    }
+  }
+
+  private final ImmutableList<String> names;
+  private final int[] trigramCounts;
+  private final ImmutableMap<String, int[]> namesByTrigram;
+  private final double threshold;
+
+  /**
+   * Indexes the given product names.
+   *
+   * @param threshold - lowest score, between 0 and 1, that {@link #match(String)} accepts.
+   */
+  ProductNameMatcher(Iterable<String> productNames, double threshold) {
+    if (threshold < 0 || threshold > 1) {
+      throw new IllegalArgumentException("Match threshold must be between 0 and 1: " + threshold);
+    }
+    // Sorting keeps ties between equally scored names independent of the source order.
+    this.names = ImmutableSortedSet.copyOf(productNames).asList();
+    this.trigramCounts = new int[names.size()];
+    Map<String, List<Integer>> postings = new HashMap<>();
+    for (int id = 0; id < names.size(); id++) {
+      Set<String> trigrams = trigrams(names.get(id));
+      trigramCounts[id] = trigrams.size();
+      for (String trigram : trigrams) {
+        postings.computeIfAbsent(trigram, key -> new ArrayList<>()).add(id);
+      }
+    }
+    ImmutableMap.Builder<String, int[]> namesByTrigram = ImmutableMap.builder();
+    postings.forEach((trigram, ids) -> namesByTrigram.put(trigram, Ints.toArray(ids)));
+    this.namesByTrigram = namesByTrigram.build();
+    this.threshold = threshold;
+  }
+
+  /**
+   * Returns the matcher over the names in grocerydata.csv. The threshold is read from the {@code
+   * edith.productMatchThreshold} system property and defaults to {@link #DEFAULT_THRESHOLD}.
+   */
+  static ProductNameMatcher getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** Lazily builds the shared index. */
+  private static final class Holder {
+    private static final ProductNameMatcher INSTANCE =
+        new ProductNameMatcher(
+            GroceryPriceIndex.getInstance().names(),
+            Double.parseDouble(
+                System.getProperty(THRESHOLD_PROPERTY, String.valueOf(DEFAULT_THRESHOLD))));
+  }
+
+  /**
+   * Returns the indexed name most similar to {@code query}, or an empty Optional when no name
+   * reaches the threshold. Among equally scored names the alphabetically first one wins.
+   */
+  Optional<Match> match(String query) {
+    Set<String> queryTrigrams = trigrams(query);
+    if (queryTrigrams.isEmpty()) {
+      return Optional.empty();
+    }
+    int[] sharedCounts = new int[names.size()];
+    for (String trigram : queryTrigrams) {
+      int[] ids = namesByTrigram.get(trigram);
+      if (ids != null) {
+        for (int id : ids) {
+          sharedCounts[id]++;
+        }
+      }
+    }
+
+    int bestId = -1;
+    double bestScore = 0;
+    for (int id = 0; id < sharedCounts.length; id++) {
+      if (sharedCounts[id] == 0) {
+        continue;
+      }
+      double score = 2.0 * sharedCounts[id] / (queryTrigrams.size() + trigramCounts[id]);
+      if (score > bestScore) {
+        bestScore = score;
+        bestId = id;
+      }
+    }
+    if (bestId < 0 || bestScore < threshold) {
+      return Optional.empty();
+    }
+    return Optional.of(Match.create(names.get(bestId), bestScore));
+  }
+
+  /**
+   * Returns the distinct trigrams of the lowercased text after collapsing punctuation to single
+   * spaces. The text is padded with a space on each side so word boundaries count as well.
+   */
+  static Set<String> trigrams(String text) {
+    String padded = " " + SEPARATORS.trimAndCollapseFrom(text.toLowerCase(), ' ') + " ";
+    Set<String> trigrams = new LinkedHashSet<>();
+    if (padded.trim().isEmpty()) {
+      return trigrams;
+    }
+    for (int i = 0; i + 3 <= padded.length(); i++) {
+      trigrams.add(padded.substring(i, i + 3));
+    }
+    return trigrams;
+  }
+}
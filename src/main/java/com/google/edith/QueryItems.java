@@ -9,6 +9,8 @@ import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.users.UserService;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.edith.services.MemcacheReadCache;
+import com.google.edith.services.UserInfoRepository;
 import com.google.edith.servlets.Item;
 import com.google.edith.servlets.Receipt;
 import com.google.gson.Gson;
@@ -19,6 +21,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -32,10 +35,35 @@ public class QueryItems {
   private static final String MONTHS = "months";
   private final DatastoreService datastore;
   private UserService userService;
+  private final MemcacheReadCache receiptCache;
+  private final UserInfoRepository userInfoRepository;
 
   public QueryItems(DatastoreService datastore, UserService userService) {
+    this(
+        datastore,
+        userService,
+        MemcacheReadCache.forNamespace(MemcacheReadCache.RECEIPTS_NAMESPACE),
+        UserInfoRepository.getInstance());
+  }
+
+  /**
+   * Creates the query with the given cache of receipts by user id. StoreReceiptService invalidates
+   * the user's entry whenever it stores a receipt. Receipts are read with an ancestor query on the
+   * UserInfo entity they are stored under, so a read after the invalidation always sees the new
+   * receipt and never caches the list from before it. Users without a UserInfo entity have no
+   * receipts, which is not cached.
+   *
+   * @param userInfoRepository - repository that finds the UserInfo parent of the receipts.
+   */
+  public QueryItems(
+      DatastoreService datastore,
+      UserService userService,
+      MemcacheReadCache receiptCache,
+      UserInfoRepository userInfoRepository) {
     this.datastore = datastore;
     this.userService = userService;
+    this.receiptCache = receiptCache;
+    this.userInfoRepository = userInfoRepository;
   }
 
   public String findExpiredItems() {
@@ -98,9 +126,16 @@ public class QueryItems {
 
   private ImmutableList<Receipt> queryReceipts() {
     String id = userService.getCurrentUser().getUserId();
-    Query query =
-        new Query("Receipt")
-            .setFilter(new Query.FilterPredicate("userId", Query.FilterOperator.EQUAL, id));
+    Optional<Entity> userInfoEntity = userInfoRepository.get(id);
+    if (!userInfoEntity.isPresent()) {
+      return ImmutableList.of();
+    }
+    Key userInfoKey = userInfoEntity.get().getKey();
+    return receiptCache.get(id, () -> queryReceipts(userInfoKey));
+  }
+
+  private ImmutableList<Receipt> queryReceipts(Key userInfoKey) {
+    Query query = new Query("Receipt", userInfoKey);
     PreparedQuery receiptResults = datastore.prepare(query);
     List<Entity> receiptEntities = receiptResults.asList(FetchOptions.Builder.withLimit(3));
     List<Receipt> receipts = new ArrayList<>();
@@ -0,0 +1,92 @@
+package com.google.edith;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.edith.GroceryNameProcessor.LanguageServiceClientProvider;
+import com.google.edith.GroceryNameProcessor.LanguageServiceClientWrapper;
+import java.io.IOException;
+
+/**
+ * Keeps one LanguageServiceClient open for the life of the instance instead of building a new gRPC
+ * channel for every call. Wrappers handed out by {@link #get()} do not close the shared client. The
+ * client is rebuilt on the next call once it is shut down or a call reports it as unavailable.
+ */
+final class SharedLanguageServiceClientProvider
+    implements LanguageServiceClientProvider, AutoCloseable {
+
+  interface ClientFactory {
+    LanguageServiceClient create() throws IOException;
+  }
+
+  private final ClientFactory factory;
+  private LanguageServiceClient client;
+
+  SharedLanguageServiceClientProvider() {
+    this(() -> LanguageServiceClient.create());
+  }
+
+  SharedLanguageServiceClientProvider(ClientFactory factory) {
+    this.factory = factory;
+  }
+
+  @Override
+  public LanguageServiceClientWrapper get() throws IOException {
+    return new NonClosingClient(acquire());
+  }
+
+  /** Returns the shared client, creating it when there is none or the current one is shut down. */
+  private synchronized LanguageServiceClient acquire() throws IOException {
+    if (client == null || client.isShutdown() || client.isTerminated()) {
+      discard();
+      client = factory.create();
+    }
+    return client;
+  }
+
+  /** Drops the broken client if it is still the shared one so the next call rebuilds it. */
+  private synchronized void invalidate(LanguageServiceClient broken) {
+    if (client == broken) {
+      discard();
+    }
+  }
+
+  private void discard() {
+    if (client != null) {
+      client.close();
+      client = null;
+    }
+  }
+
+  /** Closes the shared client. A later call to {@link #get()} creates a new one. */
+  @Override
+  public synchronized void close() {
+    discard();
+  }
+
+  /** Delegates to the shared client and leaves it open when closed. */
+  private final class NonClosingClient implements LanguageServiceClientWrapper {
+    private final LanguageServiceClient client;
+
+    NonClosingClient(LanguageServiceClient client) {
+      this.client = client;
+    }
+
+    @Override
+    public AnalyzeEntitiesResponse analyzeEntities(AnalyzeEntitiesRequest request) {
+      try {
+        return client.analyzeEntities(request);
+      } catch (ApiException e) {
+        if (e.getStatusCode().getCode() == StatusCode.Code.UNAVAILABLE) {
+          invalidate(client);
+        }
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() {}
+  }
+}
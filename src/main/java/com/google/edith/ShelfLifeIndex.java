@@ -0,0 +1,230 @@
+package com.google.edith;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable view of foodkeeper.json mapping each lowercased product name to its pre-computed shelf
+ * life string. It is read once per instance, either from the memory-mapped {@link
+ * ShelfLifeSnapshot} or by streaming the JSON file into a map, and shared by every request thread.
+ */
+abstract class ShelfLifeIndex {
+  static final String NO_EXPIRATION = "NO_EXPIRATION";
+  private static final int PRODUCT_SHEET = 2;
+  private static final int NAME_FIELD = 2;
+
+  /**
+   * The bounds 6 and 27 correspond to the array indices in a product that contain shelf life data.
+   * More specifically, the lower bound marks where data about the type of product stops and the
+   * data about expiration date begins, and the higher bound is where freezing data begins which is
+   * being excluded to minimize duplicate data and very long term expiration dates.
+   */
+  private static final int SHELF_LIFE_START = 6;
+
+  private static final int SHELF_LIFE_END = 27;
+
+  /** Returns an index that looks shelf lives up in the map. */
+  static ShelfLifeIndex of(ImmutableMap<String, String> shelfLifeByName) {
+    return new MapIndex(shelfLifeByName);
+  }
+
+  /** Returns the index built from foodkeeper.json, loading it on first use. */
+  static ShelfLifeIndex getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** Lazily loads the shared index; class initialization guarantees it is built exactly once. */
+  private static final class Holder {
+    private static final ShelfLifeIndex INSTANCE = loadResource();
+  }
+
+  /**
+   * Loads the index from the binary snapshot generated at build time, falling back to streaming
+   * foodkeeper.json when the snapshot is missing or not on the file system.
+   */
+  private static ShelfLifeIndex loadResource() {
+    ClassLoader classLoader = ShelfLifeIndex.class.getClassLoader();
+    try {
+      URL snapshotResource = classLoader.getResource(ShelfLifeSnapshot.RESOURCE_NAME);
+      if (snapshotResource != null && snapshotResource.getProtocol().equals("file")) {
+        return ShelfLifeSnapshot.read(new File(snapshotResource.getFile()).toPath());
+      }
+      URL jsonResource = classLoader.getResource("foodkeeper.json");
+      try (FileReader reader = new FileReader(new File(jsonResource.getFile()))) {
+        return load(reader);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Streams an index from the foodkeeper.json format, reading only product names and shelf life
+   * fields so the document is never held in memory. When more than one product has the same name
+   * the first one in the file is kept.
+   */
+  static ShelfLifeIndex load(Reader json) throws IOException {
+    Map<String, String> shelfLifeByName = new HashMap<>();
+    JsonReader reader = new JsonReader(json);
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (!reader.nextName().equals("sheets")) {
+        reader.skipValue();
+        continue;
+      }
+      reader.beginArray();
+      // The product data is in the sheet at index 2, previous sheets are all header data.
+      for (int sheet = 0; reader.hasNext(); sheet++) {
+        if (sheet == PRODUCT_SHEET) {
+          readProductSheet(reader, shelfLifeByName);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endArray();
+    }
+    reader.endObject();
+    return of(ImmutableMap.copyOf(shelfLifeByName));
+  }
+
+  /**
+   * Returns the shelf life of the product, for example '1.0 2.0 Weeks', or NO_EXPIRATION when the
+   * product is unknown or has no pantry or refrigeration data.
+   */
+  final String get(String itemName) {
+    String shelfLife = find(itemName.toLowerCase());
+    return shelfLife == null ? NO_EXPIRATION : shelfLife;
+  }
+
+  /** Returns the shelf life of the lowercased product name, or null when it is unknown. */
+  abstract String find(String productName);
+
+  /** Returns the lowercased name of every product in the index. */
+  abstract ImmutableSet<String> names();
+
+  /** Returns every product name with its shelf life. */
+  abstract ImmutableMap<String, String> asMap();
+
+  /** Index of shelf lives streamed from foodkeeper.json into an on-heap map. */
+  private static final class MapIndex extends ShelfLifeIndex {
+    private final ImmutableMap<String, String> shelfLifeByName;
+
+    MapIndex(ImmutableMap<String, String> shelfLifeByName) {
+      this.shelfLifeByName = shelfLifeByName;
+    }
+
+    @Override
+    String find(String productName) {
+      return shelfLifeByName.get(productName);
+    }
+
+    @Override
+    ImmutableSet<String> names() {
+      return shelfLifeByName.keySet();
+    }
+
+    @Override
+    ImmutableMap<String, String> asMap() {
+      return shelfLifeByName;
+    }
+  }
+
+  private static void readProductSheet(JsonReader reader, Map<String, String> shelfLifeByName)
+      throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (!reader.nextName().equals("data")) {
+        reader.skipValue();
+        continue;
+      }
+      reader.beginArray();
+      while (reader.hasNext()) {
+        readProduct(reader, shelfLifeByName);
+      }
+      reader.endArray();
+    }
+    reader.endObject();
+  }
+
+  /**
+   * Reads one product row, which is an array of single key/value objects. Only the name and the
+   * pantry and refrigeration fields are kept.
+   */
+  private static void readProduct(JsonReader reader, Map<String, String> shelfLifeByName)
+      throws IOException {
+    String productName = null;
+    StringBuilder result = new StringBuilder();
+    reader.beginArray();
+    for (int i = 0; reader.hasNext(); i++) {
+      if (i == NAME_FIELD) {
+        productName = readName(reader);
+      } else if (i >= SHELF_LIFE_START && i < SHELF_LIFE_END) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          reader.nextName();
+          appendTimeValue(reader, result);
+        }
+        reader.endObject();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endArray();
+
+    if (productName == null) {
+      return;
+    }
+    String shelfLife = NO_EXPIRATION;
+    if (result.length() > 0) {
+      result.deleteCharAt(result.length() - 1);
+      shelfLife = result.toString();
+    }
+    shelfLifeByName.putIfAbsent(productName.toLowerCase(), shelfLife);
+  }
+
+  private static String readName(JsonReader reader) throws IOException {
+    String name = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (reader.nextName().equals("Name") && reader.peek() == JsonToken.STRING) {
+        name = reader.nextString();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return name;
+  }
+
+  /**
+   * Appends the value to result if it is a number or a known unit of time. Numbers are kept as
+   * written in the file and only Days, Weeks and Months are accepted as units.
+   */
+  private static void appendTimeValue(JsonReader reader, StringBuilder result) throws IOException {
+    JsonToken token = reader.peek();
+    if (token == JsonToken.NUMBER) {
+      result.append(reader.nextString()).append(' ');
+    } else if (token == JsonToken.STRING) {
+      String value = reader.nextString();
+      if (isTimeUnit(value)) {
+        result.append(value).append(' ');
+      }
+    } else {
+      reader.skipValue();
+    }
+  }
+
+  private static boolean isTimeUnit(String value) {
+    return value.equals("Days") || value.equals("Weeks") || value.equals("Months");
+  }
+}
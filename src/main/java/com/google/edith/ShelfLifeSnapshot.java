@@ -0,0 +1,283 @@
+package com.google.edith;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of {@link ShelfLifeIndex} generated from foodkeeper.json at build time.
+ * Instances memory-map it on startup and look product names up directly in the mapped file, so
+ * neither the JSON file nor a copy of its entries is ever held on the heap. Only the distinct shelf
+ * lives, a few hundred short strings, are decoded once so that lookups return them without
+ * allocating.
+ *
+ * <p>Layout: magic, version, entry count, slot count and shelf life count as ints. Then the slots
+ * of an open-addressing hash table, each the {@link String#hashCode()} of a product name and the
+ * int offset of its entry, or -1 for an empty slot. Then the shelf lives as a short byte length and
+ * UTF-8 bytes, followed by the entries: the product name as a short byte length and UTF-8 bytes and
+ * the int index of its shelf life. A lookup probes the slots from the name's hash and compares the
+ * stored bytes with the name's chars in place, so it takes constant time and allocates nothing.
+ */
+public final class ShelfLifeSnapshot extends ShelfLifeIndex {
+  static final String RESOURCE_NAME = "foodkeeper.bin";
+  private static final int MAGIC = 0x45444954;
+  private static final int VERSION = 3;
+  private static final int HEADER_BYTES = 5 * Integer.BYTES;
+  private static final int SLOT_BYTES = 2 * Integer.BYTES;
+  private static final int EMPTY_SLOT = -1;
+
+  /** Longest string in bytes whose length fits in the unsigned short written before it. */
+  static final int MAX_STRING_BYTES = 0xFFFF;
+
+  private final ByteBuffer buffer;
+  private final int size;
+  private final int slotMask;
+  private final String[] shelfLives;
+
+  private ShelfLifeSnapshot(ByteBuffer buffer, int size, int slotCount, String[] shelfLives) {
+    this.buffer = buffer;
+    this.size = size;
+    this.slotMask = slotCount - 1;
+    this.shelfLives = shelfLives;
+  }
+
+  /**
+   * Streams foodkeeper.json and writes its snapshot. Run by the build during process-classes.
+   *
+   * @param args - path of foodkeeper.json followed by the path of the snapshot to write.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      throw new IllegalArgumentException("Usage: ShelfLifeSnapshot <foodkeeper.json> <output>");
+    }
+    ShelfLifeIndex index;
+    try (FileReader reader = new FileReader(args[0])) {
+      index = ShelfLifeIndex.load(reader);
+    }
+    Path output = Paths.get(args[1]);
+    Files.createDirectories(output.toAbsolutePath().getParent());
+    try (OutputStream out = Files.newOutputStream(output)) {
+      write(index, out);
+    }
+  }
+
+  /**
+   * Writes the snapshot of the index to out.
+   *
+   * @throws IllegalArgumentException if a product name or shelf life is longer than {@link
+   *     #MAX_STRING_BYTES} bytes in UTF-8.
+   */
+  static void write(ShelfLifeIndex index, OutputStream out) throws IOException {
+    Map<String, Integer> shelfLifeIndexes = new LinkedHashMap<>();
+    List<byte[]> shelfLives = new ArrayList<>();
+    for (String shelfLife : index.asMap().values()) {
+      if (!shelfLifeIndexes.containsKey(shelfLife)) {
+        shelfLifeIndexes.put(shelfLife, shelfLives.size());
+        shelfLives.add(encode(shelfLife));
+      }
+    }
+
+    // At most half of the slots are used, so probes stay short and always reach an empty slot.
+    int slotCount = Integer.highestOneBit(Math.max(1, 2 * index.asMap().size() - 1)) << 1;
+    int[] slotHashes = new int[slotCount];
+    int[] slotOffsets = new int[slotCount];
+    Arrays.fill(slotOffsets, EMPTY_SLOT);
+    int offset = HEADER_BYTES + slotCount * SLOT_BYTES;
+    for (byte[] shelfLife : shelfLives) {
+      offset += Short.BYTES + shelfLife.length;
+    }
+    List<byte[]> names = new ArrayList<>();
+    List<Integer> nameShelfLives = new ArrayList<>();
+    for (Map.Entry<String, String> entry : index.asMap().entrySet()) {
+      byte[] name = encode(entry.getKey());
+      int hash = entry.getKey().hashCode();
+      int slot = firstSlot(hash, slotCount - 1);
+      while (slotOffsets[slot] != EMPTY_SLOT) {
+        slot = (slot + 1) & (slotCount - 1);
+      }
+      slotHashes[slot] = hash;
+      slotOffsets[slot] = offset;
+      names.add(name);
+      nameShelfLives.add(shelfLifeIndexes.get(entry.getValue()));
+      offset += Short.BYTES + name.length + Integer.BYTES;
+    }
+
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(names.size());
+    data.writeInt(slotCount);
+    data.writeInt(shelfLives.size());
+    for (int slot = 0; slot < slotCount; slot++) {
+      data.writeInt(slotHashes[slot]);
+      data.writeInt(slotOffsets[slot]);
+    }
+    for (byte[] shelfLife : shelfLives) {
+      writeBytes(data, shelfLife);
+    }
+    for (int i = 0; i < names.size(); i++) {
+      writeBytes(data, names.get(i));
+      data.writeInt(nameShelfLives.get(i));
+    }
+    data.flush();
+  }
+
+  /** Memory-maps the snapshot at path, checks its header and decodes its shelf lives. */
+  static ShelfLifeSnapshot read(Path path) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.limit() < HEADER_BYTES
+        || buffer.getInt(0) != MAGIC
+        || buffer.getInt(Integer.BYTES) != VERSION) {
+      throw new IOException("Unsupported shelf life snapshot: " + path);
+    }
+    int size = buffer.getInt(2 * Integer.BYTES);
+    int slotCount = buffer.getInt(3 * Integer.BYTES);
+    int shelfLifeCount = buffer.getInt(4 * Integer.BYTES);
+    if (size < 0
+        || slotCount <= size
+        || Integer.bitCount(slotCount) != 1
+        || shelfLifeCount < 0
+        || HEADER_BYTES + (long) slotCount * SLOT_BYTES > buffer.limit()) {
+      throw new IOException("Truncated shelf life snapshot: " + path);
+    }
+    String[] shelfLives = new String[shelfLifeCount];
+    int offset = HEADER_BYTES + slotCount * SLOT_BYTES;
+    for (int i = 0; i < shelfLifeCount; i++) {
+      shelfLives[i] = readString(buffer, offset);
+      offset += Short.BYTES + stringLength(buffer, offset);
+    }
+    return new ShelfLifeSnapshot(buffer, size, slotCount, shelfLives);
+  }
+
+  @Override
+  String find(String productName) {
+    int hash = productName.hashCode();
+    for (int slot = firstSlot(hash, slotMask); ; slot = (slot + 1) & slotMask) {
+      int entry = buffer.getInt(HEADER_BYTES + slot * SLOT_BYTES + Integer.BYTES);
+      if (entry == EMPTY_SLOT) {
+        return null;
+      }
+      if (buffer.getInt(HEADER_BYTES + slot * SLOT_BYTES) == hash
+          && nameEquals(entry, productName)) {
+        return shelfLives[buffer.getInt(entry + Short.BYTES + stringLength(buffer, entry))];
+      }
+    }
+  }
+
+  @Override
+  ImmutableSet<String> names() {
+    return asMap().keySet();
+  }
+
+  @Override
+  ImmutableMap<String, String> asMap() {
+    ImmutableMap.Builder<String, String> shelfLifeByName = ImmutableMap.builder();
+    for (int slot = 0; slot <= slotMask; slot++) {
+      int entry = buffer.getInt(HEADER_BYTES + slot * SLOT_BYTES + Integer.BYTES);
+      if (entry != EMPTY_SLOT) {
+        shelfLifeByName.put(
+            readString(buffer, entry),
+            shelfLives[buffer.getInt(entry + Short.BYTES + stringLength(buffer, entry))]);
+      }
+    }
+    return shelfLifeByName.build();
+  }
+
+  private static int firstSlot(int hash, int slotMask) {
+    return (hash ^ (hash >>> 16)) & slotMask;
+  }
+
+  /**
+   * Returns whether the name stored at offset is the UTF-8 encoding of name, encoding its chars one
+   * at a time. Unpaired surrogates are compared as '?', which is how they were encoded.
+   */
+  private boolean nameEquals(int offset, String name) {
+    int position = offset + Short.BYTES;
+    int end = position + stringLength(buffer, offset);
+    for (int i = 0; i < name.length(); i++) {
+      int codePoint = name.charAt(i);
+      if (Character.isHighSurrogate((char) codePoint)
+          && i + 1 < name.length()
+          && Character.isLowSurrogate(name.charAt(i + 1))) {
+        codePoint = Character.toCodePoint((char) codePoint, name.charAt(++i));
+      } else if (Character.isSurrogate((char) codePoint)) {
+        codePoint = '?';
+      }
+      int byteCount = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+      if (end - position < byteCount) {
+        return false;
+      }
+      if (byteCount == 1) {
+        if (buffer.get(position++) != codePoint) {
+          return false;
+        }
+        continue;
+      }
+      int leadingBits = 0xF00 >> byteCount;
+      if ((buffer.get(position++) & 0xFF)
+          != ((leadingBits & 0xFF) | (codePoint >>> (6 * (byteCount - 1))))) {
+        return false;
+      }
+      for (int shift = 6 * (byteCount - 2); shift >= 0; shift -= 6) {
+        if ((buffer.get(position++) & 0xFF) != (0x80 | ((codePoint >>> shift) & 0x3F))) {
+          return false;
+        }
+      }
+    }
+    return position == end;
+  }
+
+  private static int stringLength(ByteBuffer buffer, int offset) {
+    return Short.toUnsignedInt(buffer.getShort(offset));
+  }
+
+  private static String readString(ByteBuffer buffer, int offset) {
+    byte[] bytes = new byte[stringLength(buffer, offset)];
+    ByteBuffer view = buffer.duplicate();
+    // Positioned through Buffer so the call also links on Java 8 runtimes.
+    ((Buffer) view).position(offset + Short.BYTES);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] encode(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > MAX_STRING_BYTES) {
+      throw new IllegalArgumentException(
+          "Cannot store "
+              + bytes.length
+              + " bytes in a shelf life snapshot, the limit is "
+              + MAX_STRING_BYTES
+              + ": "
+              + value.substring(0, 40)
+              + "...");
+    }
+    return bytes;
+  }
+
+  private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+    data.writeShort(bytes.length);
+    data.write(bytes);
+  }
+}
@@ -18,9 +18,20 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.common.collect.ImmutableList;
 import com.google.edith.servlets.Item;
 import com.google.edith.servlets.Receipt;
+import com.google.edith.servlets.SearchCriteria;
+import java.util.Iterator;
 
 /** Operations for searching entities in Datastore with given filters. */
 public interface SearchService {
+  /** Entities of one page of search results. */
+  interface EntityPage extends Iterator<Entity> {
+    /**
+     * Returns the cursor where the next page starts. Only valid after every entity of the page has
+     * been read.
+     */
+    String nextCursor();
+  }
+
   /**
    * Creates an ImmutableList of Receipt objects from receipt entites.
    *
@@ -38,16 +49,14 @@ public interface SearchService {
   ImmutableList<Item> createItemObjects(ImmutableList<Entity> entities);
 
   /**
-   * Creates an ImmutableList of entites found from given name, date, kind and sorts on given order
-   * on given property.
+   * Runs the search described by the criteria and returns at most pageSize entities. Entities may
+   * be fetched as the page is read, and its cursor marks where the next page starts.
    *
-   * @param name -name property of the entity.
-   * @param date - date property of the entity.
-   * @param kind - kind of the entity stored in datastore.
-   * @param sortOrder - order to sort the entities.
-   * @param sortOnProperty - property on which to sort the order.
-   * @return ImmutableList<Entity> - ImmutableList of entites found from the query.
+   * @param criteria - filters and sort order of the search.
+   * @param pageSize - maximum number of entities to return.
+   * @param startCursor - cursor returned with the previous page, or empty for the first.
+   * @return EntityPage - entities of the page.
+   * @throws IllegalArgumentException if the cursor cannot be parsed.
    */
-  ImmutableList<Entity> findEntityFromDatastore(
-      String name, String date, String kind, String sortOrder, String sortOnProperty);
+  EntityPage findEntityPage(SearchCriteria criteria, int pageSize, String startCursor);
 }
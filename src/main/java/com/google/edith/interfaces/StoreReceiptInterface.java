@@ -22,9 +22,12 @@ import java.io.IOException;
 public interface StoreReceiptInterface {
 
   /**
-   * Stores Receipt and Item entities in datastore
+   * Stores Receipt and Item entities in datastore. Storing a receipt of the same uploaded file for
+   * the same user again has no effect.
    *
    * @param receipt - object which holds info of parsed file.
+   * @throws IllegalArgumentException if the receipt cannot be stored, such as when it has more
+   *     items than can be written together.
    */
   void storeEntites(Receipt receipt);
 
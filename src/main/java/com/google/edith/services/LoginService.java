@@ -16,8 +16,6 @@ package com.google.edith.services;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.edith.interfaces.LoginInterface;
@@ -31,11 +29,15 @@ import javax.servlet.http.HttpServletRequest;
  */
 public final class LoginService implements LoginInterface {
   private final UserService userService;
-  private final DatastoreService datastore;
+  private final UserInfoRepository userInfoRepository;
 
   public LoginService(UserService userService, DatastoreService datastore) {
+    this(userService, new UserInfoRepository(datastore));
+  }
+
+  public LoginService(UserService userService, UserInfoRepository userInfoRepository) {
     this.userService = userService;
-    this.datastore = datastore;
+    this.userInfoRepository = userInfoRepository;
   }
 
   @Override
@@ -66,40 +68,20 @@ public final class LoginService implements LoginInterface {
 
     // Do not create another entity to set nickname if it already exists.
     Entity userInfoEntity =
-        getUserInfoEntity(id)
-            .orElseGet(
-                () -> {
-                  Entity info = new Entity("UserInfo");
-                  info.setProperty("id", id);
-                  return info;
-                });
+        userInfoRepository.get(id).orElseGet(() -> UserInfoRepository.create(id));
 
     userInfoEntity.setProperty("firstName", firstName);
     userInfoEntity.setProperty("lastName", lastName);
     userInfoEntity.setProperty("userName", userName);
     userInfoEntity.setProperty("favoriteStore", favoriteStore);
 
-    datastore.put(userInfoEntity);
+    userInfoRepository.put(userInfoEntity);
   }
 
   private Optional<String> getParameter(HttpServletRequest request, String name) {
     return Optional.ofNullable(request.getParameter(name));
   }
 
-  /**
-   * Returns the UserInfo entity with user id. Given id is not of UserInfo kind but a field of that
-   * kind.
-   *
-   * @param id - id of the user who is logged in.
-   */
-  private Optional<Entity> getUserInfoEntity(String id) {
-    Query query =
-        new Query("UserInfo")
-            .setFilter(new Query.FilterPredicate("id", Query.FilterOperator.EQUAL, id));
-    PreparedQuery results = datastore.prepare(query);
-    return Optional.ofNullable(results.asSingleEntity());
-  }
-
   /**
    * Creates UserInfo object encapsulating user data.
    *
@@ -113,7 +95,7 @@ public final class LoginService implements LoginInterface {
     String userName = "";
     String favoriteStore = "";
 
-    Optional<Entity> optEntity = getUserInfoEntity(user.getUserId());
+    Optional<Entity> optEntity = userInfoRepository.get(user.getUserId());
 
     // If the entity is present then update the fields.
     if (optEntity.isPresent()) {
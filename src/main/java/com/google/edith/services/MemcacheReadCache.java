@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.collect.ImmutableSortedMap;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache in Memcache for datastore reads that most requests repeat. Unlike the
+ * in-memory caches it is shared by every instance, so a write on one instance is visible to reads
+ * on all of them once the writer calls {@link #put} or {@link #invalidate}. Memcache may drop
+ * values at any time and failed calls count as misses, so callers always keep datastore as the
+ * source of truth. Hits and misses are counted per cache of this instance and served by
+ * CacheStatsServlet for monitoring the hit ratio.
+ */
+public final class MemcacheReadCache {
+  public static final String RECEIPTS_NAMESPACE = "Receipts";
+  public static final String USER_STATS_NAMESPACE = "UserStats";
+  public static final String USER_INFO_NAMESPACE = "UserInfo";
+
+  static final int EXPIRATION_SECONDS = 10 * 60;
+
+  /**
+   * Time after an invalidation during which loaded values are not cached. Requests end within 60
+   * seconds, so every lookup that loaded its value before the invalidation has finished by then.
+   */
+  static final int INVALIDATION_HOLD_SECONDS = 60;
+
+  private static final Map<String, MemcacheReadCache> CACHES_BY_NAMESPACE =
+      new ConcurrentHashMap<>();
+
+  /** Stored in place of a value that datastore does not have. */
+  private enum Absent {
+    INSTANCE
+  }
+
+  private final MemcacheService memcache;
+  private final Expiration expiration;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  public MemcacheReadCache(MemcacheService memcache, Expiration expiration) {
+    this.memcache = memcache;
+    this.expiration = expiration;
+  }
+
+  /**
+   * Returns the cache of this instance for the Memcache namespace, creating it on first use. Caches
+   * of the same namespace share their values across instances.
+   */
+  public static MemcacheReadCache forNamespace(String namespace) {
+    return CACHES_BY_NAMESPACE.computeIfAbsent(
+        namespace,
+        unused ->
+            new MemcacheReadCache(
+                MemcacheServiceFactory.getMemcacheService(namespace),
+                Expiration.byDeltaSeconds(EXPIRATION_SECONDS)));
+  }
+
+  /**
+   * Returns the caches of this instance that were created by {@link #forNamespace}, by namespace.
+   */
+  public static ImmutableSortedMap<String, MemcacheReadCache> all() {
+    return ImmutableSortedMap.copyOf(CACHES_BY_NAMESPACE);
+  }
+
+  /**
+   * Returns the cached value for the key, or loads it and caches the result when there is none.
+   *
+   * @param loader - reads the value from datastore.
+   */
+  public <V extends Serializable> V get(String key, Supplier<V> loader) {
+    Object cached = memcache.get(key);
+    if (cached != null) {
+      hitCount.incrementAndGet();
+      @SuppressWarnings("unchecked")
+      V value = (V) cached;
+      return value;
+    }
+    missCount.incrementAndGet();
+    V value = loader.get();
+    // Only added when no value and no invalidation got there while the value was loaded.
+    memcache.put(key, value, expiration, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    return value;
+  }
+
+  /**
+   * Like {@link #get(String, Supplier)} for values that may not exist. Missing values are cached as
+   * well, so repeated lookups of them do not reach datastore either.
+   */
+  public <V extends Serializable> Optional<V> getOptional(
+      String key, Supplier<Optional<V>> loader) {
+    Serializable cached =
+        get(key, () -> loader.get().<Serializable>map(value -> value).orElse(Absent.INSTANCE));
+    @SuppressWarnings("unchecked")
+    Optional<V> value = cached == Absent.INSTANCE ? Optional.empty() : Optional.of((V) cached);
+    return value;
+  }
+
+  /** Replaces the cached value after the value in datastore was written. */
+  public void put(String key, Serializable value) {
+    memcache.put(key, value, expiration);
+  }
+
+  /**
+   * Removes the cached value after the data it was read from changed. For {@link
+   * #INVALIDATION_HOLD_SECONDS} no loaded value can be added for the key, so a lookup that read
+   * datastore before the change cannot cache what it read. Values written with {@link #put} are
+   * still stored.
+   */
+  public void invalidate(String key) {
+    memcache.delete(key, TimeUnit.SECONDS.toMillis(INVALIDATION_HOLD_SECONDS));
+  }
+
+  public long hitCount() {
+    return hitCount.get();
+  }
+
+  public long missCount() {
+    return missCount.get();
+  }
+
+  /** Returns the share of lookups answered from Memcache, or 0 before the first lookup. */
+  public double hitRatio() {
+    long hits = hitCount.get();
+    long lookups = hits + missCount.get();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the list property that lets name searches run as a single indexed equality filter. A name
+ * is lowercased and split into words, and the property holds every prefix of every run of words
+ * that starts at a word boundary. A search for "milk" or "2 mi" therefore matches an entity named
+ * "Kroger 2% Milk".
+ *
+ * <p>The property is written once per entity but indexed many times. A name of n words has up to n
+ * * MAX_PREFIX_LENGTH tokens, about 100 for a typical five word item name, and every token is a row
+ * in the built-in index of the property and in each of the 6 composite indexes per kind in
+ * datastore-indexes.xml that include it, one per sort order. Storing such an item therefore writes
+ * about 700 index rows, which is what makes name searches an index scan.
+ *
+ * <p>Entities stored before the property existed are not matched by name searches until {@link
+ * NameTokensBackfill} has run over them.
+ */
+public final class NameTokens {
+  public static final String PROPERTY = "nameTokens";
+
+  /** Longest prefix stored. Longer searches are matched on their first MAX_PREFIX_LENGTH chars. */
+  static final int MAX_PREFIX_LENGTH = 20;
+
+  private static final CharMatcher SEPARATORS =
+      CharMatcher.forPredicate(Character::isLetterOrDigit).negate();
+
+  private NameTokens() {}
+
+  /** Returns the values of the name token property for an entity with the given name. */
+  public static ImmutableList<String> forName(String name) {
+    List<String> words = Splitter.on(' ').omitEmptyStrings().splitToList(normalize(name));
+    Set<String> tokens = new LinkedHashSet<>();
+    for (int start = 0; start < words.size(); start++) {
+      String run = String.join(" ", words.subList(start, words.size()));
+      for (int length = 1; length <= Math.min(run.length(), MAX_PREFIX_LENGTH); length++) {
+        String prefix = run.substring(0, length).trim();
+        if (!prefix.isEmpty()) {
+          tokens.add(prefix);
+        }
+      }
+    }
+    return ImmutableList.copyOf(tokens);
+  }
+
+  /**
+   * Returns the token a search for the given text has to match, or an empty string when the text
+   * has no letters or digits.
+   */
+  public static String forSearch(String text) {
+    String normalized = normalize(text);
+    if (normalized.length() > MAX_PREFIX_LENGTH) {
+      normalized = normalized.substring(0, MAX_PREFIX_LENGTH).trim();
+    }
+    return normalized;
+  }
+
+  /** Lowercases the text and replaces every run of other characters by a single space. */
+  private static String normalize(String text) {
+    return SEPARATORS.trimAndCollapseFrom(text.toLowerCase(), ' ');
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.auto.value.AutoValue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * One-off task that adds the {@link NameTokens} property to Receipt and Item entities stored before
+ * name searches used it. Searches only match entities that have the property, so this has to run
+ * once over both kinds after deploying. Entities are read in pages and only those without the
+ * property are written, so a page can be retried and the task can be resumed from any cursor.
+ */
+public final class NameTokensBackfill {
+  /** Largest number of entities datastore accepts in one batch put. */
+  static final int MAX_BATCH_SIZE = 500;
+
+  private final DatastoreService datastore;
+  private final UserItemIndex itemIndex;
+
+  public NameTokensBackfill(DatastoreService datastore, UserItemIndex itemIndex) {
+    this.datastore = datastore;
+    this.itemIndex = itemIndex;
+  }
+
+  /** Outcome of backfilling one page. */
+  @AutoValue
+  public abstract static class Page {
+    /** Number of entities of the page that were written. */
+    public abstract int updated();
+
+    /** Cursor of the next page, or an empty Optional if this was the last page. */
+    public abstract Optional<String> nextCursor();
+
+    static Page create(int updated, Optional<String> nextCursor) {
+      return new AutoValue_NameTokensBackfill_Page(updated, nextCursor);
+    }
+  }
+
+  /**
+   * Adds name tokens to the entities of one page that have none.
+   *
+   * @param kind - Receipt or Item.
+   * @param cursor - cursor returned with the previous page, or null for the first page.
+   * @param pageSize - number of entities to read, at most MAX_BATCH_SIZE.
+   */
+  public Page backfill(String kind, String cursor, int pageSize) {
+    if (!SearchQueryPlanner.KINDS.contains(kind)) {
+      throw new IllegalArgumentException("Unsupported kind: " + kind);
+    }
+    FetchOptions fetchOptions =
+        FetchOptions.Builder.withLimit(Math.min(pageSize, MAX_BATCH_SIZE)).chunkSize(pageSize);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    QueryResultList<Entity> entities =
+        datastore.prepare(new Query(kind)).asQueryResultList(fetchOptions);
+
+    List<Entity> updated = new ArrayList<>();
+    for (Entity entity : entities) {
+      if (!entity.hasProperty(NameTokens.PROPERTY)
+          && entity.getProperty("name") instanceof String) {
+        entity.setProperty(
+            NameTokens.PROPERTY, NameTokens.forName((String) entity.getProperty("name")));
+        updated.add(entity);
+      }
+    }
+    datastore.put(updated);
+    // Indexed items of these users lack the tokens until their entries are reloaded.
+    for (Entity entity : updated) {
+      if (entity.getProperty("userId") instanceof String) {
+        itemIndex.invalidate((String) entity.getProperty("userId"));
+      }
+    }
+
+    Optional<String> nextCursor =
+        entities.size() < fetchOptions.getLimit()
+            ? Optional.empty()
+            : Optional.of(entities.getCursor().toWebSafeString());
+    return Page.create(updated.size(), nextCursor);
+  }
+}
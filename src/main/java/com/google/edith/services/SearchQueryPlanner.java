@@ -0,0 +1,93 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilter;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.edith.servlets.SearchCriteria;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns search criteria into a datastore query that is answered by the indexes in
+ * datastore-indexes.xml, either by scanning one of them or by merging the scans of the indexes that
+ * each cover some of the filters in the sort order. Criteria that no index covers are rejected, and
+ * sorts that cannot change the result order are dropped so that they do not require an index of
+ * their own.
+ */
+public final class SearchQueryPlanner {
+  public static final ImmutableSet<String> KINDS = ImmutableSet.of("Receipt", "Item");
+  public static final ImmutableSet<String> SORT_PROPERTIES =
+      ImmutableSet.of("name", "price", "date");
+  public static final ImmutableMap<String, SortDirection> SORT_ORDERS =
+      ImmutableMap.of("Ascending", SortDirection.ASCENDING, "Descending", SortDirection.DESCENDING);
+
+  private SearchQueryPlanner() {}
+
+  /**
+   * Builds the query for the criteria, always restricted to the given user. The name matches any
+   * entity with a word run starting with it, see {@link NameTokens}, and the date must be equal.
+   * The filters are followed by at most one sort.
+   *
+   * <p>A sort is dropped when either its order or its property is empty, and when it is on the
+   * filtered date, since every result then has the same value.
+   *
+   * @param criteria - filters and sort order submitted from the search form.
+   * @param userId - id of the user whose entities are searched.
+   * @return Query - query served by the declared and built-in indexes.
+   * @throws IllegalArgumentException if the kind, sort order or sort property is not supported.
+   */
+  public static Query plan(SearchCriteria criteria, String userId) {
+    if (!KINDS.contains(criteria.kind())) {
+      throw new IllegalArgumentException("Unsupported search kind: " + criteria.kind());
+    }
+    List<Filter> filters = new ArrayList<>();
+    filters.add(new FilterPredicate("userId", FilterOperator.EQUAL, userId));
+    String nameToken = NameTokens.forSearch(criteria.name());
+    if (!nameToken.isEmpty()) {
+      filters.add(new FilterPredicate(NameTokens.PROPERTY, FilterOperator.EQUAL, nameToken));
+    }
+    if (!criteria.date().isEmpty()) {
+      filters.add(new FilterPredicate("date", FilterOperator.EQUAL, criteria.date()));
+    }
+    Query query =
+        new Query(criteria.kind())
+            .setFilter(
+                filters.size() == 1
+                    ? filters.get(0)
+                    : new CompositeFilter(CompositeFilterOperator.AND, filters));
+
+    String sortOrder = criteria.sortOrder();
+    String sortOnProperty = criteria.sortOnProperty();
+    if (!sortOrder.isEmpty() && !SORT_ORDERS.containsKey(sortOrder)) {
+      throw new IllegalArgumentException("Unsupported sort order: " + sortOrder);
+    }
+    if (!sortOnProperty.isEmpty() && !SORT_PROPERTIES.contains(sortOnProperty)) {
+      throw new IllegalArgumentException("Unsupported sort property: " + sortOnProperty);
+    }
+    boolean filteredOnSortProperty = sortOnProperty.equals("date") && !criteria.date().isEmpty();
+    if (!sortOrder.isEmpty() && !sortOnProperty.isEmpty() && !filteredOnSortProperty) {
+      query.addSort(sortOnProperty, SORT_ORDERS.get(sortOrder));
+    }
+    return query;
+  }
+}
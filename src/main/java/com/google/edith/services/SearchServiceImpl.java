@@ -14,47 +14,63 @@
 
 package com.google.edith.services;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.CompositeFilter;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
-import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.appengine.api.users.UserService;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.UnmodifiableIterator;
 import com.google.edith.interfaces.SearchService;
 import com.google.edith.servlets.Item;
 import com.google.edith.servlets.Receipt;
+import com.google.edith.servlets.SearchCriteria;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-
-/** Service to create query and handle searching on entities. */
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Service to create query and handle searching on entities. Item searches are answered from the
+ * {@link UserItemIndex} when it holds the user's items and from datastore otherwise.
+ */
 public final class SearchServiceImpl implements SearchService {
+  /** Starts the cursors of pages served from the item index, followed by the next offset. */
+  private static final String INDEX_CURSOR_PREFIX = "i:";
+
+  /** Fetches item entities in large batches to keep the number of datastore round trips low. */
+  private static final FetchOptions ITEM_FETCH_OPTIONS =
+      FetchOptions.Builder.withChunkSize(500).prefetchSize(500);
 
   private final DatastoreService datastore;
   private final UserService userService;
+  private final UserItemIndex itemIndex;
 
   public SearchServiceImpl(DatastoreService datastore, UserService userService) {
+    this(datastore, userService, UserItemIndex.getInstance());
+  }
+
+  public SearchServiceImpl(
+      DatastoreService datastore, UserService userService, UserItemIndex itemIndex) {
     this.datastore = datastore;
     this.userService = userService;
+    this.itemIndex = itemIndex;
   }
 
   @Override
   public ImmutableList<Receipt> createReceiptObjects(ImmutableList<Entity> entities) {
+    ImmutableListMultimap<Key, Entity> itemEntitiesByReceipt = findItemEntities(entities);
     List<Receipt> receipts = new ArrayList<>();
 
     for (Entity entity : entities) {
-      Key entityKey = entity.getKey();
-      Query itemQuery = new Query("Item", entityKey);
-      PreparedQuery results = datastore.prepare(itemQuery);
-      List<Entity> itemEntities = results.asList(FetchOptions.Builder.withLimit(Integer.MAX_VALUE));
-      ImmutableList<Item> items = createItemObjects(ImmutableList.copyOf(itemEntities));
+      ImmutableList<Item> items = createItemObjects(itemEntitiesByReceipt.get(entity.getKey()));
       Receipt receipt =
           new Receipt(
               (String) entity.getProperty("userId"),
@@ -71,6 +87,37 @@ public final class SearchServiceImpl implements SearchService {
     return ImmutableList.copyOf(receipts);
   }
 
+  /**
+   * Loads the Item children of all receipt entities and groups them by receipt key. Receipts are
+   * stored under the UserInfo entity of their user, so the items of every receipt of a page are
+   * read with one ancestor query on that entity group instead of one query per receipt. The query
+   * also returns the items of the user's other receipts, which are skipped.
+   *
+   * @param receiptEntities - entities of kind Receipt.
+   * @return ImmutableListMultimap<Key, Entity> - Item entities keyed by their receipt key.
+   */
+  private ImmutableListMultimap<Key, Entity> findItemEntities(List<Entity> receiptEntities) {
+    Set<Key> receiptKeys = new HashSet<>();
+    Set<Key> ancestors = new LinkedHashSet<>();
+    for (Entity receiptEntity : receiptEntities) {
+      Key receiptKey = receiptEntity.getKey();
+      receiptKeys.add(receiptKey);
+      ancestors.add(receiptKey.getParent() == null ? receiptKey : receiptKey.getParent());
+    }
+
+    ImmutableListMultimap.Builder<Key, Entity> itemEntitiesByReceipt =
+        ImmutableListMultimap.builder();
+    for (Key ancestor : ancestors) {
+      Query itemQuery = new Query("Item", ancestor);
+      for (Entity itemEntity : datastore.prepare(itemQuery).asIterable(ITEM_FETCH_OPTIONS)) {
+        if (receiptKeys.contains(itemEntity.getParent())) {
+          itemEntitiesByReceipt.put(itemEntity.getParent(), itemEntity);
+        }
+      }
+    }
+    return itemEntitiesByReceipt.build();
+  }
+
   @Override
   public ImmutableList<Item> createItemObjects(ImmutableList<Entity> entities) {
     List<Item> itemsList = new ArrayList<>();
@@ -92,61 +139,96 @@ public final class SearchServiceImpl implements SearchService {
     return ImmutableList.copyOf(itemsList);
   }
 
-  @Override
-  public ImmutableList<Entity> findEntityFromDatastore(
-      String name, String date, String kind, String sortOrder, String sortOnProperty) {
-    Query query = prepareQuery(name, date, kind, sortOrder, sortOnProperty);
-    PreparedQuery results = datastore.prepare(query);
-    List<Entity> entities = results.asList(FetchOptions.Builder.withLimit(Integer.MAX_VALUE));
-    return ImmutableList.copyOf(entities);
-  }
-
   /**
-   * Prepares a query for the search on datastore.
+   * {@inheritDoc}
    *
-   * @param name -name property of the entity.
-   * @param date - date property of the entity.
-   * @param kind - kind of the entity stored in datastore.
-   * @param sortOrder - order to sort the entities.
-   * @param sortOnProperty - property on which to sort the order.
-   * @return Query - query to be made on the datastore
+   * <p>Pages of an index search are slices of the full result list and their cursor holds the
+   * offset of the next page, so a search keeps using the source that served its first page. The
+   * index orders results like datastore does, so when the user is no longer indexed the search
+   * continues on datastore from the same offset.
    */
-  private Query prepareQuery(
-      String name, String date, String kind, String sortOrder, String sortOnProperty) {
-    Query query;
-    Filter entityFilter = prepareFilter(name, date);
-
-    if (kind.equals("Receipt")) {
-      query = new Query("Receipt").setFilter(entityFilter);
-    } else {
-      query = new Query("Item").setFilter(entityFilter);
+  @Override
+  public EntityPage findEntityPage(SearchCriteria criteria, int pageSize, String startCursor) {
+    Query query = SearchQueryPlanner.plan(criteria, userService.getCurrentUser().getUserId());
+    boolean indexCursor = startCursor.startsWith(INDEX_CURSOR_PREFIX);
+    int offset = indexCursor ? parseOffset(startCursor) : 0;
+    if (startCursor.isEmpty() || indexCursor) {
+      Optional<ImmutableList<Entity>> indexedEntities = itemIndex.run(query);
+      if (indexedEntities.isPresent()) {
+        return new IndexPage(indexedEntities.get(), offset, pageSize);
+      }
     }
 
-    if (sortOrder.equals("Ascending"))
-      query = query.addSort(sortOnProperty, SortDirection.ASCENDING);
-    if (sortOrder.equals("Descending"))
-      query = query.addSort(sortOnProperty, SortDirection.DESCENDING);
-    return query;
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(pageSize).chunkSize(pageSize);
+    if (indexCursor) {
+      fetchOptions.offset(offset);
+    } else if (!startCursor.isEmpty()) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(startCursor));
+    }
+    return new DatastorePage(datastore.prepare(query).asQueryResultIterator(fetchOptions));
   }
 
-  /**
-   * Creates a filter either on name and date.
-   *
-   * @param name -name property of the entity.
-   * @param date - date property of the entity.
-   * @return Filter -filter options to filer on entites.
-   */
-  private Filter prepareFilter(String name, String date) {
-    String loggedInUserId = userService.getCurrentUser().getUserId();
-    List<Filter> filters = new ArrayList<>();
-    filters.add(new FilterPredicate("userId", FilterOperator.EQUAL, loggedInUserId));
+  private static int parseOffset(String indexCursor) {
+    int offset = Integer.parseInt(indexCursor.substring(INDEX_CURSOR_PREFIX.length()));
+    if (offset < 0) {
+      throw new IllegalArgumentException("Invalid cursor: " + indexCursor);
+    }
+    return offset;
+  }
+
+  /** Page read from a datastore query as it is iterated. */
+  private static final class DatastorePage extends UnmodifiableIterator<Entity>
+      implements EntityPage {
+    private final QueryResultIterator<Entity> results;
+
+    DatastorePage(QueryResultIterator<Entity> results) {
+      this.results = results;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return results.hasNext();
+    }
+
+    @Override
+    public Entity next() {
+      return results.next();
+    }
 
-    if (!name.isEmpty()) {
-      filters.add(new FilterPredicate("name", FilterOperator.EQUAL, name));
+    @Override
+    public String nextCursor() {
+      return results.getCursor().toWebSafeString();
     }
-    if (!date.isEmpty()) {
-      filters.add(new FilterPredicate("date", FilterOperator.EQUAL, date));
+  }
+
+  /** Page sliced from the results of an index search. */
+  private static final class IndexPage extends UnmodifiableIterator<Entity> implements EntityPage {
+    private final ImmutableList<Entity> results;
+    private final int end;
+    private int position;
+
+    IndexPage(ImmutableList<Entity> results, int offset, int pageSize) {
+      this.results = results;
+      this.position = Math.min(offset, results.size());
+      this.end = (int) Math.min((long) position + pageSize, results.size());
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < end;
+    }
+
+    @Override
+    public Entity next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return results.get(position++);
+    }
+
+    @Override
+    public String nextCursor() {
+      return INDEX_CURSOR_PREFIX + position;
     }
-    return new CompositeFilter(CompositeFilterOperator.AND, filters);
   }
 }
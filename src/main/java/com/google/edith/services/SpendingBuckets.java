@@ -0,0 +1,149 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Spending totals per category for consecutive periods of one length. Daily buckets are built from
+ * Item entities in one pass; buckets of longer periods are summed from them with {@link
+ * #rollUp(TimePeriod)}, so stored daily buckets answer every period without reading the items
+ * again.
+ */
+public final class SpendingBuckets {
+  /** Category of items stored without one. */
+  public static final String UNKNOWN_CATEGORY = "unknown";
+
+  private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+  private final TimePeriod period;
+  private final ImmutableSortedMap<LocalDate, ImmutableMap<String, Double>> totalsByCategory;
+
+  private SpendingBuckets(
+      TimePeriod period,
+      ImmutableSortedMap<LocalDate, ImmutableMap<String, Double>> totalsByCategory) {
+    this.period = period;
+    this.totalsByCategory = totalsByCategory;
+  }
+
+  /**
+   * Sums the spending of the items per day and category. Items without a yyyy-mm-dd date are left
+   * out.
+   */
+  public static SpendingBuckets ofItems(Iterable<Entity> items) {
+    Map<LocalDate, Map<String, Double>> totals = new TreeMap<>();
+    for (Entity item : items) {
+      Optional<LocalDate> date = parseDate(item);
+      if (date.isPresent()) {
+        double spending =
+            ((double) item.getProperty("price")) * ((long) item.getProperty("quantity"));
+        totals
+            .computeIfAbsent(date.get(), unused -> new TreeMap<>())
+            .merge(category(item), spending, Double::sum);
+      }
+    }
+    return of(TimePeriod.DAY, totals);
+  }
+
+  /**
+   * Creates buckets from totals that were summed before.
+   *
+   * @param totalsByCategory - totals per category, keyed by the last day of their period.
+   */
+  public static SpendingBuckets of(
+      TimePeriod period, Map<LocalDate, ? extends Map<String, Double>> totalsByCategory) {
+    ImmutableSortedMap.Builder<LocalDate, ImmutableMap<String, Double>> buckets =
+        ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<LocalDate, ? extends Map<String, Double>> bucket : totalsByCategory.entrySet()) {
+      buckets.put(bucket.getKey(), ImmutableMap.copyOf(bucket.getValue()));
+    }
+    return new SpendingBuckets(period, buckets.build());
+  }
+
+  /**
+   * Sums these buckets into buckets of a longer period.
+   *
+   * @throws IllegalArgumentException if the periods of these buckets do not fit into {@code
+   *     longerPeriod}.
+   */
+  public SpendingBuckets rollUp(TimePeriod longerPeriod) {
+    if (!period.fitsInto(longerPeriod)) {
+      throw new IllegalArgumentException(
+          "Cannot sum " + period + " totals into " + longerPeriod + " totals");
+    }
+    if (period == longerPeriod) {
+      return this;
+    }
+    Map<LocalDate, Map<String, Double>> totals = new TreeMap<>();
+    for (Map.Entry<LocalDate, ImmutableMap<String, Double>> bucket : totalsByCategory.entrySet()) {
+      Map<String, Double> longerBucket =
+          totals.computeIfAbsent(longerPeriod.endOf(bucket.getKey()), unused -> new TreeMap<>());
+      bucket
+          .getValue()
+          .forEach((category, total) -> longerBucket.merge(category, total, Double::sum));
+    }
+    return of(longerPeriod, totals);
+  }
+
+  public TimePeriod period() {
+    return period;
+  }
+
+  /** Returns the totals per category, keyed by the last day of their period in date order. */
+  public ImmutableSortedMap<LocalDate, ImmutableMap<String, Double>> totalsByCategory() {
+    return totalsByCategory;
+  }
+
+  /** Returns the total of all categories, keyed by the last day of their period in date order. */
+  public ImmutableSortedMap<LocalDate, Double> totals() {
+    ImmutableSortedMap.Builder<LocalDate, Double> totals = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<LocalDate, ImmutableMap<String, Double>> bucket : totalsByCategory.entrySet()) {
+      double total = 0;
+      for (double categoryTotal : bucket.getValue().values()) {
+        total += categoryTotal;
+      }
+      totals.put(bucket.getKey(), total);
+    }
+    return totals.build();
+  }
+
+  /** Returns the date of the item, or an empty Optional if it has none in yyyy-mm-dd format. */
+  public static Optional<LocalDate> parseDate(Entity item) {
+    Object date = item.getProperty("date");
+    if (!(date instanceof String)) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(LocalDate.parse((String) date, DATE_FORMATTER));
+    } catch (DateTimeParseException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static String category(Entity item) {
+    Object category = item.getProperty("category");
+    return category instanceof String && !((String) category).isEmpty()
+        ? (String) category
+        : UNKNOWN_CATEGORY;
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.common.collect.ImmutableMap;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores the spending of each user per day and category as one DailySpending entity per day, keyed
+ * by its yyyy-MM-dd date. The entities of a user share a parent key, so they are read in date order
+ * with one ancestor query and updated together in one transaction. Totals of weeks, months and
+ * years are summed from the days with {@link SpendingBuckets#rollUp(TimePeriod)}. Items only change
+ * the total of their own day, so items dated in the past keep every total correct.
+ */
+public final class SpendingRollups {
+  static final String KIND = "DailySpending";
+  static final String PARENT_KIND = "UserSpending";
+
+  private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+  private final DatastoreService datastore;
+
+  public SpendingRollups(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /**
+   * Adds the spending of the items to the totals of their days.
+   *
+   * @param transaction - transaction the totals are read and written in.
+   * @param items - Item entities that are not counted in the totals yet.
+   */
+  public void add(Transaction transaction, String userId, List<Entity> items) {
+    ImmutableMap<LocalDate, ImmutableMap<String, Double>> added =
+        SpendingBuckets.ofItems(items).totalsByCategory();
+    if (added.isEmpty()) {
+      return;
+    }
+    List<Key> keys = new ArrayList<>();
+    for (LocalDate day : added.keySet()) {
+      keys.add(rollupKey(userId, day));
+    }
+    Map<Key, Entity> storedRollups = datastore.get(transaction, keys);
+
+    List<Entity> rollups = new ArrayList<>();
+    for (Map.Entry<LocalDate, ImmutableMap<String, Double>> day : added.entrySet()) {
+      Entity stored = storedRollups.get(rollupKey(userId, day.getKey()));
+      Map<String, Double> totals = stored == null ? new TreeMap<>() : readCategoryTotals(stored);
+      day.getValue().forEach((category, total) -> totals.merge(category, total, Double::sum));
+      rollups.add(createRollup(userId, day.getKey(), totals));
+    }
+    datastore.put(transaction, rollups);
+  }
+
+  /**
+   * Replaces the totals of the user with the totals of the items.
+   *
+   * @param transaction - transaction the totals are read and written in.
+   * @param items - all Item entities of the user.
+   */
+  public void rebuild(Transaction transaction, String userId, List<Entity> items) {
+    ImmutableMap<LocalDate, ImmutableMap<String, Double>> totals =
+        SpendingBuckets.ofItems(items).totalsByCategory();
+    List<Entity> rollups = new ArrayList<>();
+    for (Map.Entry<LocalDate, ImmutableMap<String, Double>> day : totals.entrySet()) {
+      rollups.add(createRollup(userId, day.getKey(), day.getValue()));
+    }
+
+    List<Key> staleKeys = new ArrayList<>();
+    Query query = new Query(KIND).setAncestor(parentKey(userId)).setKeysOnly();
+    for (Entity stored :
+        datastore.prepare(transaction, query).asIterable(FetchOptions.Builder.withDefaults())) {
+      if (!totals.containsKey(LocalDate.parse(stored.getKey().getName(), DATE_FORMATTER))) {
+        staleKeys.add(stored.getKey());
+      }
+    }
+    datastore.delete(transaction, staleKeys);
+    datastore.put(transaction, rollups);
+  }
+
+  /**
+   * Reads the daily totals of the user with one query.
+   *
+   * @return totals per category of the days the user bought items on.
+   */
+  public SpendingBuckets read(String userId) {
+    Query query =
+        new Query(KIND).setAncestor(parentKey(userId)).addSort(Entity.KEY_RESERVED_PROPERTY);
+    Map<LocalDate, Map<String, Double>> totals = new TreeMap<>();
+    for (Entity rollup : datastore.prepare(query).asIterable(FetchOptions.Builder.withDefaults())) {
+      totals.put(
+          LocalDate.parse(rollup.getKey().getName(), DATE_FORMATTER), readCategoryTotals(rollup));
+    }
+    return SpendingBuckets.of(TimePeriod.DAY, totals);
+  }
+
+  private static Map<String, Double> readCategoryTotals(Entity rollup) {
+    Map<String, Double> totals = new TreeMap<>();
+    EmbeddedEntity categories = (EmbeddedEntity) rollup.getProperty("categories");
+    if (categories != null) {
+      categories.getProperties().forEach((category, total) -> totals.put(category, (Double) total));
+    }
+    return totals;
+  }
+
+  private static Entity createRollup(String userId, LocalDate day, Map<String, Double> totals) {
+    EmbeddedEntity categories = new EmbeddedEntity();
+    totals.forEach(categories::setUnindexedProperty);
+    Entity rollup = new Entity(rollupKey(userId, day));
+    rollup.setProperty("userId", userId);
+    rollup.setUnindexedProperty("categories", categories);
+    return rollup;
+  }
+
+  private static Key rollupKey(String userId, LocalDate day) {
+    return KeyFactory.createKey(parentKey(userId), KIND, day.format(DATE_FORMATTER));
+  }
+
+  private static Key parentKey(String userId) {
+    return KeyFactory.createKey(PARENT_KIND, userId);
+  }
+}
@@ -16,11 +16,19 @@ package com.google.edith.services;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import com.google.edith.interfaces.StoreReceiptInterface;
 import com.google.edith.servlets.Item;
 import com.google.edith.servlets.Receipt;
+import com.google.edith.servlets.UserInsightsInterface;
+import com.google.edith.servlets.UserInsightsService;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializationContext;
@@ -32,20 +40,78 @@ import com.google.gson.JsonParser;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
 public final class StoreReceiptService implements StoreReceiptInterface {
+  /** Largest number of entities datastore writes in one transaction. */
+  static final int MAX_ENTITIES_PER_COMMIT = 500;
+
+  /** Largest number of items of a receipt, which is written in the same commit as its items. */
+  public static final int MAX_ITEMS_PER_RECEIPT = MAX_ENTITIES_PER_COMMIT - 1;
+
+  static final int MAX_TRANSACTION_ATTEMPTS = 3;
 
   private final DatastoreService datastore;
+  private final UserItemIndex itemIndex;
+  private final UserInfoRepository userInfoRepository;
+  private final MemcacheReadCache receiptCache;
+  private final UserInsightsInterface userInsights;
 
   public StoreReceiptService(DatastoreService datastore) {
+    this(datastore, UserItemIndex.getInstance(), UserInfoRepository.getInstance());
+  }
+
+  /**
+   * Creates a service that adds every stored item to the given index.
+   *
+   * @param itemIndex - index that serves item searches of this instance.
+   * @param userInfoRepository - repository that finds the UserInfo parent of the receipts.
+   */
+  public StoreReceiptService(
+      DatastoreService datastore, UserItemIndex itemIndex, UserInfoRepository userInfoRepository) {
+    this(datastore, itemIndex, userInfoRepository, new UserInsightsService(datastore));
+  }
+
+  /**
+   * Creates a service that also adds every stored item to the stats of its user.
+   *
+   * @param userInsights - stats whose items and spending rollups include the stored items.
+   */
+  public StoreReceiptService(
+      DatastoreService datastore,
+      UserItemIndex itemIndex,
+      UserInfoRepository userInfoRepository,
+      UserInsightsInterface userInsights) {
     this.datastore = datastore;
+    this.itemIndex = itemIndex;
+    this.userInfoRepository = userInfoRepository;
+    this.receiptCache = MemcacheReadCache.forNamespace(MemcacheReadCache.RECEIPTS_NAMESPACE);
+    this.userInsights = userInsights;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalArgumentException if the receipt has more than MAX_ITEMS_PER_RECEIPT items,
+   *     since the receipt and all of its items could not be written in one transaction.
+   */
   @Override
   public void storeEntites(Receipt receipt) {
+    int itemCount = receipt.getItems().length;
+    if (itemCount > MAX_ITEMS_PER_RECEIPT) {
+      throw new IllegalArgumentException(
+          "Receipt has "
+              + itemCount
+              + " items, at most "
+              + MAX_ITEMS_PER_RECEIPT
+              + " items of a receipt can be stored");
+    }
     storeReceiptEntity(receipt);
   }
 
@@ -58,57 +124,138 @@ public final class StoreReceiptService implements StoreReceiptInterface {
   }
 
   /**
-   * Receives Receipt object and creates entity of type Receipt and stores it in Datastore.
+   * Receives Receipt object and creates entity of type Receipt and stores it in Datastore. The
+   * receipt and its items are written in one transaction on the UserInfo entity group. After the
+   * commit the items are added to the stats of the user, in batches of their own transactions.
+   * Receipts of an uploaded file are keyed by {@link #dedupeKey(String, String)}, so storing one
+   * again, such as when the browser retries the request, does not store the receipt or its items a
+   * second time.
    *
    * @param receipt - object which holds info of parsed file.
    */
   private void storeReceiptEntity(Receipt receipt) {
 
-    Optional<Entity> optEntity = getUserInfoEntity(receipt.getUserId());
+    Optional<Entity> optEntity = userInfoRepository.get(receipt.getUserId());
     Entity userInfoEntity = optEntity.get();
-    Entity receiptEntity = new Entity("Receipt", userInfoEntity.getKey());
-    receiptEntity.setProperty("userId", receipt.getUserId());
-    receiptEntity.setProperty("storeName", receipt.getStoreName());
-    receiptEntity.setProperty("date", receipt.getDate());
-    receiptEntity.setProperty("name", receipt.getName());
-    receiptEntity.setProperty("fileUrl", receipt.getFileUrl());
-    receiptEntity.setProperty("price", receipt.getTotalPrice());
-    datastore.put(receiptEntity);
-    storeReceiptItemsEntity(receipt, receiptEntity);
+    String blobKey = receipt.getFileUrl();
+    Key receiptKey =
+        blobKey == null || blobKey.isEmpty()
+            ? datastore.allocateIds(userInfoEntity.getKey(), "Receipt", 1).getStart()
+            : KeyFactory.createKey(
+                userInfoEntity.getKey(), "Receipt", dedupeKey(receipt.getUserId(), blobKey));
+
+    List<Entity> itemEntities;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        itemEntities = storeReceiptEntity(receipt, receiptKey);
+        break;
+      } catch (ConcurrentModificationException e) {
+        // Another request wrote to the same user's entities; the next attempt sees its changes.
+        if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+          throw e;
+        }
+      }
+    }
+    itemIndex.addAll(itemEntities);
+    receiptCache.invalidate(receipt.getUserId());
+    userInsights.updateUserStats(receipt.getUserId(), itemKeys(receiptKey, itemEntities));
+  }
+
+  /**
+   * Returns the keys of the items of the receipt. When nothing was stored because the receipt was
+   * stored before, its items are read back, so a retried request still adds items that an earlier
+   * request stored but did not add to the stats. Stats skip items they already have.
+   *
+   * @param itemEntities - item entities stored by this request.
+   */
+  private List<Key> itemKeys(Key receiptKey, List<Entity> itemEntities) {
+    Iterable<Entity> items =
+        itemEntities.isEmpty()
+            ? datastore
+                .prepare(new Query("Item", receiptKey).setKeysOnly())
+                .asIterable(FetchOptions.Builder.withDefaults())
+            : itemEntities;
+    List<Key> keys = new ArrayList<>();
+    for (Entity item : items) {
+      keys.add(item.getKey());
+    }
+    return keys;
   }
 
   /**
-   * Stores parsed item from the form with receiptEntity as a parent in the datastore.
+   * Stores the receipt under the given key and its items in one transaction unless the key is
+   * already taken.
    *
-   * @param items - request which contains the form body.
-   * @param receiptEntity - request which contains the form body.
+   * @return List<Entity> - stored item entities, empty when the receipt was stored before.
    */
-  private void storeReceiptItemsEntity(Receipt receipt, Entity receiptEntity) {
+  private List<Entity> storeReceiptEntity(Receipt receipt, Key receiptKey) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      try {
+        datastore.get(transaction, receiptKey);
+        return ImmutableList.of();
+      } catch (EntityNotFoundException e) {
+        // First time this receipt is stored.
+      }
+
+      Entity receiptEntity = new Entity(receiptKey);
+      receiptEntity.setProperty("userId", receipt.getUserId());
+      receiptEntity.setProperty("storeName", receipt.getStoreName());
+      receiptEntity.setProperty("date", receipt.getDate());
+      receiptEntity.setProperty("name", receipt.getName());
+      receiptEntity.setProperty(NameTokens.PROPERTY, NameTokens.forName(receipt.getName()));
+      receiptEntity.setProperty("fileUrl", receipt.getFileUrl());
+      receiptEntity.setProperty("price", receipt.getTotalPrice());
+
+      List<Entity> itemEntities = createReceiptItemEntities(receipt, receiptKey);
+      List<Entity> entities = new ArrayList<>();
+      entities.add(receiptEntity);
+      entities.addAll(itemEntities);
+      datastore.put(transaction, entities);
+      transaction.commit();
+      return itemEntities;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Returns the key name of the receipt parsed from an uploaded file: a hash of the user id and the
+   * blob key of the file.
+   */
+  static String dedupeKey(String userId, String blobKey) {
+    return Hashing.sha256().hashString(userId + "/" + blobKey, StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * Creates an entity for each parsed item from the form with the receipt as a parent.
+   *
+   * @param receipt - receipt holding the items.
+   * @param receiptKey - allocated key of the receipt entity.
+   * @return List<Entity> - item entities with allocated keys, not yet stored.
+   */
+  private List<Entity> createReceiptItemEntities(Receipt receipt, Key receiptKey) {
     List<Item> items = Arrays.asList(receipt.getItems());
+    if (items.isEmpty()) {
+      return ImmutableList.of();
+    }
+    Iterator<Key> itemKeys = datastore.allocateIds(receiptKey, "Item", items.size()).iterator();
+    List<Entity> itemEntities = new ArrayList<>();
     for (Item item : items) {
-      Entity itemEntity = new Entity("Item", receiptEntity.getKey());
+      Entity itemEntity = new Entity(itemKeys.next());
       itemEntity.setProperty("userId", item.userId());
       itemEntity.setProperty("name", item.name());
+      itemEntity.setProperty(NameTokens.PROPERTY, NameTokens.forName(item.name()));
       itemEntity.setProperty("quantity", item.quantity());
       itemEntity.setProperty("price", item.price());
       itemEntity.setProperty("category", item.category());
       itemEntity.setProperty("expireDate", item.expiration());
       itemEntity.setProperty("date", item.date());
-      datastore.put(itemEntity);
+      itemEntities.add(itemEntity);
     }
-  }
-
-  /**
-   * Returns the UserInfo entity with user id. Given id is not of UserInfo kind but a field of that
-   * kind.
-   */
-  private Optional<Entity> getUserInfoEntity(String id) {
-
-    Query query =
-        new Query("UserInfo")
-            .setFilter(new Query.FilterPredicate("id", Query.FilterOperator.EQUAL, id));
-    PreparedQuery results = datastore.prepare(query);
-    return Optional.ofNullable(results.asSingleEntity());
+    return itemEntities;
   }
 
   /** Custom Deserializer to deserialize Item class as it is an abstract class. */
@@ -0,0 +1,50 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjuster;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Length of the periods spending is totaled over. Each period is identified by its last day; weeks
+ * start on Monday and end on Sunday.
+ */
+public enum TimePeriod {
+  DAY(date -> date),
+  WEEK(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY)),
+  MONTH(TemporalAdjusters.lastDayOfMonth()),
+  YEAR(TemporalAdjusters.lastDayOfYear());
+
+  private final TemporalAdjuster endOfPeriod;
+
+  private TimePeriod(TemporalAdjuster endOfPeriod) {
+    this.endOfPeriod = endOfPeriod;
+  }
+
+  /** Returns the last day of the period {@code date} is in. */
+  public LocalDate endOf(LocalDate date) {
+    return date.with(endOfPeriod);
+  }
+
+  /**
+   * Returns true if every period of this length lies within one period of the other length, so
+   * totals of the other length can be summed from totals of this one.
+   */
+  public boolean fitsInto(TimePeriod other) {
+    return this == other || this == DAY || (this == MONTH && other == YEAR);
+  }
+}
@@ -0,0 +1,155 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads and stores UserInfo entities for LoginService and StoreReceiptService. New entities use the
+ * user id as key name so that they are read with a get instead of a query. Entities stored before
+ * that by an id property are still found with a query. Lookups are kept in a near cache that is
+ * updated by {@link #put(Entity)}; entries expire after a minute so changes made by other instances
+ * show up. Near cache misses are answered from Memcache, which {@link #put(Entity)} updates as
+ * well. Users without a UserInfo entity are not kept in the near cache, since the entity may be
+ * stored on another instance right after the lookup.
+ */
+public final class UserInfoRepository {
+  static final String KIND = "UserInfo";
+  static final long MAXIMUM_SIZE = 10_000;
+  static final long EXPIRE_AFTER_WRITE_SECONDS = 60;
+
+  private final DatastoreService datastore;
+  private final MemcacheReadCache sharedCache;
+  private final LoadingCache<String, Optional<Entity>> entitiesByUserId;
+
+  public UserInfoRepository(DatastoreService datastore) {
+    this(
+        datastore,
+        MAXIMUM_SIZE,
+        EXPIRE_AFTER_WRITE_SECONDS,
+        TimeUnit.SECONDS,
+        Ticker.systemTicker());
+  }
+
+  public UserInfoRepository(
+      DatastoreService datastore,
+      long maximumSize,
+      long expireAfterWrite,
+      TimeUnit unit,
+      Ticker ticker) {
+    this(
+        datastore,
+        MemcacheReadCache.forNamespace(MemcacheReadCache.USER_INFO_NAMESPACE),
+        maximumSize,
+        expireAfterWrite,
+        unit,
+        ticker);
+  }
+
+  /**
+   * Creates a repository whose near cache misses are looked up in the shared cache before
+   * datastore.
+   */
+  public UserInfoRepository(
+      DatastoreService datastore,
+      MemcacheReadCache sharedCache,
+      long maximumSize,
+      long expireAfterWrite,
+      TimeUnit unit,
+      Ticker ticker) {
+    this.datastore = datastore;
+    this.sharedCache = sharedCache;
+    this.entitiesByUserId =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite, unit)
+            .ticker(ticker)
+            .build(CacheLoader.from(this::load));
+  }
+
+  /** Returns the repository shared by every request thread of this instance. */
+  public static UserInfoRepository getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** Lazily creates the shared repository. */
+  private static final class Holder {
+    private static final UserInfoRepository INSTANCE =
+        new UserInfoRepository(DatastoreServiceFactory.getDatastoreService());
+  }
+
+  /**
+   * Returns a copy of the UserInfo entity of the user, or an empty Optional if the user has not
+   * stored their info yet.
+   *
+   * @param userId - id of the user, which is also the id property of the entity.
+   */
+  public Optional<Entity> get(String userId) {
+    Optional<Entity> entity = entitiesByUserId.getUnchecked(userId);
+    if (!entity.isPresent()) {
+      entitiesByUserId.invalidate(userId);
+    }
+    return entity.map(Entity::clone);
+  }
+
+  /** Returns a new UserInfo entity for the user, keyed by the user id. It is not stored yet. */
+  public static Entity create(String userId) {
+    Entity entity = new Entity(KIND, userId);
+    entity.setProperty("id", userId);
+    return entity;
+  }
+
+  /** Stores the entity and makes it the cached UserInfo of its user. */
+  public void put(Entity userInfoEntity) {
+    datastore.put(userInfoEntity);
+    String userId = (String) userInfoEntity.getProperty("id");
+    sharedCache.put(userId, userInfoEntity);
+    entitiesByUserId.put(userId, Optional.of(userInfoEntity.clone()));
+  }
+
+  /** Drops the cached entity of the user so the next lookup reads datastore. */
+  public void invalidate(String userId) {
+    sharedCache.invalidate(userId);
+    entitiesByUserId.invalidate(userId);
+  }
+
+  private Optional<Entity> load(String userId) {
+    return sharedCache.getOptional(userId, () -> loadFromDatastore(userId));
+  }
+
+  private Optional<Entity> loadFromDatastore(String userId) {
+    Key key = KeyFactory.createKey(KIND, userId);
+    try {
+      return Optional.of(datastore.get(key));
+    } catch (EntityNotFoundException e) {
+      Query query =
+          new Query(KIND)
+              .setFilter(new Query.FilterPredicate("id", Query.FilterOperator.EQUAL, userId));
+      return Optional.ofNullable(datastore.prepare(query).asSingleEntity());
+    }
+  }
+}
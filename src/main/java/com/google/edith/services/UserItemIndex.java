@@ -0,0 +1,455 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilter;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Query.SortPredicate;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Keeps the Item entities of recently active users in memory, with postings for their name tokens,
+ * category and date, so that item searches are answered without a datastore round trip. A user's
+ * items are loaded with one query on first use and kept current by {@link #addAll(List)} whenever
+ * this instance stores items. Each user has a version counter in Memcache that {@link
+ * #addAll(List)} increments, so items stored by other instances show up on the next search: an
+ * entry whose version is no longer current is loaded again. Entries also expire a few minutes after
+ * they were loaded, in case Memcache cannot be reached, and users with more than MAX_ITEMS_PER_USER
+ * items are left to datastore.
+ *
+ * <p>The items of a user are copied on write: adding items replaces the entry with a new copy, so
+ * search results and pages being read are never changed underneath and the entry is weighed again
+ * against the total size of the index.
+ */
+public final class UserItemIndex {
+  static final int MAX_ITEMS_PER_USER = 5_000;
+  static final long MAX_INDEXED_ITEMS = 200_000;
+  static final long EXPIRE_AFTER_WRITE_MINUTES = 5;
+  static final String VERSIONS_NAMESPACE = "UserItemVersions";
+
+  private static final ImmutableSet<String> INDEXED_PROPERTIES =
+      ImmutableSet.of(NameTokens.PROPERTY, "category", "date");
+
+  private final DatastoreService datastore;
+  private final int maxItemsPerUser;
+  private final long expireAfterWriteNanos;
+  private final Ticker ticker;
+  private final MemcacheService versions;
+  private final LoadingCache<String, Optional<UserItems>> itemsByUser;
+
+  public UserItemIndex(DatastoreService datastore) {
+    this(
+        datastore,
+        MAX_ITEMS_PER_USER,
+        MAX_INDEXED_ITEMS,
+        EXPIRE_AFTER_WRITE_MINUTES,
+        TimeUnit.MINUTES,
+        Ticker.systemTicker());
+  }
+
+  /**
+   * Creates an empty index.
+   *
+   * @param maxItemsPerUser - users with more items than this are not indexed.
+   * @param maxIndexedItems - total number of items kept before users are evicted.
+   */
+  public UserItemIndex(
+      DatastoreService datastore,
+      int maxItemsPerUser,
+      long maxIndexedItems,
+      long expireAfterWrite,
+      TimeUnit unit,
+      Ticker ticker) {
+    this(
+        datastore,
+        maxItemsPerUser,
+        maxIndexedItems,
+        expireAfterWrite,
+        unit,
+        ticker,
+        MemcacheServiceFactory.getMemcacheService(VERSIONS_NAMESPACE));
+  }
+
+  /**
+   * Creates an empty index that checks the item versions of users in the given Memcache service.
+   */
+  public UserItemIndex(
+      DatastoreService datastore,
+      int maxItemsPerUser,
+      long maxIndexedItems,
+      long expireAfterWrite,
+      TimeUnit unit,
+      Ticker ticker,
+      MemcacheService versions) {
+    this.datastore = datastore;
+    this.maxItemsPerUser = maxItemsPerUser;
+    this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+    this.ticker = ticker;
+    this.versions = versions;
+    this.itemsByUser =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxIndexedItems)
+            .<String, Optional<UserItems>>weigher(
+                (userId, items) -> items.map(UserItems::size).orElse(0) + 1)
+            .expireAfterWrite(expireAfterWrite, unit)
+            .ticker(ticker)
+            .build(CacheLoader.from(this::load));
+  }
+
+  /** Returns the index shared by every request thread of this instance. */
+  public static UserItemIndex getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** Lazily creates the shared index. */
+  private static final class Holder {
+    private static final UserItemIndex INSTANCE =
+        new UserItemIndex(DatastoreServiceFactory.getDatastoreService());
+  }
+
+  /**
+   * Runs an Item query built by {@link SearchQueryPlanner} against the items of the user it is
+   * restricted to, loading them first when they are not indexed yet. Results are ordered like
+   * datastore orders them: by the sort properties followed by the key.
+   *
+   * @param query - query of kind Item with equality filters including one on userId.
+   * @return Optional<ImmutableList<Entity>> - all matching entities, or an empty Optional when the
+   *     query has to be run on datastore. The entities are shared and must not be modified.
+   */
+  public Optional<ImmutableList<Entity>> run(Query query) {
+    if (!query.getKind().equals("Item") || query.getAncestor() != null || query.isKeysOnly()) {
+      return Optional.empty();
+    }
+    Map<String, Object> filters = new HashMap<>();
+    if (!collectEqualityFilters(query.getFilter(), filters)
+        || !(filters.get("userId") instanceof String)) {
+      return Optional.empty();
+    }
+    String userId = (String) filters.remove("userId");
+    Optional<UserItems> items = itemsByUser.getUnchecked(userId);
+    if (items.isPresent() && isOutdated(userId, items.get())) {
+      itemsByUser.invalidate(userId);
+      items = itemsByUser.getUnchecked(userId);
+    }
+    return items.map(userItems -> userItems.find(filters, query.getSortPredicates()));
+  }
+
+  /** Adds a stored Item entity to the index of its user, see {@link #addAll(List)}. */
+  public void add(Entity item) {
+    addAll(ImmutableList.of(item));
+  }
+
+  /**
+   * Adds stored Item entities to the indexes of their users, replacing earlier versions with the
+   * same keys. Users whose items are not indexed are left alone; their items are loaded on the next
+   * search. Users who now have more than the item limit are dropped from the index. The version of
+   * every user is incremented, so that other instances load the items again; users whose items were
+   * also added by another instance since they were loaded are dropped here as well.
+   */
+  public void addAll(List<Entity> items) {
+    Map<String, List<Entity>> itemsOfUsers = new HashMap<>();
+    for (Entity item : items) {
+      Object userId = item.getProperty("userId");
+      if (item.getKind().equals("Item") && userId instanceof String) {
+        itemsOfUsers.computeIfAbsent((String) userId, unused -> new ArrayList<>()).add(item);
+      }
+    }
+    itemsOfUsers.forEach(
+        (userId, userItems) -> {
+          Long version = versions.increment(userId, 1L, initialVersion());
+          itemsByUser
+              .asMap()
+              .computeIfPresent(
+                  userId,
+                  (unused, indexed) -> {
+                    if (!indexed.isPresent()) {
+                      return indexed;
+                    }
+                    Long indexedVersion = indexed.get().version;
+                    if (version != null
+                        && (indexedVersion == null || version != indexedVersion + 1)) {
+                      return null;
+                    }
+                    UserItems updated = indexed.get().with(userItems, version);
+                    return updated.size() > maxItemsPerUser ? null : Optional.of(updated);
+                  });
+        });
+  }
+
+  /** Drops the items of the user, for example after they were changed outside this instance. */
+  public void invalidate(String userId) {
+    itemsByUser.invalidate(userId);
+  }
+
+  /** Drops the items of every user. */
+  public void invalidateAll() {
+    itemsByUser.invalidateAll();
+  }
+
+  /**
+   * Returns whether the items were loaded too long ago or items were added to the user by another
+   * instance since. Adding items rewrites the entry, so its age is checked against the time it was
+   * loaded.
+   */
+  private boolean isOutdated(String userId, UserItems items) {
+    if (ticker.read() - items.loadedNanos >= expireAfterWriteNanos) {
+      return true;
+    }
+    Long version = currentVersion(userId);
+    return version != null && !version.equals(items.version);
+  }
+
+  /** Returns the item version of the user, or null if Memcache could not be reached. */
+  private Long currentVersion(String userId) {
+    return versions.increment(userId, 0L, initialVersion());
+  }
+
+  /**
+   * Versions evicted from Memcache start again at the current time, so that they do not match a
+   * version an entry was loaded at before.
+   */
+  private static long initialVersion() {
+    return System.currentTimeMillis();
+  }
+
+  private Optional<UserItems> load(String userId) {
+    // Read before the items, so that items added while they are loaded make the entry outdated.
+    Long version = currentVersion(userId);
+    Query query =
+        new Query("Item").setFilter(new FilterPredicate("userId", FilterOperator.EQUAL, userId));
+    List<Entity> entities =
+        datastore
+            .prepare(query)
+            .asList(FetchOptions.Builder.withLimit(maxItemsPerUser + 1).chunkSize(500));
+    if (entities.size() > maxItemsPerUser) {
+      return Optional.empty();
+    }
+    return Optional.of(new UserItems(ticker.read(), version).with(entities, version));
+  }
+
+  /**
+   * Adds the property and value of every equality filter to the map. Returns false when the filter
+   * uses any other operator, since only equality filters can be answered from the postings.
+   */
+  private static boolean collectEqualityFilters(Filter filter, Map<String, Object> filters) {
+    if (filter instanceof FilterPredicate) {
+      FilterPredicate predicate = (FilterPredicate) filter;
+      if (predicate.getOperator() != FilterOperator.EQUAL
+          || filters.containsKey(predicate.getPropertyName())) {
+        return false;
+      }
+      filters.put(predicate.getPropertyName(), predicate.getValue());
+      return true;
+    }
+    if (filter instanceof CompositeFilter
+        && ((CompositeFilter) filter).getOperator() == CompositeFilterOperator.AND) {
+      for (Filter subFilter : ((CompositeFilter) filter).getSubFilters()) {
+        if (!collectEqualityFilters(subFilter, filters)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Items of one user with the keys of the items holding each value of the indexed properties.
+   * Instances are never changed once built; {@link #with(List)} returns a changed copy.
+   */
+  private static final class UserItems {
+    /** Ticker time the items were loaded from datastore at. */
+    private final long loadedNanos;
+
+    /** Version of the user's items these items are current for, or null if it is not known. */
+    private final Long version;
+
+    private final Map<Key, Entity> items;
+    private final Map<String, Map<Object, Set<Key>>> postings;
+
+    UserItems(long loadedNanos, Long version) {
+      this(loadedNanos, version, new HashMap<>(), new HashMap<>());
+    }
+
+    private UserItems(
+        long loadedNanos,
+        Long version,
+        Map<Key, Entity> items,
+        Map<String, Map<Object, Set<Key>>> postings) {
+      this.loadedNanos = loadedNanos;
+      this.version = version;
+      this.items = items;
+      this.postings = postings;
+    }
+
+    int size() {
+      return items.size();
+    }
+
+    /**
+     * Returns a copy holding the added items in place of earlier versions with the same keys. Only
+     * the posting lists the items are in are copied.
+     *
+     * @param version - version of the user's items after the items were added, or null to keep the
+     *     current version.
+     */
+    UserItems with(List<Entity> added, Long version) {
+      Map<Key, Entity> newItems = new HashMap<>(items);
+      Map<String, Map<Object, Set<Key>>> newPostings = new HashMap<>();
+      postings.forEach((property, values) -> newPostings.put(property, new HashMap<>(values)));
+      Set<Set<Key>> copiedPostings = Collections.newSetFromMap(new IdentityHashMap<>());
+      BiFunction<String, Object, Set<Key>> postingsToChange =
+          (property, value) -> {
+            Map<Object, Set<Key>> values =
+                newPostings.computeIfAbsent(property, unused -> new HashMap<>());
+            Set<Key> keys = values.get(value);
+            if (keys == null || !copiedPostings.contains(keys)) {
+              keys = keys == null ? new HashSet<>() : new HashSet<>(keys);
+              copiedPostings.add(keys);
+              values.put(value, keys);
+            }
+            return keys;
+          };
+
+      for (Entity item : added) {
+        Entity previous = newItems.put(item.getKey(), item);
+        if (previous != null) {
+          forEachIndexedValue(
+              previous,
+              (property, value) ->
+                  postingsToChange.apply(property, value).remove(previous.getKey()));
+        }
+        forEachIndexedValue(
+            item, (property, value) -> postingsToChange.apply(property, value).add(item.getKey()));
+      }
+      return new UserItems(
+          loadedNanos, version == null ? this.version : version, newItems, newPostings);
+    }
+
+    ImmutableList<Entity> find(Map<String, Object> filters, List<SortPredicate> sorts) {
+      // Starts from the shortest posting list and checks the remaining filters on each entity.
+      Collection<Key> candidates = items.keySet();
+      for (Map.Entry<String, Object> filter : filters.entrySet()) {
+        if (INDEXED_PROPERTIES.contains(filter.getKey())) {
+          Set<Key> keys =
+              postings
+                  .getOrDefault(filter.getKey(), Collections.emptyMap())
+                  .getOrDefault(filter.getValue(), Collections.emptySet());
+          if (keys.size() < candidates.size()) {
+            candidates = keys;
+          }
+        }
+      }
+
+      List<Entity> matches = new ArrayList<>();
+      for (Key key : candidates) {
+        Entity item = items.get(key);
+        if (filters.entrySet().stream().allMatch(filter -> hasValue(item, filter))) {
+          matches.add(item);
+        }
+      }
+      matches.sort(ordering(sorts));
+      return ImmutableList.copyOf(matches);
+    }
+
+    private static void forEachIndexedValue(Entity item, BiConsumer<String, Object> action) {
+      for (String property : INDEXED_PROPERTIES) {
+        for (Object value : values(item.getProperty(property))) {
+          action.accept(property, value);
+        }
+      }
+    }
+
+    private static boolean hasValue(Entity item, Map.Entry<String, Object> filter) {
+      return values(item.getProperty(filter.getKey())).stream()
+          .anyMatch(
+              value ->
+                  value instanceof Number && filter.getValue() instanceof Number
+                      ? compareValues(value, filter.getValue()) == 0
+                      : value.equals(filter.getValue()));
+    }
+
+    /** Returns the values of a list property, or the single value of any other property. */
+    private static Collection<?> values(Object property) {
+      if (property instanceof Collection) {
+        return (Collection<?>) property;
+      }
+      return property == null ? ImmutableList.of() : ImmutableList.of(property);
+    }
+
+    private static Comparator<Entity> ordering(List<SortPredicate> sorts) {
+      Comparator<Entity> ordering = (first, second) -> 0;
+      for (SortPredicate sort : sorts) {
+        Comparator<Entity> byProperty =
+            (first, second) ->
+                compareValues(
+                    first.getProperty(sort.getPropertyName()),
+                    second.getProperty(sort.getPropertyName()));
+        ordering =
+            ordering.thenComparing(
+                sort.getDirection() == SortDirection.ASCENDING
+                    ? byProperty
+                    : byProperty.reversed());
+      }
+      return ordering.thenComparing(Entity::getKey);
+    }
+
+    /**
+     * Compares property values the way datastore does for the types items hold: null first and
+     * numbers by value regardless of their boxed type.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object first, Object second) {
+      if (first == null || second == null) {
+        return first == null ? (second == null ? 0 : -1) : 1;
+      }
+      if (first instanceof Number && second instanceof Number) {
+        return Double.compare(((Number) first).doubleValue(), ((Number) second).doubleValue());
+      }
+      return ((Comparable<Object>) first).compareTo(second);
+    }
+  }
+}
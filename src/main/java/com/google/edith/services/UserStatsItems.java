@@ -0,0 +1,159 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.services;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The items counted in the stats of a user, stored as one UserStatsItem child entity of the
+ * UserStats entity per item. Children are keyed by the item key, so adding an item only reads and
+ * writes its own child however many items the user has. Pages of items are read in the order of
+ * their date.
+ */
+public final class UserStatsItems {
+  static final String KIND = "UserStatsItem";
+
+  /** Largest number of entities datastore accepts in one batch put. */
+  static final int MAX_BATCH_SIZE = 500;
+
+  private final DatastoreService datastore;
+
+  public UserStatsItems(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /** One page of item keys and the cursor of the page after it. */
+  @AutoValue
+  public abstract static class Page {
+    public abstract ImmutableList<Key> itemKeys();
+
+    /** Cursor of the next page, or an empty Optional if this is the last page. */
+    public abstract Optional<String> nextCursor();
+
+    static Page create(ImmutableList<Key> itemKeys, Optional<String> nextCursor) {
+      return new AutoValue_UserStatsItems_Page(itemKeys, nextCursor);
+    }
+  }
+
+  /**
+   * Returns the item keys that are not in the stats yet, without duplicates and in the order given.
+   *
+   * @param transaction - transaction the children are read in.
+   */
+  public ImmutableList<Key> findNew(Transaction transaction, Key userStatsKey, List<Key> itemKeys) {
+    Set<Key> distinctKeys = new LinkedHashSet<>(itemKeys);
+    List<Key> childKeys = new ArrayList<>();
+    for (Key itemKey : distinctKeys) {
+      childKeys.add(childKey(userStatsKey, itemKey));
+    }
+    Map<Key, Entity> storedChildren = datastore.get(transaction, childKeys);
+
+    ImmutableList.Builder<Key> newKeys = ImmutableList.builder();
+    for (Key itemKey : distinctKeys) {
+      if (!storedChildren.containsKey(childKey(userStatsKey, itemKey))) {
+        newKeys.add(itemKey);
+      }
+    }
+    return newKeys.build();
+  }
+
+  /**
+   * Adds the items to the stats.
+   *
+   * @param transaction - transaction the children are written in.
+   * @param itemKeys - keys of the items to add.
+   * @param items - Item entities of the keys, for their dates. Keys without an entity are added
+   *     without a date.
+   */
+  public void add(
+      Transaction transaction, Key userStatsKey, List<Key> itemKeys, Map<Key, Entity> items) {
+    List<Entity> children = new ArrayList<>();
+    for (Key itemKey : itemKeys) {
+      Entity child = new Entity(childKey(userStatsKey, itemKey));
+      child.setProperty("item", itemKey);
+      Entity item = items.get(itemKey);
+      child.setProperty("date", item == null ? null : item.getProperty("date"));
+      children.add(child);
+    }
+    for (List<Entity> batch : Lists.partition(children, MAX_BATCH_SIZE)) {
+      datastore.put(transaction, batch);
+    }
+  }
+
+  /**
+   * Returns every item key in the stats, in no particular order.
+   *
+   * @param transaction - transaction the children are read in.
+   */
+  public ImmutableList<Key> all(Transaction transaction, Key userStatsKey) {
+    Query query = new Query(KIND).setAncestor(userStatsKey).setKeysOnly();
+    ImmutableList.Builder<Key> itemKeys = ImmutableList.builder();
+    for (Entity child :
+        datastore.prepare(transaction, query).asIterable(FetchOptions.Builder.withDefaults())) {
+      itemKeys.add(KeyFactory.stringToKey(child.getKey().getName()));
+    }
+    return itemKeys.build();
+  }
+
+  /**
+   * Reads one page of the item keys in the stats, ordered by item date.
+   *
+   * @param cursor - cursor returned with the previous page, or null for the first page.
+   * @param pageSize - largest number of keys to return.
+   */
+  public Page page(Key userStatsKey, String cursor, int pageSize) {
+    Query query =
+        new Query(KIND)
+            .setAncestor(userStatsKey)
+            .addSort("date")
+            .addSort(Entity.KEY_RESERVED_PROPERTY);
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(pageSize);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    QueryResultList<Entity> children = datastore.prepare(query).asQueryResultList(fetchOptions);
+
+    ImmutableList.Builder<Key> itemKeys = ImmutableList.builder();
+    for (Entity child : children) {
+      itemKeys.add((Key) child.getProperty("item"));
+    }
+    Optional<String> nextCursor =
+        children.size() < pageSize
+            ? Optional.empty()
+            : Optional.of(children.getCursor().toWebSafeString());
+    return Page.create(itemKeys.build(), nextCursor);
+  }
+
+  private static Key childKey(Key userStatsKey, Key itemKey) {
+    return KeyFactory.createKey(userStatsKey, KIND, KeyFactory.keyToString(itemKey));
+  }
+}
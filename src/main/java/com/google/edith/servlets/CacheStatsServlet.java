@@ -0,0 +1,67 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.common.collect.ImmutableMap;
+import com.google.edith.services.MemcacheReadCache;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Admin-only servlet that reports the hits, misses and hit ratio of every {@link MemcacheReadCache}
+ * of the instance that answers it, as {"Receipts": {"hits": n, "misses": n, "hitRatio": r}, ...}.
+ * Counts start at zero when the instance starts.
+ */
+@WebServlet("/admin/cache-stats")
+public final class CacheStatsServlet extends HttpServlet {
+  private final Supplier<ImmutableMap<String, MemcacheReadCache>> caches;
+  private final UserService userService;
+
+  public CacheStatsServlet() {
+    this(MemcacheReadCache::all, UserServiceFactory.getUserService());
+  }
+
+  public CacheStatsServlet(
+      Supplier<ImmutableMap<String, MemcacheReadCache>> caches, UserService userService) {
+    this.caches = caches;
+    this.userService = userService;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "Only admins can read cache stats");
+      return;
+    }
+    JsonObject result = new JsonObject();
+    for (Map.Entry<String, MemcacheReadCache> cache : caches.get().entrySet()) {
+      JsonObject stats = new JsonObject();
+      stats.addProperty("hits", cache.getValue().hitCount());
+      stats.addProperty("misses", cache.getValue().missCount());
+      stats.addProperty("hitRatio", cache.getValue().hitRatio());
+      result.add(cache.getKey(), stats);
+    }
+    response.setContentType("application/json");
+    response.getWriter().println(result);
+  }
+}
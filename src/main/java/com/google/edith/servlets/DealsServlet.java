@@ -1,12 +1,26 @@
 package com.google.edith;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -17,15 +31,83 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet("/receipt-data")
 public class DealsServlet extends HttpServlet {
-  private final GroceryDataReader groceryReader = new GroceryDataReader();
+  /**
+   * System property selecting how the items of a receipt are looked up: "parallel" fans them out to
+   * the shared executor, "sequential" looks them up one after another on the request thread.
+   */
+  static final String DEAL_LOOKUP_PROPERTY = "edith.dealLookup";
+
+  /** Time allowed to resolve every item of a receipt before the rest degrade to no deal. */
+  static final long DEFAULT_DEADLINE_MILLIS = 5000;
+
+  private static final int MAX_LOOKUP_THREADS = 8;
+
+  /** Lookups waiting for a thread beyond which new items degrade to no deal right away. */
+  private static final int MAX_QUEUED_LOOKUPS = 64;
+
+  private final GroceryDataReader groceryReader;
   private final GroceryNameProcessor processor;
+  private final boolean parallel;
+  private final ExecutorService executor;
+  private final long deadlineMillis;
 
   public DealsServlet() throws IOException {
-    processor = new GroceryNameProcessor();
+    this(CachingGroceryNameProcessor.getInstance());
   }
 
   DealsServlet(GroceryNameProcessor processor) {
+    this(
+        processor,
+        new GroceryDataReader(),
+        isParallel(System.getProperty(DEAL_LOOKUP_PROPERTY, "parallel")),
+        SharedExecutor.INSTANCE,
+        DEFAULT_DEADLINE_MILLIS);
+  }
+
+  /**
+   * @param parallel - whether items are looked up on the executor or on the request thread.
+   * @param executor - executor of parallel lookups. Lookups it rejects degrade to no deal.
+   * @param deadlineMillis - time allowed for parallel lookups of one request.
+   */
+  DealsServlet(
+      GroceryNameProcessor processor,
+      GroceryDataReader groceryReader,
+      boolean parallel,
+      ExecutorService executor,
+      long deadlineMillis) {
     this.processor = processor;
+    this.groceryReader = groceryReader;
+    this.parallel = parallel;
+    this.executor = executor;
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  /** Returns whether the given value of DEAL_LOOKUP_PROPERTY selects parallel lookups. */
+  static boolean isParallel(String mode) {
+    switch (mode) {
+      case "parallel":
+        return true;
+      case "sequential":
+        return false;
+      default:
+        throw new IllegalArgumentException("Unknown deal lookup mode: " + mode);
+    }
+  }
+
+  /**
+   * Pool shared by every request of this instance to look up items in parallel. Both its threads
+   * and its queue are bounded, so a burst of large receipts cannot grow it without limit; lookups
+   * it cannot queue are rejected.
+   */
+  private static final class SharedExecutor {
+    private static final ExecutorService INSTANCE =
+        new ThreadPoolExecutor(
+            MAX_LOOKUP_THREADS,
+            MAX_LOOKUP_THREADS,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_LOOKUPS),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("deal-lookup-%d").build());
   }
 
   @Override
@@ -42,28 +124,97 @@ public class DealsServlet extends HttpServlet {
     JsonObject inputjson = parser.parse(receiptData).getAsJsonObject();
     JsonArray items = inputjson.get("items").getAsJsonArray();
 
-    DealItem cheapestItem = null;
-    ImmutableList.Builder<DealItem> deals = ImmutableList.builder();
+    List<String> itemNames = new ArrayList<>();
+    List<String> itemPrices = new ArrayList<>();
     for (int i = 0; i < items.size(); i++) {
-      cheapestItem = null;
       JsonObject item = items.get(i).getAsJsonObject();
-      String itemName = item.get("name").getAsString();
-      String itemPrice = item.get("price").getAsString();
-      try {
-        itemName = processor.process(itemName);
-      } catch (Exception e) {
-        System.out.println(e.getMessage());
-      }
+      itemNames.add(item.get("name").getAsString());
+      itemPrices.add(item.get("price").getAsString());
+    }
 
-      cheapestItem = groceryReader.readFile(itemName.toLowerCase(), itemPrice);
+    // Resolves every name of the receipt at once instead of one request per item.
+    List<String> processedNames = itemNames;
+    try {
+      processedNames = processor.processAll(itemNames);
+    } catch (Exception e) {
+      System.out.println(e.getMessage());
+    }
+
+    ImmutableList<DealItem> deals = findDeals(processedNames, itemPrices);
+    Gson gson = new Gson();
+    String dealItems = gson.toJson(deals);
+    response.setContentType("application/json");
+    response.getWriter().println(dealItems);
+  }
 
+  /**
+   * Looks up every item and returns the deals in input order.
+   *
+   * @param itemNames - processed names of the receipt items, which are not processed again.
+   * @param itemPrices - price paid for each item.
+   * @return ImmutableList<DealItem> - the cheapest deal for each item.
+   */
+  private ImmutableList<DealItem> findDeals(List<String> itemNames, List<String> itemPrices)
+      throws IOException {
+    if (parallel) {
+      return findDealsInParallel(itemNames, itemPrices);
+    }
+    ImmutableList.Builder<DealItem> deals = ImmutableList.builder();
+    for (int i = 0; i < itemNames.size(); i++) {
+      String itemName = itemNames.get(i).toLowerCase();
+      DealItem cheapestItem = groceryReader.readFile(itemName, itemName, itemPrices.get(i));
       if (cheapestItem != null) {
         deals.add(cheapestItem);
       }
     }
-    Gson gson = new Gson();
-    String dealItems = gson.toJson(deals.build());
-    response.setContentType("application/json");
-    response.getWriter().println(dealItems);
+    return deals.build();
+  }
+
+  /**
+   * Looks up every item on the executor. Items the executor rejects, and items that are not
+   * resolved before the deadline of the request, are returned as no deal with their shelf life
+   * instead of failing the whole response. Lookups still running at the deadline are interrupted.
+   */
+  private ImmutableList<DealItem> findDealsInParallel(
+      List<String> itemNames, List<String> itemPrices) throws IOException {
+    List<Future<DealItem>> lookups = new ArrayList<>();
+    for (int i = 0; i < itemNames.size(); i++) {
+      String itemName = itemNames.get(i).toLowerCase();
+      String itemPrice = itemPrices.get(i);
+      try {
+        lookups.add(executor.submit(() -> groceryReader.readFile(itemName, itemName, itemPrice)));
+      } catch (RejectedExecutionException e) {
+        lookups.add(Futures.immediateFuture(noDeal(itemName)));
+      }
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+    ImmutableList.Builder<DealItem> deals = ImmutableList.builder();
+    for (int i = 0; i < lookups.size(); i++) {
+      Future<DealItem> lookup = lookups.get(i);
+      try {
+        DealItem cheapestItem =
+            lookup.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if (cheapestItem != null) {
+          deals.add(cheapestItem);
+        }
+      } catch (TimeoutException e) {
+        lookup.cancel(true);
+        deals.add(noDeal(itemNames.get(i).toLowerCase()));
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        Throwables.propagateIfPossible(cause, IOException.class);
+        throw new IOException(cause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while looking up deals");
+      }
+    }
+    return deals.build();
+  }
+
+  /** Returns the no deal result of an item that was not looked up, with its shelf life. */
+  private static DealItem noDeal(String itemName) {
+    return DealItem.noDeal(ShelfDataReader.readFile(itemName));
   }
 }
@@ -1,10 +1,13 @@
 package com.google.edith.servlets;
 
 import com.google.auto.value.AutoValue;
+import java.io.Serializable;
 
 /** An Item is anything that is purchased at a grocery store. */
 @AutoValue
-public abstract class Item {
+public abstract class Item implements Serializable {
+  private static final long serialVersionUID = 1L;
+
   public abstract String name();
 
   public abstract String userId();
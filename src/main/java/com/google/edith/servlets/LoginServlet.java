@@ -14,10 +14,10 @@
 
 package com.google.edith.servlets;
 
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.edith.interfaces.LoginInterface;
 import com.google.edith.services.LoginService;
+import com.google.edith.services.UserInfoRepository;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -35,8 +35,7 @@ public final class LoginServlet extends HttpServlet {
 
   public LoginServlet() {
     this.loginImplementation =
-        new LoginService(
-            UserServiceFactory.getUserService(), DatastoreServiceFactory.getDatastoreService());
+        new LoginService(UserServiceFactory.getUserService(), UserInfoRepository.getInstance());
   }
 
   public LoginServlet(LoginInterface loginImplementation) {
@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith.servlets;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.edith.services.NameTokensBackfill;
+import com.google.edith.services.UserItemIndex;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Admin-only servlet that runs {@link NameTokensBackfill} over the entities of one kind. Each POST
+ * backfills pages until the time budget of the request is spent and responds with {"updated": n,
+ * "cursor": "..."}, where the cursor is only present when pages remain. Post again with the same
+ * kind and the returned cursor until it is absent, once for Receipt and once for Item.
+ */
+@WebServlet("/admin/backfill-name-tokens")
+public final class NameTokensBackfillServlet extends HttpServlet {
+  static final int PAGE_SIZE = 500;
+  static final long TIME_BUDGET_MILLIS = 30_000;
+
+  private final NameTokensBackfill backfill;
+  private final UserService userService;
+
+  public NameTokensBackfillServlet() {
+    this(
+        new NameTokensBackfill(
+            DatastoreServiceFactory.getDatastoreService(), UserItemIndex.getInstance()),
+        UserServiceFactory.getUserService());
+  }
+
+  public NameTokensBackfillServlet(NameTokensBackfill backfill, UserService userService) {
+    this.backfill = backfill;
+    this.userService = userService;
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "Only admins can run backfills");
+      return;
+    }
+    String kind = request.getParameter("kind");
+    String cursor = request.getParameter("cursor");
+    long deadline = System.currentTimeMillis() + TIME_BUDGET_MILLIS;
+    int updated = 0;
+    try {
+      do {
+        NameTokensBackfill.Page page = backfill.backfill(kind, cursor, PAGE_SIZE);
+        updated += page.updated();
+        cursor = page.nextCursor().orElse(null);
+      } while (cursor != null && System.currentTimeMillis() < deadline);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+
+    JsonObject result = new JsonObject();
+    result.addProperty("updated", updated);
+    if (cursor != null) {
+      result.addProperty("cursor", cursor);
+    }
+    response.setContentType("application/json");
+    response.getWriter().println(result);
+  }
+}
@@ -14,9 +14,13 @@
 
 package com.google.edith.servlets;
 
+import java.io.Serializable;
+
 // TODO(@prashantneu) Use Auto_Value for this class and change Item[] to list<Item>.
 /** Encapsulate User info and logout url. */
-public final class Receipt {
+public final class Receipt implements Serializable {
+  private static final long serialVersionUID = 1L;
+
   private final String userId;
   private final String storeName;
   private final String date;
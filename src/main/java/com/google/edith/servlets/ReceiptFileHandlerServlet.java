@@ -17,11 +17,15 @@ package com.google.edith.servlets;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.blobstore.FileInfo;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
 import com.google.edith.interfaces.ReceiptFileHandlerInterface;
 import com.google.edith.services.ReceiptFileHandlerService;
 import com.google.gson.Gson;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -34,24 +38,41 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/receipt-file-handler")
 public final class ReceiptFileHandlerServlet extends HttpServlet {
 
-  private BlobKey fileBlobKey;
-  private String expenditureName;
+  /** Receipts parsed in a session, waiting to be requested by the upload form. */
+  private static final RequestResultStore<Receipt> PARSED_RECEIPTS =
+      new RequestResultStore<>("receipt-token", 10, 30, TimeUnit.MINUTES);
 
-  private Receipt parsedReceipt;
-  private ReceiptFileHandlerInterface receiptFileHandler;
+  private final ReceiptFileHandlerInterface receiptFileHandler;
+  private final UserService userService;
+  private final RequestResultStore<Receipt> parsedReceipts;
 
   public ReceiptFileHandlerServlet() {
-    this.receiptFileHandler =
-        new ReceiptFileHandlerService(BlobstoreServiceFactory.getBlobstoreService());
+    this(
+        new ReceiptFileHandlerService(BlobstoreServiceFactory.getBlobstoreService()),
+        UserServiceFactory.getUserService(),
+        PARSED_RECEIPTS);
   }
 
   public ReceiptFileHandlerServlet(ReceiptFileHandlerInterface receiptFileHandler) {
+    this(receiptFileHandler, UserServiceFactory.getUserService(), PARSED_RECEIPTS);
+  }
+
+  public ReceiptFileHandlerServlet(
+      ReceiptFileHandlerInterface receiptFileHandler,
+      UserService userService,
+      RequestResultStore<Receipt> parsedReceipts) {
     this.receiptFileHandler = receiptFileHandler;
+    this.userService = userService;
+    this.parsedReceipts = parsedReceipts;
   }
 
+  /**
+   * Writes the receipt parsed from the file this browser uploaded last, or null if there is none.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     Gson gson = new Gson();
+    Receipt parsedReceipt = parsedReceipts.get(currentUserId(), request).orElse(null);
     String json = gson.toJson(parsedReceipt);
     response.setContentType("application/json");
     response.getWriter().println(json);
@@ -59,7 +80,7 @@ public final class ReceiptFileHandlerServlet extends HttpServlet {
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    expenditureName =
+    String expenditureName =
         request.getParameter("expense-name") == null
             ? "unknown"
             : request.getParameter("expense-name");
@@ -70,10 +91,16 @@ public final class ReceiptFileHandlerServlet extends HttpServlet {
       throw new IllegalStateException("file must be uploaded in the form");
     }
 
-    fileBlobKey = receiptFileHandler.getBlobKey(fileKeys);
-    parsedReceipt =
+    BlobKey fileBlobKey = receiptFileHandler.getBlobKey(fileKeys);
+    Receipt parsedReceipt =
         receiptFileHandler.createParsedReceipt(fileBlobKey.getKeyString(), expenditureName);
+    parsedReceipts.put(currentUserId(), parsedReceipt, request, response);
 
     response.sendRedirect("/");
   }
+
+  private String currentUserId() {
+    User user = userService.getCurrentUser();
+    return user == null ? "" : user.getUserId();
+  }
 }
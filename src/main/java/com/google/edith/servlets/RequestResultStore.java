@@ -0,0 +1,144 @@
+package com.google.edith.servlets;
+
+import java.io.Serializable;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Hands a value from a form submission to the request that reads its result, without keeping it in
+ * servlet fields shared by every user. Each value is stored in the HTTP session under a random
+ * token that is sent back to the browser in a cookie, together with the id of the user who stored
+ * it, so concurrent users and submissions never see each other's values. Sessions are persisted by
+ * App Engine, so the result can be read by any instance. Each session keeps at most a fixed number
+ * of values, which expire after a fixed time.
+ */
+public final class RequestResultStore<V extends Serializable> {
+  private final String cookieName;
+  private final long maximumSize;
+  private final long expireAfterWriteMillis;
+  private final Clock clock;
+
+  /** Value stored in the session with the user it belongs to and the time it expires. */
+  private static final class Entry<V extends Serializable> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String userId;
+    private final V value;
+    private final long expiresAtMillis;
+
+    private Entry(String userId, V value, long expiresAtMillis) {
+      this.userId = userId;
+      this.value = value;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  /**
+   * Creates a store whose values expire after the given time.
+   *
+   * @param maximumSize - number of values of one session, after which the oldest value is removed.
+   */
+  public RequestResultStore(
+      String cookieName, long maximumSize, long expireAfterWrite, TimeUnit unit) {
+    this(cookieName, maximumSize, expireAfterWrite, unit, Clock.systemUTC());
+  }
+
+  public RequestResultStore(
+      String cookieName, long maximumSize, long expireAfterWrite, TimeUnit unit, Clock clock) {
+    this.cookieName = cookieName;
+    this.maximumSize = maximumSize;
+    this.expireAfterWriteMillis = unit.toMillis(expireAfterWrite);
+    this.clock = clock;
+  }
+
+  /**
+   * Stores the value for the user under a new token and adds the token cookie to the response.
+   *
+   * @param userId - id of the user who submitted the request.
+   * @param value - value to hand to the next request of that user.
+   * @param request - request whose session keeps the value.
+   * @param response - response that receives the token cookie.
+   */
+  public void put(
+      String userId, V value, HttpServletRequest request, HttpServletResponse response) {
+    HttpSession session = request.getSession();
+    removeExpiredAndOldest(session);
+    String token = UUID.randomUUID().toString();
+    session.setAttribute(
+        attributeName(token), new Entry<>(userId, value, clock.millis() + expireAfterWriteMillis));
+    Cookie cookie = new Cookie(cookieName, token);
+    cookie.setPath("/");
+    cookie.setMaxAge((int) TimeUnit.MILLISECONDS.toSeconds(expireAfterWriteMillis));
+    cookie.setHttpOnly(true);
+    response.addCookie(cookie);
+  }
+
+  /**
+   * Returns the value stored for the user under the token cookie of the request, or an empty
+   * Optional when the request has no session or token or the value has expired.
+   */
+  public Optional<V> get(String userId, HttpServletRequest request) {
+    HttpSession session = request.getSession(false);
+    Cookie[] cookies = request.getCookies();
+    if (session == null || cookies == null) {
+      return Optional.empty();
+    }
+    long now = clock.millis();
+    return Arrays.stream(cookies)
+        .filter(cookie -> cookie.getName().equals(cookieName))
+        .map(cookie -> entry(session, attributeName(cookie.getValue())))
+        .filter(entry -> entry != null)
+        .filter(entry -> entry.userId.equals(userId) && entry.expiresAtMillis > now)
+        .map(entry -> entry.value)
+        .findFirst();
+  }
+
+  /**
+   * Removes the expired values of this store from the session, then the oldest values until there
+   * is room for one more.
+   */
+  private void removeExpiredAndOldest(HttpSession session) {
+    long now = clock.millis();
+    List<String> names = new ArrayList<>();
+    for (String name : Collections.list(session.getAttributeNames())) {
+      if (!name.startsWith(cookieName + "/")) {
+        continue;
+      }
+      Entry<V> entry = entry(session, name);
+      if (entry == null || entry.expiresAtMillis <= now) {
+        session.removeAttribute(name);
+      } else {
+        names.add(name);
+      }
+    }
+    names.sort(Comparator.comparingLong(name -> entry(session, name).expiresAtMillis));
+    for (int i = 0; i <= names.size() - maximumSize; i++) {
+      session.removeAttribute(names.get(i));
+    }
+  }
+
+  private Entry<V> entry(HttpSession session, String name) {
+    Object attribute = session.getAttribute(name);
+    if (!(attribute instanceof Entry)) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    Entry<V> entry = (Entry<V>) attribute;
+    return entry;
+  }
+
+  private String attributeName(String token) {
+    return cookieName + "/" + token;
+  }
+}
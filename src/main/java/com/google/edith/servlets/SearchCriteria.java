@@ -0,0 +1,47 @@
+package com.google.edith.servlets;
+
+import com.google.auto.value.AutoValue;
+import java.io.Serializable;
+
+/** Filters and sort order of a search submitted from the search form. */
+@AutoValue
+public abstract class SearchCriteria implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** Receipt or Item. */
+  public abstract String kind();
+
+  public abstract String name();
+
+  public abstract String date();
+
+  /** Ascending, Descending or empty for no sort. */
+  public abstract String sortOrder();
+
+  public abstract String sortOnProperty();
+
+  /**
+   * Creates an AutoValue Builder for this class.
+   *
+   * @return AutoValue Builder
+   */
+  public static Builder builder() {
+    return new AutoValue_SearchCriteria.Builder();
+  }
+
+  /** Builder used to set the fields of this class. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setKind(String value);
+
+    public abstract Builder setName(String value);
+
+    public abstract Builder setDate(String value);
+
+    public abstract Builder setSortOrder(String value);
+
+    public abstract Builder setSortOnProperty(String value);
+
+    public abstract SearchCriteria build();
+  }
+}
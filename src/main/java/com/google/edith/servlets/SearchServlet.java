@@ -16,13 +16,19 @@ package com.google.edith.servlets;
 
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.common.collect.ImmutableList;
 import com.google.edith.interfaces.SearchService;
+import com.google.edith.interfaces.SearchService.EntityPage;
 import com.google.edith.services.SearchServiceImpl;
+import com.google.edith.services.UserItemIndex;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -30,53 +36,121 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * Servlet that searches the datastore for the entity which has all the properties submitted in the
- * form.
+ * form. Results are returned one page at a time as {"results": [...], "cursor": "..."}, where the
+ * cursor is only present when there may be another page.
  */
 @WebServlet("/search-entity")
 public final class SearchServlet extends HttpServlet {
-  private SearchService searchService;
-  private ImmutableList<Receipt> receipts;
-  private ImmutableList<Item> items;
-  private String kind;
+  static final int DEFAULT_PAGE_SIZE = 50;
+  static final int MAX_PAGE_SIZE = 500;
+
+  /** Searches submitted in a session, waiting for their results to be requested. */
+  private static final RequestResultStore<SearchCriteria> SUBMITTED_SEARCHES =
+      new RequestResultStore<>("search-token", 10, 30, TimeUnit.MINUTES);
+
+  private final Gson gson = new Gson();
+  private final SearchService searchService;
+  private final UserService userService;
+  private final RequestResultStore<SearchCriteria> submittedSearches;
 
   public SearchServlet() {
-    this.searchService =
+    this(
         new SearchServiceImpl(
-            DatastoreServiceFactory.getDatastoreService(), UserServiceFactory.getUserService());
+            DatastoreServiceFactory.getDatastoreService(),
+            UserServiceFactory.getUserService(),
+            UserItemIndex.getInstance()),
+        UserServiceFactory.getUserService(),
+        SUBMITTED_SEARCHES);
   }
 
   public SearchServlet(SearchService searchService) {
+    this(searchService, UserServiceFactory.getUserService(), SUBMITTED_SEARCHES);
+  }
+
+  public SearchServlet(
+      SearchService searchService,
+      UserService userService,
+      RequestResultStore<SearchCriteria> submittedSearches) {
     this.searchService = searchService;
+    this.userService = userService;
+    this.submittedSearches = submittedSearches;
   }
 
+  /**
+   * Writes one page of results of the search submitted with this browser's search token. Takes an
+   * optional page-size parameter and the cursor returned with the previous page. Item entities are
+   * written as they are fetched; receipts of a page are fetched first so that their items can be
+   * loaded together.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Gson gson = new Gson();
+    int pageSize;
+    try {
+      pageSize =
+          Integer.parseInt(
+              getParameter(request, "page-size").orElse(String.valueOf(DEFAULT_PAGE_SIZE)));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid page size");
+      return;
+    }
+    pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+    String cursor = getParameter(request, "cursor").orElse("");
+
+    SearchCriteria criteria = submittedSearches.get(currentUserId(), request).orElse(null);
+    EntityPage entities = null;
+    if (criteria != null) {
+      try {
+        entities = searchService.findEntityPage(criteria, pageSize, cursor);
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        return;
+      }
+    }
 
-    String json = kind.equals("Receipt") ? gson.toJson(receipts) : gson.toJson(items);
     response.setContentType("application/json");
-    response.getWriter().println(json);
+    JsonWriter writer = gson.newJsonWriter(response.getWriter());
+    writer.beginObject().name("results").beginArray();
+    int count = 0;
+    if (entities != null && criteria.kind().equals("Receipt")) {
+      ImmutableList<Entity> receiptEntities = ImmutableList.copyOf(entities);
+      count = receiptEntities.size();
+      for (Receipt receipt : searchService.createReceiptObjects(receiptEntities)) {
+        gson.toJson(receipt, Receipt.class, writer);
+      }
+    } else if (entities != null) {
+      while (entities.hasNext()) {
+        Item item = searchService.createItemObjects(ImmutableList.of(entities.next())).get(0);
+        gson.toJson(item, item.getClass(), writer);
+        count++;
+      }
+    }
+    writer.endArray();
+    if (count == pageSize) {
+      writer.name("cursor").value(entities.nextCursor());
+    }
+    writer.endObject();
+    writer.flush();
   }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    kind = getParameter(request, "kind").orElse("");
-    String name = getParameter(request, "name").orElse("");
-    String date = getParameter(request, "date").orElse("");
-    String sortOrder = getParameter(request, "sort-order").orElse("");
-    String sortOnProperty = getParameter(request, "sort-on").orElse("").toLowerCase();
-
-    ImmutableList<Entity> entities =
-        searchService.findEntityFromDatastore(name, date, kind, sortOrder, sortOnProperty);
-
-    if (kind.equals("Receipt")) {
-      receipts = searchService.createReceiptObjects(entities);
-    } else {
-      items = searchService.createItemObjects(entities);
-    }
+    SearchCriteria criteria =
+        SearchCriteria.builder()
+            .setKind(getParameter(request, "kind").orElse(""))
+            .setName(getParameter(request, "name").orElse(""))
+            .setDate(getParameter(request, "date").orElse(""))
+            .setSortOrder(getParameter(request, "sort-order").orElse(""))
+            .setSortOnProperty(getParameter(request, "sort-on").orElse("").toLowerCase())
+            .build();
+    submittedSearches.put(currentUserId(), criteria, request, response);
     response.sendRedirect("/#search-results");
   }
 
+  private String currentUserId() {
+    User user = userService.getCurrentUser();
+    return user == null ? "" : user.getUserId();
+  }
+
   /**
    * Returns Optional of String from form in FE.
    *
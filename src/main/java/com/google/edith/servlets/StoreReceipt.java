@@ -17,6 +17,8 @@ package com.google.edith.servlets;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.edith.interfaces.StoreReceiptInterface;
 import com.google.edith.services.StoreReceiptService;
+import com.google.edith.services.UserInfoRepository;
+import com.google.edith.services.UserItemIndex;
 import java.io.BufferedReader;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
@@ -31,7 +33,10 @@ public final class StoreReceipt extends HttpServlet {
 
   public StoreReceipt() {
     this.storeReceiptService =
-        new StoreReceiptService(DatastoreServiceFactory.getDatastoreService());
+        new StoreReceiptService(
+            DatastoreServiceFactory.getDatastoreService(),
+            UserItemIndex.getInstance(),
+            UserInfoRepository.getInstance());
   }
 
   public StoreReceipt(StoreReceiptInterface storeReceiptService) {
@@ -42,7 +47,12 @@ public final class StoreReceipt extends HttpServlet {
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     BufferedReader bufferedReader = request.getReader();
     Receipt receipt = storeReceiptService.parseReceiptFromForm(bufferedReader);
-    storeReceiptService.storeEntites(receipt);
+    try {
+      storeReceiptService.storeEntites(receipt);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
     response.sendRedirect("/");
   }
 }
@@ -2,6 +2,8 @@ package com.google.edith.servlets;
 
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
+import com.google.edith.services.SpendingBuckets;
+import com.google.edith.services.TimePeriod;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,16 +17,16 @@ public interface UserInsightsInterface {
   void createUserStats(String userId);
 
   /**
-   * Updates the Items list in the UserStats Entity in datastore corresponding to this user.
+   * Adds items to the stats of this user in datastore. Items that are already in the stats are left
+   * as they are.
    *
    * @param userId - current userId
-   * @param items - Non-null list of item Keys to be added to the current Item list.
+   * @param items - Non-null list of item Keys to be added to the stats.
    */
   void updateUserStats(String userId, List<Key> newItems);
 
   /**
-   * Copmiles the spending using the Item list found in this user's UserStats Entity in datastore.
-   * TODO (malachibre): Allow for various time periods (only calculates weekly aggregate now).
+   * Copmiles the weekly spending of the items in the stats of this user in datastore.
    *
    * @param userId current userId
    * @return A list of {@code WeekInfo} objects relating a time period to the spending in that time
@@ -33,14 +35,44 @@ public interface UserInsightsInterface {
   List<WeekInfo> aggregateUserData(String userId);
 
   /**
-   * Creates a Json string that contains the weekly aggregate for this user and the items this user
-   * purchased.
+   * Copmiles the spending per period of the given length, such as per month.
+   *
+   * @param userId current userId
+   * @param period length of the periods to total
+   * @return A list of {@code WeekInfo} objects relating the last day of each period to the spending
+   *     in that period, ordered by date.
+   */
+  List<WeekInfo> aggregateUserData(String userId, TimePeriod period);
+
+  /**
+   * Compiles the spending per period of the given length and per category.
+   *
+   * @param userId current userId
+   * @param period length of the periods to total
+   * @return The totals of each category for every period the user bought items in.
+   */
+  SpendingBuckets aggregateSpending(String userId, TimePeriod period);
+
+  /**
+   * Creates a Json string that contains the weekly aggregate for this user and the first page of
+   * the items this user purchased.
    *
    * @param userId current userId
    * @return a Json formatted String of items and an aggregate.
    */
   String createJson(String userId);
 
+  /**
+   * Creates a Json string like {@link #createJson(String)} that contains one page of the items this
+   * user purchased. When more items remain, the Json also has a nextCursor that requests the page
+   * after this one.
+   *
+   * @param userId current userId
+   * @param cursor nextCursor of the previous page, or null for the first page
+   * @return a Json formatted String of one page of items and an aggregate.
+   */
+  String createJson(String userId, String cursor);
+
   /**
    * Finds the UserStats entity corresponding to {@code userId} in datastore and returns this entity
    * contained inside an Optional.
@@ -11,19 +11,25 @@ import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.edith.services.MemcacheReadCache;
+import com.google.edith.services.SpendingBuckets;
+import com.google.edith.services.SpendingRollups;
+import com.google.edith.services.TimePeriod;
+import com.google.edith.services.UserStatsItems;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -32,120 +38,153 @@ import java.util.stream.Collectors;
  */
 public final class UserInsightsService implements UserInsightsInterface {
   private DatastoreService datastore;
+  private final MemcacheReadCache userStatsCache;
+  private final SpendingRollups rollups;
+  private final UserStatsItems statsItems;
+  private final int batchSize;
+  private final int itemPageSize;
   private final Gson GSON = new Gson();
-  private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+  /**
+   * UserStats property that is true once the items of the user are UserStatsItem children instead
+   * of an Items list and the daily rollups count every one of them.
+   */
+  private static final String STATS_CURRENT = "itemChildrenCurrent";
+
+  /**
+   * UserStats property that counts the keys at the start of the Items list that were already moved
+   * into children, while the list is being migrated. The next batch starts after them.
+   */
+  private static final String MIGRATED_ITEMS = "migratedItems";
+
+  /**
+   * Number of items added to the stats in one transaction. Each item writes one child and at most
+   * one daily rollup, which keeps every commit well within the 500 entities datastore accepts.
+   */
+  static final int BATCH_SIZE = 200;
+
+  /** Number of items returned by each page of {@link #createJson(String, String)}. */
+  static final int ITEM_PAGE_SIZE = 500;
+
+  private static final int MAX_TRANSACTION_ATTEMPTS = 3;
 
   public UserInsightsService() {
-    this.datastore = DatastoreServiceFactory.getDatastoreService();
+    this(DatastoreServiceFactory.getDatastoreService());
   }
 
-  public void createUserStats(String userId) {
+  public UserInsightsService(DatastoreService datastore) {
+    this(datastore, BATCH_SIZE, ITEM_PAGE_SIZE);
+  }
 
-    List<Key> items = new ArrayList<>();
+  /**
+   * @param batchSize - number of items added to the stats in one transaction.
+   * @param itemPageSize - number of items returned by each page of {@link #createJson(String,
+   *     String)}.
+   */
+  public UserInsightsService(DatastoreService datastore, int batchSize, int itemPageSize) {
+    this.datastore = datastore;
+    this.userStatsCache = MemcacheReadCache.forNamespace(MemcacheReadCache.USER_STATS_NAMESPACE);
+    this.rollups = new SpendingRollups(datastore);
+    this.statsItems = new UserStatsItems(datastore);
+    this.batchSize = batchSize;
+    this.itemPageSize = itemPageSize;
+  }
 
+  public void createUserStats(String userId) {
     Entity userStats = new Entity("UserStats");
     userStats.setProperty("userId", userId);
-    userStats.setProperty("Items", items);
+    userStats.setProperty(STATS_CURRENT, true);
 
     datastore.put(userStats);
+    userStatsCache.put(userId, userStats);
   }
 
+  /**
+   * {@inheritDoc} Each item is stored as a child of the UserStats entity, and the daily spending
+   * rollups are updated with the items that were not in the stats yet in the same transaction. The
+   * items are added in batches of one transaction each, so any number of them can be added.
+   */
   public void updateUserStats(String userId, List<Key> newItems) {
     Optional<Entity> userStatsContainer = retreiveUserStats(userId);
     if (!userStatsContainer.isPresent()) {
       return;
     }
-    Entity userStats = userStatsContainer.get();
-    List<Key> items = (List<Key>) userStats.getProperty("Items");
-    if (items == null) {
-      items = newItems;
-    } else {
-      for (Key newItem : newItems) {
-        if (!items.contains(newItem)) {
-          items.add(newItem);
-        }
-      }
+    Key userStatsKey = userStatsContainer.get().getKey();
+    if (!isCurrent(userStatsContainer.get())) {
+      migrateLegacyItems(userId, userStatsKey);
+    }
+    for (List<Key> batch : Lists.partition(newItems, batchSize)) {
+      retryOnConflict(() -> addItems(userId, userStatsKey, batch));
     }
-    userStats.setProperty("Items", items);
-    datastore.put(userStats);
   }
 
   public ImmutableList<WeekInfo> aggregateUserData(String userId) {
+    return aggregateUserData(userId, TimePeriod.WEEK);
+  }
+
+  public ImmutableList<WeekInfo> aggregateUserData(String userId, TimePeriod period) {
+    return toPeriodInfo(aggregateSpending(userId, period));
+  }
+
+  public SpendingBuckets aggregateSpending(String userId, TimePeriod period) {
     Optional<Entity> userStatsContainer = retreiveUserStats(userId);
     if (!userStatsContainer.isPresent()) {
-      return ImmutableList.copyOf(new ArrayList<WeekInfo>());
-    }
-
-    Entity userStats = userStatsContainer.get();
-    List<Key> items = (List<Key>) userStats.getProperty("Items");
-    if (items == null) {
-      return ImmutableList.copyOf(new ArrayList<WeekInfo>());
+      return SpendingBuckets.of(period, ImmutableMap.of());
     }
-
-    /** Assumes dates are in the form yyyy-mm-dd */
-    Comparator<Key> SORT_BY_DATE =
-        (Key item1, Key item2) -> {
-          try {
-            return (LocalDate.parse(
-                    (String) (datastore.get(item1).getProperty("date")), DATE_FORMATTER)
-                .compareTo(
-                    LocalDate.parse(
-                        (String) (datastore.get(item2).getProperty("date")), DATE_FORMATTER)));
-          } catch (EntityNotFoundException | NullPointerException e) {
-            return 0;
-          }
-        };
-    items.sort(SORT_BY_DATE);
-    return calculateWeeklyTotal(items);
+    return readRollups(userId, userStatsContainer.get()).rollUp(period);
   }
 
   public String createJson(String userId) {
-    List<WeekInfo> aggregateValues = aggregateUserData(userId);
-    String aggregateJson = GSON.toJson(aggregateValues);
+    return createJson(userId, null);
+  }
+
+  /**
+   * {@inheritDoc} The weekly aggregate is only computed for the first page and is empty on the
+   * pages after it.
+   *
+   * @throws IllegalArgumentException if the cursor was not returned by an earlier page.
+   */
+  public String createJson(String userId, String cursor) {
     Optional<Entity> userStatsContainer = retreiveUserStats(userId);
 
     if (!userStatsContainer.isPresent()) {
       return GSON.toJson(createDefaultMap());
     }
 
-    List<Key> itemKeys = (List<Key>) userStatsContainer.get().getProperty("Items");
+    Entity userStats = userStatsContainer.get();
+    String aggregateJson =
+        cursor == null
+            ? GSON.toJson(toPeriodInfo(readRollups(userId, userStats).rollUp(TimePeriod.WEEK)))
+            : "";
 
-    if (itemKeys == null) {
+    UserStatsItems.Page page = statsItems.page(userStats.getKey(), cursor, itemPageSize);
+    List<Entity> itemEntities = loadItems(page.itemKeys());
+
+    if (itemEntities.isEmpty() && cursor == null) {
       return GSON.toJson(createDefaultMap());
     }
 
     // Each item is mapped to an Item object to make their
     // properties parseable by GSON.
     List<Item> items =
-        itemKeys.stream()
-            .map(
-                key -> {
-                  try {
-                    return Optional.of(datastore.get(key));
-                  } catch (EntityNotFoundException e) {
-                    return Optional.empty();
-                  }
-                })
-            .filter(Optional::isPresent)
-            .map(Optional::get)
+        itemEntities.stream()
             .map(
-                object -> {
-                  Entity item = (Entity) object;
-                  return Item.builder()
-                      .setName((String) item.getProperty("name"))
-                      .setUserId((String) item.getProperty("userId"))
-                      .setCategory((String) item.getProperty("category"))
-                      .setPrice((double) item.getProperty("price"))
-                      .setQuantity((long) item.getProperty("quantity"))
-                      .setDate((String) item.getProperty("date"))
-                      .setExpiration("")
-                      .build();
-                })
+                item ->
+                    Item.builder()
+                        .setName((String) item.getProperty("name"))
+                        .setUserId((String) item.getProperty("userId"))
+                        .setCategory((String) item.getProperty("category"))
+                        .setPrice((double) item.getProperty("price"))
+                        .setQuantity((long) item.getProperty("quantity"))
+                        .setDate((String) item.getProperty("date"))
+                        .setExpiration("")
+                        .build())
             .collect(Collectors.toList());
     String itemsJson = GSON.toJson(items);
     JsonObject userJson = new JsonObject();
     userJson.addProperty("weeklyAggregate", aggregateJson);
     userJson.addProperty("items", itemsJson);
+    page.nextCursor().ifPresent(nextCursor -> userJson.addProperty("nextCursor", nextCursor));
     return GSON.toJson(userJson);
   }
 
@@ -153,6 +192,10 @@ public final class UserInsightsService implements UserInsightsInterface {
     if (userId == null) {
       return Optional.empty();
     }
+    return userStatsCache.getOptional(userId, () -> queryUserStats(userId));
+  }
+
+  private Optional<Entity> queryUserStats(String userId) {
     Filter idFilter = new FilterPredicate("userId", FilterOperator.EQUAL, userId);
     Query query = new Query("UserStats").setFilter(idFilter);
 
@@ -162,69 +205,161 @@ public final class UserInsightsService implements UserInsightsInterface {
   }
 
   /**
-   * Creates a map relating string weekly period keys to string spending values. This method
-   * calculates the trailing based on a date. Example: {"06-20-2020" : "53.0"}
+   * Loads the Item entities with one batch get, in the order of their keys. Keys whose entity no
+   * longer exists are skipped.
    *
-   * @param items - A list of {@code Key} objects that reference Item entities - in the datastore.
-   * @return Creates a map with keys for each ending day of a weekly period and values for the total
-   *     spending during that period. TODO (malachibre) : Modify this method by using an enum to
-   *     calculate time period totals using an enum.
+   * @param itemKeys - keys of Item entities in the stats of the user.
+   * @return List<Entity> - the Item entities that were found.
    */
-  private ImmutableList<WeekInfo> calculateWeeklyTotal(List<Key> itemKeys) {
-    if (itemKeys == null || itemKeys.isEmpty()) {
-      return ImmutableList.copyOf(new ArrayList<WeekInfo>());
-    }
-    List<WeekInfo> weeklyTotals = new ArrayList<WeekInfo>();
-    LocalDate currentEndOfWeek;
-    try {
-      currentEndOfWeek =
-          getEndOfWeek(
-              LocalDate.parse(
-                  (String) datastore.get(itemKeys.get(0)).getProperty("date"), DATE_FORMATTER));
-    } catch (EntityNotFoundException e) {
-      System.err.println("Error: Entity could not be located");
-      return ImmutableList.copyOf(new ArrayList<WeekInfo>());
+  private List<Entity> loadItems(List<Key> itemKeys) {
+    Map<Key, Entity> itemsByKey = datastore.get(itemKeys);
+    return itemKeys.stream()
+        .map(itemsByKey::get)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Reads the daily totals from the rollups of the user, migrating stats that were stored before
+   * items were children first.
+   */
+  private SpendingBuckets readRollups(String userId, Entity userStats) {
+    if (!isCurrent(userStats)) {
+      migrateLegacyItems(userId, userStats.getKey());
     }
+    return rollups.read(userId);
+  }
+
+  private static boolean isCurrent(Entity userStats) {
+    return Boolean.TRUE.equals(userStats.getProperty(STATS_CURRENT));
+  }
+
+  /** Pairs the last day of each period with its total spending, in date order. */
+  private static ImmutableList<WeekInfo> toPeriodInfo(SpendingBuckets buckets) {
+    ImmutableList.Builder<WeekInfo> periodInfo = ImmutableList.builder();
+    buckets
+        .totals()
+        .forEach(
+            (date, total) -> periodInfo.add(new WeekInfo(date.toString(), Double.toString(total))));
+    return periodInfo.build();
+  }
 
-    double weeklyTotal = 0;
-    for (Key itemKey : itemKeys) {
+  /**
+   * Runs the transaction again when another request changed the same stats, up to {@link
+   * #MAX_TRANSACTION_ATTEMPTS} times.
+   */
+  private static <T> T retryOnConflict(Supplier<T> transaction) {
+    for (int attempt = 1; ; attempt++) {
       try {
-        Entity item = datastore.get(itemKey);
-        LocalDate itemDate = LocalDate.parse((String) item.getProperty("date"), DATE_FORMATTER);
-
-        // If there is a positive amount of time between
-        // {@code currentEndOfWeek} and {@code itemDate}
-        // that means that itemDate is after currentEndOfWeek and
-        // currentEndOfWeek needs to be updated.
-        if (ChronoUnit.DAYS.between(currentEndOfWeek, itemDate) > 0) {
-          weeklyTotals.add(new WeekInfo(currentEndOfWeek.toString(), Double.toString(weeklyTotal)));
-          currentEndOfWeek = getEndOfWeek(itemDate);
-          weeklyTotal = 0;
+        return transaction.get();
+      } catch (ConcurrentModificationException e) {
+        // Another request updated this user's stats; the next attempt sees its items.
+        if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+          throw e;
         }
+      }
+    }
+  }
 
-        weeklyTotal += ((double) item.getProperty("price")) * ((long) item.getProperty("quantity"));
-
+  /**
+   * Adds the new items to the stats and their spending to the daily rollups in one transaction, so
+   * retried requests do not count an item twice. Only the children of the new items are written.
+   *
+   * @return true, so the transaction can be retried by {@link #retryOnConflict(Supplier)}.
+   */
+  private boolean addItems(String userId, Key userStatsKey, List<Key> newItems) {
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      try {
+        datastore.get(transaction, userStatsKey);
       } catch (EntityNotFoundException e) {
-        System.err.println("Error: Entity could not be found");
+        userStatsCache.invalidate(userId);
+        return true;
+      }
+      List<Key> addedItems = statsItems.findNew(transaction, userStatsKey, newItems);
+      Map<Key, Entity> itemsByKey = datastore.get(addedItems);
+      statsItems.add(transaction, userStatsKey, addedItems, itemsByKey);
+      rollups.add(transaction, userId, ImmutableList.copyOf(itemsByKey.values()));
+      transaction.commit();
+      return true;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
       }
     }
+  }
 
-    weeklyTotals.add(new WeekInfo(currentEndOfWeek.toString(), Double.toString(weeklyTotal)));
-
-    return ImmutableList.copyOf(weeklyTotals);
+  /**
+   * Moves the Items list of stats stored before items were children into children, one batch per
+   * transaction. The first batch replaces the rollups of the user with the totals of its items and
+   * later batches add to them. Every batch records how far the list was migrated, so a migration
+   * that stops part way resumes after the last committed batch. The stats become current with the
+   * last batch.
+   */
+  private void migrateLegacyItems(String userId, Key userStatsKey) {
+    boolean done;
+    do {
+      done = retryOnConflict(() -> migrateLegacyItemsBatch(userId, userStatsKey));
+    } while (!done);
   }
 
   /**
-   * Finds the Date for the last day of the week that {@code itemDate} is in (weeks start on Monday
-   * and end on Sunday).
+   * Migrates the next batch of the Items list.
    *
-   * @param itemDate - Uses the int day value of the week from this paramter to calculate the end of
-   *     its week.
-   * @return the LocalDate representing the end of the week {@code itemDate} is in.
+   * @return whether the stats are current, or no longer exist, after this batch.
    */
-  private LocalDate getEndOfWeek(LocalDate itemDate) {
-    int currentDayOfWeek = itemDate.getDayOfWeek().getValue();
-    return itemDate.plusDays(7 - currentDayOfWeek);
+  private boolean migrateLegacyItemsBatch(String userId, Key userStatsKey) {
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      Entity userStats;
+      try {
+        userStats = datastore.get(transaction, userStatsKey);
+      } catch (EntityNotFoundException e) {
+        userStatsCache.invalidate(userId);
+        return true;
+      }
+      if (isCurrent(userStats)) {
+        userStatsCache.put(userId, userStats);
+        return true;
+      }
+
+      List<Key> legacyItems =
+          userStats.getProperty("Items") == null
+              ? ImmutableList.of()
+              : (List<Key>) userStats.getProperty("Items");
+      int migrated =
+          userStats.getProperty(MIGRATED_ITEMS) == null
+              ? 0
+              : (int) (long) userStats.getProperty(MIGRATED_ITEMS);
+      int end = Math.min(legacyItems.size(), migrated + batchSize);
+      List<Key> addedItems =
+          statsItems.findNew(transaction, userStatsKey, legacyItems.subList(migrated, end));
+      Map<Key, Entity> itemsByKey = datastore.get(addedItems);
+      statsItems.add(transaction, userStatsKey, addedItems, itemsByKey);
+      List<Entity> added = ImmutableList.copyOf(itemsByKey.values());
+      if (migrated == 0) {
+        rollups.rebuild(transaction, userId, added);
+      } else {
+        rollups.add(transaction, userId, added);
+      }
+
+      boolean done = end == legacyItems.size();
+      if (done) {
+        userStats.removeProperty("Items");
+        userStats.removeProperty(MIGRATED_ITEMS);
+        userStats.setProperty(STATS_CURRENT, true);
+      } else {
+        userStats.setUnindexedProperty(MIGRATED_ITEMS, (long) end);
+      }
+      datastore.put(transaction, userStats);
+      transaction.commit();
+      userStatsCache.put(userId, userStats);
+      return done;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
   }
 
   /**
@@ -6,14 +6,20 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.edith.services.NameTokens;
+import com.google.edith.services.UserItemIndex;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -21,7 +27,8 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * Retrieves information from webpage and returns User information in JSON format or updates user
- * information.
+ * information. GET returns one page of the user's items; pass its nextCursor as the cursor
+ * parameter to get the page after it.
  */
 @WebServlet("/user-stats-servlet")
 public class UserStatsServlet extends HttpServlet {
@@ -29,27 +36,43 @@ public class UserStatsServlet extends HttpServlet {
   private final DatastoreService datastore;
   private final UserInsightsInterface userInsights;
   private final UserService userService;
-  private final String userId;
+  private final UserItemIndex itemIndex;
 
   public UserStatsServlet() {
     this.datastore = DatastoreServiceFactory.getDatastoreService();
     this.userInsights = new UserInsightsService();
     this.userService = UserServiceFactory.getUserService();
-    this.userId = userService.getCurrentUser().getUserId();
+    this.itemIndex = UserItemIndex.getInstance();
   }
 
   public UserStatsServlet(
       DatastoreService datastore, UserInsightsInterface userInsights, UserService userService) {
+    this(datastore, userInsights, userService, UserItemIndex.getInstance());
+  }
+
+  public UserStatsServlet(
+      DatastoreService datastore,
+      UserInsightsInterface userInsights,
+      UserService userService,
+      UserItemIndex itemIndex) {
     this.datastore = datastore;
     this.userInsights = userInsights;
     this.userService = userService;
-    this.userId = "userId";
+    this.itemIndex = itemIndex;
   }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String userId = userService.getCurrentUser().getUserId();
+    String json;
+    try {
+      json = userInsights.createJson(userId, request.getParameter("cursor"));
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+      return;
+    }
     response.setContentType("text/json");
-    response.getWriter().println(userInsights.createJson(userId));
+    response.getWriter().println(json);
   }
 
   @Override
@@ -64,12 +87,15 @@ public class UserStatsServlet extends HttpServlet {
       e.printStackTrace(System.out);
     }
 
+    String userId = userService.getCurrentUser().getUserId();
     String receiptData = stringBuilder.toString();
     JsonObject json = (JsonObject) JsonParser.parseString(receiptData);
 
     Entity itemEntity = new Entity("Item");
 
-    itemEntity.setProperty("name", json.get("itemName").getAsString());
+    String itemName = json.get("itemName").getAsString();
+    itemEntity.setProperty("name", itemName);
+    itemEntity.setProperty(NameTokens.PROPERTY, NameTokens.forName(itemName));
     itemEntity.setProperty("userId", userId);
     itemEntity.setProperty("category", json.get("itemCategory").getAsString());
     itemEntity.setProperty("price", Double.parseDouble(json.get("itemPrice").getAsString()));
@@ -77,19 +103,35 @@ public class UserStatsServlet extends HttpServlet {
     itemEntity.setProperty("date", json.get("itemDate").getAsString());
 
     datastore.put(itemEntity);
-    Query itemQuery = new Query("Item");
-    List<Key> itemKeys =
-        datastore
-            .prepare(itemQuery)
-            .asList(FetchOptions.Builder.withLimit(Integer.MAX_VALUE))
-            .stream()
-            .map(Entity::getKey)
-            .collect(Collectors.toList());
-    if (!userInsights.retreiveUserStats(userId).isPresent()) {
+    itemIndex.add(itemEntity);
+    if (userInsights.retreiveUserStats(userId).isPresent()) {
+      userInsights.updateUserStats(userId, ImmutableList.of(itemEntity.getKey()));
+    } else {
       userInsights.createUserStats(userId);
+      userInsights.updateUserStats(userId, queryItemKeys(userId, itemEntity.getKey()));
     }
-    userInsights.updateUserStats(userId, itemKeys);
     response.setContentType("text/html");
     response.getWriter().println("Item posted");
   }
+
+  /**
+   * Finds the keys of all items of the user, to build stats that do not exist yet. The query only
+   * reads keys; the key of the item that was just stored is added in case the query does not see it
+   * yet.
+   *
+   * @param newItemKey - key of the item stored by this request.
+   */
+  private List<Key> queryItemKeys(String userId, Key newItemKey) {
+    Query itemQuery =
+        new Query("Item")
+            .setFilter(new FilterPredicate("userId", FilterOperator.EQUAL, userId))
+            .setKeysOnly();
+    Set<Key> itemKeys = new LinkedHashSet<>();
+    for (Entity item :
+        datastore.prepare(itemQuery).asIterable(FetchOptions.Builder.withDefaults())) {
+      itemKeys.add(item.getKey());
+    }
+    itemKeys.add(newItemKey);
+    return ImmutableList.copyOf(itemKeys);
+  }
 }
@@ -2,7 +2,8 @@ package com.google.edith.servlets;
 
 /**
  * A pairing beteween a String {@code date}, a Sunday, and {@code total} which is a trailing total
- * from the last 6 days (Monday - Sunday).
+ * from the last 6 days (Monday - Sunday). Totals of other periods are dated with the last day of
+ * their period instead.
  */
 public final class WeekInfo {
   private String date; // yyyy-mm-dd format
@@ -0,0 +1,92 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableMap;
+import com.google.edith.services.MemcacheReadCache;
+import com.google.edith.servlets.CacheStatsServlet;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class CacheStatsServletTest {
+  private final LocalServiceTestHelper testHelper =
+      new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+  private final UserService userService = mock(UserService.class);
+  private final HttpServletRequest request = mock(HttpServletRequest.class);
+  private final HttpServletResponse response = mock(HttpServletResponse.class);
+  private MemcacheReadCache cache;
+  private CacheStatsServlet servlet;
+
+  @Before
+  public void setUp() {
+    testHelper.setUp();
+    cache =
+        new MemcacheReadCache(
+            MemcacheServiceFactory.getMemcacheService("test"), Expiration.byDeltaSeconds(60));
+    servlet = new CacheStatsServlet(() -> ImmutableMap.of("test", cache), userService);
+  }
+
+  @After
+  public void tearDown() {
+    testHelper.tearDown();
+  }
+
+  @Test
+  public void doGet_admin_respondsWithHitsAndMisses() throws IOException {
+    when(userService.isUserLoggedIn()).thenReturn(true);
+    when(userService.isUserAdmin()).thenReturn(true);
+    StringWriter body = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(body));
+    cache.get("key", () -> "value");
+    cache.get("key", () -> "value");
+
+    servlet.doGet(request, response);
+
+    JsonObject stats =
+        JsonParser.parseString(body.toString()).getAsJsonObject().getAsJsonObject("test");
+    assertEquals(1, stats.get("hits").getAsLong());
+    assertEquals(1, stats.get("misses").getAsLong());
+    assertEquals(0.5, stats.get("hitRatio").getAsDouble(), 1e-9);
+  }
+
+  @Test
+  public void doGet_notAdmin_isForbidden() throws IOException {
+    when(userService.isUserLoggedIn()).thenReturn(true);
+
+    servlet.doGet(request, response);
+
+    verify(response)
+        .sendError(HttpServletResponse.SC_FORBIDDEN, "Only admins can read cache stats");
+  }
+}
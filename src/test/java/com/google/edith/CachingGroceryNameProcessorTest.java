@@ -0,0 +1,245 @@
+package com.google.edith;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.common.base.Splitter;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.edith.GroceryNameProcessor.LanguageServiceClientProvider;
+import com.google.edith.GroceryNameProcessor.LanguageServiceClientWrapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CachingGroceryNameProcessorTest {
+  private AtomicInteger calls;
+  private FakeTicker ticker;
+  private LanguageServiceClientProvider provider;
+
+  class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long time, TimeUnit unit) {
+      nanos += unit.toNanos(time);
+    }
+  }
+
+  class FakeLanguageServiceCloser implements LanguageServiceClientWrapper {
+    private final boolean fallback;
+
+    FakeLanguageServiceCloser() {
+      this(false);
+    }
+
+    FakeLanguageServiceCloser(boolean fallback) {
+      this.fallback = fallback;
+    }
+
+    /** Returns each sentence of the document as a common entity. */
+    public AnalyzeEntitiesResponse analyzeEntities(AnalyzeEntitiesRequest request) {
+      calls.incrementAndGet();
+      AnalyzeEntitiesResponse.Builder response = AnalyzeEntitiesResponse.newBuilder();
+      int offset = 0;
+      for (String text : Splitter.on(".\n").split(request.getDocument().getContent())) {
+        EntityMention mention =
+            EntityMention.newBuilder()
+                .setType(EntityMention.Type.COMMON)
+                .setText(TextSpan.newBuilder().setBeginOffset(offset))
+                .build();
+        response.addEntities(Entity.newBuilder().setName(text).addMentions(mention));
+        offset += text.length() + 2;
+      }
+      return response.build();
+    }
+
+    @Override
+    public boolean answeredByFallback() {
+      return fallback;
+    }
+
+    public void close() {}
+  }
+
+  @Before
+  public void setUp() {
+    calls = new AtomicInteger();
+    ticker = new FakeTicker();
+    provider = () -> new FakeLanguageServiceCloser();
+  }
+
+  @Test
+  public void process_repeatedName_callsApiOnce() throws Exception {
+    CachingGroceryNameProcessor processor = createProcessor(10);
+
+    Assert.assertEquals("bananas", processor.process("BANANAS"));
+    Assert.assertEquals("bananas", processor.process("bananas"));
+    Assert.assertEquals(1, calls.get());
+    Assert.assertEquals(1, processor.stats().hitCount());
+    Assert.assertEquals(1, processor.stats().missCount());
+  }
+
+  @Test
+  public void process_afterExpiry_callsApiAgain() throws Exception {
+    CachingGroceryNameProcessor processor = createProcessor(10);
+
+    processor.process("milk");
+    ticker.advance(2, TimeUnit.HOURS);
+    processor.process("milk");
+
+    Assert.assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void process_moreNamesThanMaximumSize_evictsEntries() throws Exception {
+    CachingGroceryNameProcessor processor = createProcessor(1);
+
+    processor.process("milk");
+    processor.process("eggs");
+
+    Assert.assertEquals(1, processor.stats().evictionCount());
+  }
+
+  @Test
+  public void process_failedCall_isNotCached() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    CachingGroceryNameProcessor processor =
+        new CachingGroceryNameProcessor(
+            () -> {
+              attempts.incrementAndGet();
+              throw new IOException("unreachable");
+            },
+            10,
+            60,
+            1,
+            TimeUnit.MINUTES,
+            ticker);
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        processor.process("milk");
+        Assert.fail();
+      } catch (IOException e) {
+        Assert.assertEquals("unreachable", e.getMessage());
+      }
+    }
+    Assert.assertEquals(2, attempts.get());
+    Assert.assertEquals(0, processor.stats().hitCount());
+  }
+
+  @Test
+  public void processAll_someNamesCached_sendsOnlyMissingNames() throws Exception {
+    CachingGroceryNameProcessor processor = createProcessor(10);
+    processor.process("bananas");
+
+    Assert.assertEquals(
+        ImmutableList.of("milk", "bananas", "milk"),
+        processor.processAll(ImmutableList.of("MILK", "Bananas", "milk")));
+    Assert.assertEquals(2, calls.get());
+    Assert.assertEquals("milk", processor.process("milk"));
+    Assert.assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void process_fallbackName_expiresSoonerThanApiName() throws Exception {
+    CachingGroceryNameProcessor processor =
+        new CachingGroceryNameProcessor(
+            () -> new FakeLanguageServiceCloser(true), 10, 60, 1, TimeUnit.MINUTES, ticker);
+
+    processor.process("milk");
+    processor.process("milk");
+    Assert.assertEquals(1, calls.get());
+
+    ticker.advance(2, TimeUnit.MINUTES);
+    processor.process("milk");
+    Assert.assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void processAll_apiRecovered_replacesFallbackName() throws Exception {
+    AtomicInteger fallbackCalls = new AtomicInteger(1);
+    CachingGroceryNameProcessor processor =
+        new CachingGroceryNameProcessor(
+            () -> new FakeLanguageServiceCloser(fallbackCalls.getAndDecrement() > 0),
+            10,
+            60,
+            1,
+            TimeUnit.MINUTES,
+            ticker);
+
+    processor.processAll(ImmutableList.of("milk"));
+    ticker.advance(2, TimeUnit.MINUTES);
+    processor.processAll(ImmutableList.of("milk"));
+    ticker.advance(30, TimeUnit.MINUTES);
+    processor.processAll(ImmutableList.of("milk"));
+
+    Assert.assertEquals(2, calls.get());
+    Assert.assertEquals(1, processor.stats().hitCount());
+  }
+
+  // A request for a name another request is loading waits for that load instead of calling the API.
+  @Test
+  public void processAll_nameBeingLoaded_callsApiOnce() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    provider =
+        () ->
+            new FakeLanguageServiceCloser() {
+              @Override
+              public AnalyzeEntitiesResponse analyzeEntities(AnalyzeEntitiesRequest request) {
+                loading.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+                return super.analyzeEntities(request);
+              }
+            };
+    CachingGroceryNameProcessor processor = createProcessor(10);
+    List<ImmutableList<String>> results = Collections.synchronizedList(new ArrayList<>());
+    Thread first = new Thread(() -> results.add(processUnchecked(processor, "milk")));
+    Thread second = new Thread(() -> results.add(processUnchecked(processor, "MILK")));
+
+    first.start();
+    loading.await();
+    second.start();
+    while (second.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    first.join();
+    second.join();
+
+    Assert.assertEquals(1, calls.get());
+    Assert.assertEquals(
+        ImmutableList.of(ImmutableList.of("milk"), ImmutableList.of("milk")), results);
+  }
+
+  private static ImmutableList<String> processUnchecked(
+      CachingGroceryNameProcessor processor, String text) {
+    try {
+      return processor.processAll(ImmutableList.of(text));
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private CachingGroceryNameProcessor createProcessor(long maximumSize) {
+    return new CachingGroceryNameProcessor(provider, maximumSize, 60, 1, TimeUnit.MINUTES, ticker);
+  }
+}
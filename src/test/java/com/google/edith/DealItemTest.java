@@ -87,6 +87,16 @@ public class DealItemTest {
     Assert.assertEquals(0, dealItem.getUnitPrice(), .01);
   }
 
+  @Test
+  public void getUnitPrice_priceChangedAfterWeight_updatesUnitPrice() {
+    dealItem.setWeight("3 oz");
+    dealItem.setPrice("$15.0");
+    Assert.assertEquals(5.0, dealItem.getUnitPrice(), .01);
+
+    dealItem.setPrice("$6.0");
+    Assert.assertEquals(2.0, dealItem.getUnitPrice(), .01);
+  }
+
   @Test
   public void setExpiration_stringWithShelfLifeData_setsExpirationCorrectly() {
     dealItem.setExpirationTime("1.0 2.0 Weeks");
@@ -1,20 +1,36 @@
 package com.google.edith;
 
+import static org.mockito.Mockito.anyList;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
 import com.google.edith.servlets.Item;
 import com.google.edith.servlets.Receipt;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import java.io.BufferedReader;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.Assert;
@@ -63,7 +79,7 @@ public class DealsServletTest {
     JsonParser parser = new JsonParser();
     JsonObject inputJson = parser.parse(json).getAsJsonObject();
 
-    when(reader.process(anyString())).thenReturn("apple juice");
+    when(reader.processAll(anyList())).thenReturn(ImmutableList.of("apple juice"));
     when(request.getReader())
         .thenReturn(new BufferedReader(new StringReader(inputJson.toString())));
 
@@ -110,7 +126,7 @@ public class DealsServletTest {
     JsonParser parser = new JsonParser();
     JsonObject inputJson = parser.parse(json).getAsJsonObject();
 
-    when(reader.process(anyString())).thenReturn("");
+    when(reader.processAll(anyList())).thenReturn(ImmutableList.of(""));
     when(request.getReader())
         .thenReturn(new BufferedReader(new StringReader(inputJson.toString())));
 
@@ -124,4 +140,181 @@ public class DealsServletTest {
     writer.flush();
     Assert.assertTrue(stringWriter.toString().contains("NO_STORE"));
   }
+
+  @Test
+  public void doPost_slowItem_respondsInInputOrderWithNoDealForTimedOutItem() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = slowFirstLookup(2, release, new CountDownLatch(1));
+
+    JsonArray deals;
+    try {
+      deals = postItems(true, executor, 200, "bread crumbs", "apple juice");
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+
+    Assert.assertEquals(2, deals.size());
+    Assert.assertEquals("NO_STORE", storeName(deals, 0));
+    Assert.assertEquals("Kroger", storeName(deals, 1));
+  }
+
+  @Test
+  public void doPost_timedOutItem_respondsWithShelfLifeAndInterruptsLookup() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    ExecutorService executor = slowFirstLookup(1, new CountDownLatch(1), interrupted);
+
+    JsonArray deals;
+    try {
+      deals = postItems(true, executor, 200, "tortillas");
+      Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+
+    Assert.assertEquals(1, deals.size());
+    Assert.assertEquals("NO_STORE", storeName(deals, 0));
+    Assert.assertEquals(expirationOfNoDeal("tortillas"), expirationTime(deals, 0));
+  }
+
+  @Test
+  public void doPost_processesNamesOncePerReceipt() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+      postItems(true, executor, 5000, "apple juice", "tortillas", "no deal");
+    } finally {
+      executor.shutdown();
+    }
+
+    verify(reader, times(1)).processAll(anyList());
+    verify(reader, never()).process(anyString());
+  }
+
+  @Test
+  public void doPost_executorRejectsLookups_respondsWithNoDealInInputOrder() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor =
+        new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+
+    JsonArray deals;
+    try {
+      // Keeps the only thread busy so every lookup of the request is rejected.
+      executor.execute(
+          () -> {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          });
+      deals = postItems(true, executor, 5000, "tortillas", "apple juice");
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+
+    Assert.assertEquals(2, deals.size());
+    Assert.assertEquals("NO_STORE", storeName(deals, 0));
+    Assert.assertEquals(expirationOfNoDeal("tortillas"), expirationTime(deals, 0));
+    Assert.assertEquals("NO_STORE", storeName(deals, 1));
+    Assert.assertEquals(expirationOfNoDeal("apple juice"), expirationTime(deals, 1));
+  }
+
+  @Test
+  public void doPost_sequentialMode_looksUpOnRequestThread() throws Exception {
+    ExecutorService executor = mock(ExecutorService.class);
+
+    JsonArray deals = postItems(false, executor, 5000, "apple juice", "no deal");
+
+    verifyNoInteractions(executor);
+    Assert.assertEquals(2, deals.size());
+    Assert.assertEquals("Kroger", storeName(deals, 0));
+    Assert.assertEquals("NO_STORE", storeName(deals, 1));
+  }
+
+  @Test
+  public void isParallel_knownModes_returnsMode() {
+    Assert.assertTrue(DealsServlet.isParallel("parallel"));
+    Assert.assertFalse(DealsServlet.isParallel("sequential"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void isParallel_unknownMode_throwsIllegalArgumentException() {
+    DealsServlet.isParallel("virtual");
+  }
+
+  /**
+   * Posts items priced at 5.6 each and returns the deals in the response. Names are processed by
+   * the processor of the test, which returns them unchanged.
+   */
+  private JsonArray postItems(
+      boolean parallel, ExecutorService executor, long deadlineMillis, String... itemNames)
+      throws Exception {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    JsonArray items = new JsonArray();
+    for (String itemName : itemNames) {
+      JsonObject item = new JsonObject();
+      item.addProperty("name", itemName);
+      item.addProperty("price", "5.6");
+      items.add(item);
+    }
+    JsonObject receipt = new JsonObject();
+    receipt.add("items", items);
+    when(reader.processAll(anyList())).thenReturn(ImmutableList.copyOf(itemNames));
+    when(request.getReader()).thenReturn(new BufferedReader(new StringReader(receipt.toString())));
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    GroceryDataReader groceryReader =
+        new GroceryDataReader(
+            GroceryPriceIndex.getInstance(), ProductNameMatcher.getInstance(), reader);
+    new DealsServlet(reader, groceryReader, parallel, executor, deadlineMillis)
+        .doPost(request, response);
+
+    writer.flush();
+    return JsonParser.parseString(stringWriter.toString()).getAsJsonArray();
+  }
+
+  /**
+   * Returns a pool whose first lookup waits for release before it runs. The wait happens inside the
+   * lookup, so cancelling the lookup interrupts it, which counts down interrupted.
+   */
+  private static ExecutorService slowFirstLookup(
+      int threads, CountDownLatch release, CountDownLatch interrupted) {
+    AtomicBoolean first = new AtomicBoolean(true);
+    return new ThreadPoolExecutor(
+        threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+      @Override
+      protected <T> RunnableFuture<T> newTaskFor(Callable<T> lookup) {
+        boolean slow = first.getAndSet(false);
+        return super.newTaskFor(
+            () -> {
+              if (slow) {
+                try {
+                  release.await();
+                } catch (InterruptedException e) {
+                  interrupted.countDown();
+                  throw e;
+                }
+              }
+              return lookup.call();
+            });
+      }
+    };
+  }
+
+  private static String expirationOfNoDeal(String itemName) {
+    return DealItem.noDeal(ShelfDataReader.readFile(itemName)).getExpirationTime();
+  }
+
+  private static String storeName(JsonArray deals, int index) {
+    return deals.get(index).getAsJsonObject().get("storeName").getAsString();
+  }
+
+  private static String expirationTime(JsonArray deals, int index) {
+    return deals.get(index).getAsJsonObject().get("expirationTime").getAsString();
+  }
 }
@@ -0,0 +1,153 @@
+package com.google.edith;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.Entity;
+import com.google.common.collect.ImmutableList;
+import com.google.edith.GroceryNameProcessor.LanguageServiceClientWrapper;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FallbackLanguageServiceClientProviderTest {
+  private final OfflineLanguageServiceClient offline =
+      new OfflineLanguageServiceClient(ImmutableList.of("milk"));
+
+  class FakeLanguageServiceCloser implements LanguageServiceClientWrapper {
+    private final RuntimeException failure;
+
+    FakeLanguageServiceCloser(RuntimeException failure) {
+      this.failure = failure;
+    }
+
+    public AnalyzeEntitiesResponse analyzeEntities(AnalyzeEntitiesRequest request) {
+      if (failure != null) {
+        throw failure;
+      }
+      return AnalyzeEntitiesResponse.newBuilder()
+          .addEntities(Entity.newBuilder().setName("remote"))
+          .build();
+    }
+
+    public void close() {}
+  }
+
+  @Test
+  public void get_primaryAvailable_usesPrimary() throws Exception {
+    FallbackLanguageServiceClientProvider provider =
+        new FallbackLanguageServiceClientProvider(
+            () -> new FakeLanguageServiceCloser(null), offline);
+
+    AnalyzeEntitiesResponse response = analyze(provider, "kro milk");
+    Assert.assertEquals("remote", response.getEntities(0).getName());
+  }
+
+  @Test
+  public void get_primaryCannotBeCreated_usesFallback() throws Exception {
+    FallbackLanguageServiceClientProvider provider =
+        new FallbackLanguageServiceClientProvider(
+            () -> {
+              throw new IOException("no credentials");
+            },
+            offline);
+
+    AnalyzeEntitiesResponse response = analyze(provider, "kro milk");
+    Assert.assertEquals("milk", response.getEntities(0).getName());
+  }
+
+  @Test
+  public void get_primaryCallFails_usesFallback() throws Exception {
+    FallbackLanguageServiceClientProvider provider =
+        new FallbackLanguageServiceClientProvider(
+            () -> new FakeLanguageServiceCloser(new IllegalStateException("unavailable")), offline);
+
+    AnalyzeEntitiesResponse response = analyze(provider, "kro milk");
+    Assert.assertEquals("milk", response.getEntities(0).getName());
+  }
+
+  @Test
+  public void get_primaryMissesDeadline_usesFallbackAndInterruptsCall() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    LanguageServiceClientWrapper slowClient =
+        new FakeLanguageServiceCloser(null) {
+          @Override
+          public AnalyzeEntitiesResponse analyzeEntities(AnalyzeEntitiesRequest request) {
+            try {
+              new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+              interrupted.countDown();
+            }
+            return super.analyzeEntities(request);
+          }
+        };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      FallbackLanguageServiceClientProvider provider =
+          new FallbackLanguageServiceClientProvider(() -> slowClient, offline, executor, 50);
+
+      try (LanguageServiceClientWrapper client = provider.get()) {
+        AnalyzeEntitiesResponse response = analyze(client, "kro milk");
+        Assert.assertEquals("milk", response.getEntities(0).getName());
+        Assert.assertTrue(client.answeredByFallback());
+      }
+      Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void answeredByFallback_primaryAnswers_returnsFalse() throws Exception {
+    FallbackLanguageServiceClientProvider provider =
+        new FallbackLanguageServiceClientProvider(
+            () -> new FakeLanguageServiceCloser(null), offline);
+
+    try (LanguageServiceClientWrapper client = provider.get()) {
+      analyze(client, "kro milk");
+      Assert.assertFalse(client.answeredByFallback());
+    }
+  }
+
+  @Test
+  public void answeredByFallback_primaryCannotBeCreated_returnsTrue() throws Exception {
+    FallbackLanguageServiceClientProvider provider =
+        new FallbackLanguageServiceClientProvider(
+            () -> {
+              throw new IOException("no credentials");
+            },
+            offline);
+
+    try (LanguageServiceClientWrapper client = provider.get()) {
+      analyze(client, "kro milk");
+      Assert.assertTrue(client.answeredByFallback());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void createClientProvider_unknownMode_throwsException() {
+    CachingGroceryNameProcessor.createClientProvider("smoke signals");
+  }
+
+  private AnalyzeEntitiesResponse analyze(
+      FallbackLanguageServiceClientProvider provider, String text) throws Exception {
+    try (LanguageServiceClientWrapper client = provider.get()) {
+      return analyze(client, text);
+    }
+  }
+
+  private static AnalyzeEntitiesResponse analyze(LanguageServiceClientWrapper client, String text) {
+    return client.analyzeEntities(
+        AnalyzeEntitiesRequest.newBuilder()
+            .setDocument(Document.newBuilder().setContent(text).build())
+            .build());
+  }
+}
@@ -1,5 +1,9 @@
 package com.google.edith;
 
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 import java.io.IOException;
 import org.junit.Assert;
 import org.junit.Before;
@@ -71,4 +75,16 @@ public class GroceryDataReaderTest {
     cheapestItem = groceryReader.readFile("Apple Juice", "0.5");
     Assert.assertEquals("NO_STORE", cheapestItem.getStore());
   }
+
+  @Test
+  public void readFile_itemNameNotExact_usesClosestProduct() throws Exception {
+    GroceryNameProcessor processor = mock(GroceryNameProcessor.class);
+    when(processor.process(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+    groceryReader =
+        new GroceryDataReader(
+            GroceryPriceIndex.getInstance(), ProductNameMatcher.getInstance(), processor);
+
+    cheapestItem = groceryReader.readFile("Apple Juice 64oz", "5.6");
+    Assert.assertEquals("Kroger", cheapestItem.getStore());
+  }
 }
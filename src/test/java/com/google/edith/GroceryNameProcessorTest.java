@@ -4,9 +4,13 @@ import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
 import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
 import com.google.cloud.language.v1.Entity;
 import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.TextSpan;
 import com.google.common.collect.ImmutableList;
 import com.google.edith.GroceryNameProcessor.LanguageServiceClientWrapper;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -53,4 +57,53 @@ public class GroceryNameProcessorTest {
     result = processor.process("Coleman Farms chicken breast");
     Assert.assertEquals(result, "chicken breast");
   }
+
+  @Test
+  public void processAll_packedDocument_mapsMentionsBackToEachName() throws Exception {
+    // Packed document is "kro milk 2%.\ncoleman farms chicken breast.\nxyz".
+    Entity milk = Entity.newBuilder().setName("milk").addMentions(commonMention(4)).build();
+    Entity farms =
+        Entity.newBuilder()
+            .setName("Coleman Farms")
+            .addMentions(
+                EntityMention.newBuilder()
+                    .setType(EntityMention.Type.PROPER)
+                    .setText(TextSpan.newBuilder().setBeginOffset(14)))
+            .build();
+    Entity chicken =
+        Entity.newBuilder().setName("chicken breast").addMentions(commonMention(28)).build();
+    AnalyzeEntitiesResponse entityResponse =
+        AnalyzeEntitiesResponse.newBuilder()
+            .addAllEntities(ImmutableList.of(milk, farms, chicken))
+            .build();
+    GroceryNameProcessor processor =
+        new GroceryNameProcessor(() -> new FakeLanguageServiceCloser(entityResponse));
+
+    Assert.assertEquals(
+        ImmutableList.of("milk", "chicken breast", ""),
+        processor.processAll(
+            ImmutableList.of("KRO MILK 2%", "Coleman Farms chicken breast", "XYZ")));
+  }
+
+  @Test
+  public void processAll_moreNamesThanBatchSize_sendsOneRequestPerBatch() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    GroceryNameProcessor processor =
+        new GroceryNameProcessor(
+            () -> {
+              requests.incrementAndGet();
+              return new FakeLanguageServiceCloser(AnalyzeEntitiesResponse.getDefaultInstance());
+            });
+
+    List<String> names = Collections.nCopies(GroceryNameProcessor.MAX_BATCH_SIZE + 1, "milk");
+    Assert.assertEquals(names.size(), processor.processAll(names).size());
+    Assert.assertEquals(2, requests.get());
+  }
+
+  private static EntityMention commonMention(int beginOffset) {
+    return EntityMention.newBuilder()
+        .setType(EntityMention.Type.COMMON)
+        .setText(TextSpan.newBuilder().setBeginOffset(beginOffset))
+        .build();
+  }
 }
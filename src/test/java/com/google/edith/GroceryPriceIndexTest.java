@@ -0,0 +1,56 @@
+package com.google.edith;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GroceryPriceIndexTest {
+  private static final String CSV =
+      "milk,$1.00,1 gal,a,$2.00,1 gal,b,$3.00,1 gal,c,$4.00,1 gal,d,$5.00,1 gal,e\n"
+          + "eggs,$1.00,dozen,a,N/A,,,?,,,$2.00,dozen,d,$3.00,dozen,e\n"
+          + "eggs,$9.00,dozen,a,N/A,,,?,,,$2.00,dozen,d,$3.00,dozen,e\n";
+
+  @Test
+  public void getInstance_loadsGroceryDataFile() {
+    Assert.assertFalse(GroceryPriceIndex.getInstance().get("apple juice").isEmpty());
+  }
+
+  @Test
+  public void getInstance_returnsSharedIndex() {
+    Assert.assertSame(GroceryPriceIndex.getInstance(), GroceryPriceIndex.getInstance());
+  }
+
+  @Test
+  public void get_productInFile_returnsItemForEveryStore() throws IOException {
+    GroceryPriceIndex index = GroceryPriceIndex.load(new StringReader(CSV));
+    ImmutableList<DealItem> dealItems = index.get("milk");
+
+    Assert.assertEquals(5, dealItems.size());
+    Assert.assertEquals("Aldi", dealItems.get(0).getStore());
+    Assert.assertEquals("Walmart", dealItems.get(4).getStore());
+    Assert.assertEquals(4.0, dealItems.get(3).getPrice(), .01);
+  }
+
+  @Test
+  public void get_productNotInFile_returnsEmptyList() throws IOException {
+    GroceryPriceIndex index = GroceryPriceIndex.load(new StringReader(CSV));
+    Assert.assertTrue(index.get("bread").isEmpty());
+  }
+
+  @Test
+  public void load_duplicateProductRows_keepsLastRow() throws IOException {
+    GroceryPriceIndex index = GroceryPriceIndex.load(new StringReader(CSV));
+    Assert.assertEquals(2, index.size());
+    Assert.assertEquals(9.0, index.get("eggs").get(0).getPrice(), .01);
+  }
+
+  @Test
+  public void normalize_mixedCaseName_returnsLowercaseKey() {
+    Assert.assertEquals("apple juice", GroceryPriceIndex.normalize(" Apple Juice "));
+  }
+}
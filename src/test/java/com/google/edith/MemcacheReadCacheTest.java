@@ -0,0 +1,150 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.edith.services.MemcacheReadCache;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class MemcacheReadCacheTest {
+  private final LocalServiceTestHelper testHelper =
+      new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private MemcacheReadCache cache;
+
+  @Before
+  public void setUp() {
+    testHelper.setUp();
+    cache =
+        new MemcacheReadCache(
+            MemcacheServiceFactory.getMemcacheService("test"), Expiration.byDeltaSeconds(60));
+  }
+
+  @After
+  public void tearDown() {
+    testHelper.tearDown();
+  }
+
+  // Loads a value once and answers later lookups from Memcache.
+  @Test
+  public void get_repeatedLookups_loadsOnce() {
+    assertEquals("value", cache.get("key", this::load));
+    assertEquals("value", cache.get("key", this::load));
+    assertEquals("value", cache.get("key", this::load));
+
+    assertEquals(1, loads.get());
+    assertEquals(2, cache.hitCount());
+    assertEquals(1, cache.missCount());
+    assertEquals(2.0 / 3, cache.hitRatio(), 1e-9);
+  }
+
+  // Values that do not exist are cached as well.
+  @Test
+  public void getOptional_missingValue_loadsOnce() {
+    assertFalse(cache.getOptional("key", this::loadNothing).isPresent());
+    assertFalse(cache.getOptional("key", this::loadNothing).isPresent());
+
+    assertEquals(1, loads.get());
+  }
+
+  // A value loaded before an invalidation that happened during the load is not cached.
+  @Test
+  public void get_invalidatedWhileLoading_doesNotCacheLoadedValue() {
+    cache.get(
+        "key",
+        () -> {
+          String staleValue = load();
+          cache.invalidate("key");
+          return staleValue;
+        });
+
+    assertEquals("value", cache.get("key", this::load));
+
+    assertEquals(2, loads.get());
+    assertEquals(0, cache.hitCount());
+  }
+
+  // Values written after an invalidation are cached.
+  @Test
+  public void put_afterInvalidate_cachesValue() {
+    cache.invalidate("key");
+
+    cache.put("key", "written");
+
+    assertEquals("written", cache.get("key", this::load));
+    assertEquals(0, loads.get());
+  }
+
+  // Invalidated values are loaded again.
+  @Test
+  public void invalidate_loadsAgain() {
+    cache.get("key", this::load);
+
+    cache.invalidate("key");
+
+    assertEquals("value", cache.get("key", this::load));
+    assertEquals(2, loads.get());
+  }
+
+  // Written values replace the cached ones, including a cached missing value.
+  @Test
+  public void put_replacesCachedValue() {
+    cache.getOptional("key", this::loadNothing);
+
+    cache.put("key", "written");
+
+    assertEquals(Optional.of("written"), cache.getOptional("key", this::loadNothing));
+    assertEquals(1, loads.get());
+  }
+
+  // Caches of different namespaces do not share keys.
+  @Test
+  public void get_otherNamespace_loadsSeparately() {
+    MemcacheReadCache other =
+        new MemcacheReadCache(
+            MemcacheServiceFactory.getMemcacheService("other"), Expiration.byDeltaSeconds(60));
+
+    cache.get("key", this::load);
+    other.get("key", this::load);
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void hitRatio_noLookups_isZero() {
+    assertEquals(0, cache.hitRatio(), 0);
+  }
+
+  private String load() {
+    loads.incrementAndGet();
+    return "value";
+  }
+
+  private Optional<String> loadNothing() {
+    loads.incrementAndGet();
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,166 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.edith.services.NameTokens;
+import com.google.edith.services.NameTokensBackfill;
+import com.google.edith.services.SearchQueryPlanner;
+import com.google.edith.services.UserItemIndex;
+import com.google.edith.servlets.NameTokensBackfillServlet;
+import com.google.edith.servlets.SearchCriteria;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class NameTokensBackfillTest {
+  private final LocalServiceTestHelper testHelper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private UserItemIndex itemIndex;
+  private NameTokensBackfill backfill;
+
+  @Before
+  public void setUp() {
+    testHelper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    itemIndex = new UserItemIndex(datastore);
+    backfill = new NameTokensBackfill(datastore, itemIndex);
+  }
+
+  @After
+  public void tearDown() {
+    testHelper.tearDown();
+  }
+
+  @Test
+  public void backfill_legacyItems_makesThemSearchableByName() {
+    storeLegacyItem("user1", "Green Apple");
+    storeLegacyItem("user1", "Milk");
+    Query query = SearchQueryPlanner.plan(criteria("apple"), "user1");
+    assertEquals(0, datastore.prepare(query).countEntities(FetchOptions.Builder.withDefaults()));
+
+    NameTokensBackfill.Page page = backfill.backfill("Item", null, 10);
+
+    assertEquals(2, page.updated());
+    assertFalse(page.nextCursor().isPresent());
+    assertEquals(1, datastore.prepare(query).countEntities(FetchOptions.Builder.withDefaults()));
+    assertEquals(1, itemIndex.run(query).get().size());
+  }
+
+  @Test
+  public void backfill_pages_resumesFromCursorAndSkipsEntitiesWithTokens()
+      throws EntityNotFoundException {
+    Entity current = storeLegacyItem("user1", "Bread");
+    current.setProperty(NameTokens.PROPERTY, NameTokens.forName("Bread"));
+    datastore.put(current);
+    storeLegacyItem("user1", "Milk");
+    storeLegacyItem("user1", "Eggs");
+
+    NameTokensBackfill.Page first = backfill.backfill("Item", null, 2);
+    NameTokensBackfill.Page second = backfill.backfill("Item", first.nextCursor().get(), 2);
+
+    assertEquals(2, first.updated() + second.updated());
+    assertFalse(second.nextCursor().isPresent());
+    for (Entity item : datastore.prepare(new Query("Item")).asIterable()) {
+      assertEquals(
+          NameTokens.forName((String) item.getProperty("name")),
+          item.getProperty(NameTokens.PROPERTY));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void backfill_unknownKind_throwsIllegalArgumentException() {
+    backfill.backfill("UserInfo", null, 10);
+  }
+
+  @Test
+  public void doPost_admin_backfillsAllPages() throws Exception {
+    storeLegacyItem("user1", "Milk");
+    UserService userService = mock(UserService.class);
+    when(userService.isUserLoggedIn()).thenReturn(true);
+    when(userService.isUserAdmin()).thenReturn(true);
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getParameter("kind")).thenReturn("Item");
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+
+    new NameTokensBackfillServlet(backfill, userService).doPost(request, response);
+
+    JsonObject result = JsonParser.parseString(stringWriter.toString()).getAsJsonObject();
+    assertEquals(1, result.get("updated").getAsInt());
+    assertFalse(result.has("cursor"));
+  }
+
+  @Test
+  public void doPost_notAdmin_isForbidden() throws Exception {
+    Entity item = storeLegacyItem("user1", "Milk");
+    UserService userService = mock(UserService.class);
+    when(userService.isUserLoggedIn()).thenReturn(true);
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getParameter("kind")).thenReturn("Item");
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    new NameTokensBackfillServlet(backfill, userService).doPost(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_FORBIDDEN, "Only admins can run backfills");
+    verify(response, never()).getWriter();
+    assertFalse(datastore.get(item.getKey()).hasProperty(NameTokens.PROPERTY));
+  }
+
+  // Stores an item the way it was stored before name tokens existed.
+  private Entity storeLegacyItem(String userId, String name) {
+    Entity item = new Entity("Item");
+    item.setProperty("userId", userId);
+    item.setProperty("name", name);
+    item.setProperty("price", 1.0);
+    item.setProperty("date", "date1");
+    datastore.put(item);
+    return item;
+  }
+
+  private static SearchCriteria criteria(String name) {
+    return SearchCriteria.builder()
+        .setKind("Item")
+        .setName(name)
+        .setDate("")
+        .setSortOrder("")
+        .setSortOnProperty("")
+        .build();
+  }
+}
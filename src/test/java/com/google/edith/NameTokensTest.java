@@ -0,0 +1,53 @@
+package com.google.edith;
+
+import com.google.common.collect.ImmutableList;
+import com.google.edith.services.NameTokens;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class NameTokensTest {
+
+  @Test
+  public void forName_singleWord_returnsEveryPrefix() {
+    Assert.assertEquals(ImmutableList.of("m", "mi", "mil", "milk"), NameTokens.forName("Milk"));
+  }
+
+  @Test
+  public void forName_manyWords_returnsPrefixesOfEveryWordRun() {
+    ImmutableList<String> tokens = NameTokens.forName("Kroger 2% Milk");
+
+    Assert.assertTrue(tokens.contains("kroger 2 milk"));
+    Assert.assertTrue(tokens.contains("kroger 2"));
+    Assert.assertTrue(tokens.contains("2 mi"));
+    Assert.assertTrue(tokens.contains("milk"));
+    Assert.assertFalse(tokens.contains("ilk"));
+    Assert.assertFalse(tokens.contains("kroger "));
+  }
+
+  @Test
+  public void forName_longName_capsPrefixLength() {
+    for (String token : NameTokens.forName("Organic Unsweetened Vanilla Almond Milk")) {
+      Assert.assertTrue(token, token.length() <= 20);
+    }
+  }
+
+  @Test
+  public void forName_onlySeparators_returnsEmptyList() {
+    Assert.assertTrue(NameTokens.forName(" %% ").isEmpty());
+  }
+
+  @Test
+  public void forSearch_normalizesLikeName() {
+    Assert.assertEquals("kroger 2 milk", NameTokens.forSearch("  KROGER 2% milk"));
+  }
+
+  @Test
+  public void forSearch_longText_matchesLongestStoredPrefix() {
+    String text = "Organic Unsweetened Vanilla Almond Milk";
+
+    Assert.assertTrue(NameTokens.forName(text).contains(NameTokens.forSearch(text)));
+  }
+}
@@ -0,0 +1,60 @@
+package com.google.edith;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class OfflineLanguageServiceClientTest {
+  private GroceryNameProcessor processor;
+
+  @Before
+  public void setUp() {
+    OfflineLanguageServiceClient client =
+        new OfflineLanguageServiceClient(
+            ImmutableList.of("milk", "chicken breast", "bananas", "tomatoes", "Buttermilk"));
+    processor = new GroceryNameProcessor(() -> client);
+  }
+
+  @Test
+  public void process_brandBeforeProduct_returnsProduct() throws Exception {
+    Assert.assertEquals("milk", processor.process("KRO MILK 2%"));
+  }
+
+  @Test
+  public void process_abbreviatedName_expandsAbbreviations() throws Exception {
+    Assert.assertEquals("chicken breast", processor.process("BNLS CHKN BRST"));
+  }
+
+  @Test
+  public void process_singularName_matchesPluralProduct() throws Exception {
+    Assert.assertEquals("bananas", processor.process("ORG BANANA"));
+  }
+
+  @Test
+  public void process_longerProductName_preferredOverShorter() throws Exception {
+    Assert.assertEquals("Buttermilk", processor.process("buttermilk"));
+  }
+
+  @Test
+  public void process_unknownName_returnsEmptyString() throws Exception {
+    Assert.assertEquals("", processor.process("PAPER TOWELS"));
+  }
+
+  @Test
+  public void processAll_manyNames_mapsProductToEachName() throws Exception {
+    Assert.assertEquals(
+        ImmutableList.of("milk", "", "tomatoes"),
+        processor.processAll(ImmutableList.of("MLK WHL", "PAPER TOWELS", "ROMA TOM")));
+  }
+
+  @Test
+  public void getInstance_usesGroceryDataNames() throws Exception {
+    GroceryNameProcessor processor =
+        new GroceryNameProcessor(() -> OfflineLanguageServiceClient.getInstance());
+    Assert.assertEquals("apple juice", processor.process("KRO APPLE JUICE 64OZ"));
+  }
+}
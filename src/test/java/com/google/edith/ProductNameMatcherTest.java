@@ -0,0 +1,72 @@
+package com.google.edith;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Optional;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ProductNameMatcherTest {
+  private ProductNameMatcher matcher;
+
+  @Before
+  public void setUp() {
+    matcher =
+        new ProductNameMatcher(
+            ImmutableList.of("apple", "apple juice", "apple sauce", "milk", "coconut milk"),
+            ProductNameMatcher.DEFAULT_THRESHOLD);
+  }
+
+  @Test
+  public void match_exactName_scoresOne() {
+    ProductNameMatcher.Match match = matcher.match("Apple Juice").get();
+
+    Assert.assertEquals("apple juice", match.name());
+    Assert.assertEquals(1.0, match.score(), 0.0001);
+  }
+
+  @Test
+  public void match_pluralName_findsSingular() {
+    Assert.assertEquals("apple", matcher.match("apples").get().name());
+  }
+
+  @Test
+  public void match_nameWithSize_findsProduct() {
+    ProductNameMatcher.Match match = matcher.match("apple juice 64oz").get();
+
+    Assert.assertEquals("apple juice", match.name());
+    Assert.assertTrue(match.score() < 1.0);
+  }
+
+  @Test
+  public void match_unrelatedName_returnsEmpty() {
+    Assert.assertEquals(Optional.empty(), matcher.match("tortillas"));
+  }
+
+  @Test
+  public void match_emptyQuery_returnsEmpty() {
+    Assert.assertEquals(Optional.empty(), matcher.match(" - "));
+  }
+
+  @Test
+  public void match_scoreBelowThreshold_returnsEmpty() {
+    ProductNameMatcher strictMatcher = new ProductNameMatcher(ImmutableList.of("apple"), 0.9);
+
+    Assert.assertEquals(Optional.empty(), strictMatcher.match("apples"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_thresholdOutOfRange_throwsException() {
+    new ProductNameMatcher(ImmutableList.of("apple"), 1.5);
+  }
+
+  @Test
+  public void trigrams_paddedWithWordBoundaries() {
+    Assert.assertEquals(
+        ImmutableSet.of(" mi", "mil", "ilk", "lk "), ProductNameMatcher.trigrams("MILK!"));
+  }
+}
@@ -9,6 +9,8 @@ import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestC
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.edith.services.MemcacheReadCache;
+import com.google.edith.services.UserInfoRepository;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonParser;
 import java.util.Map;
@@ -24,12 +26,18 @@ public class QueryItemsTest {
   private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
   private final QueryItems query = new QueryItems(datastore, userService);
 
+  private Entity userInfo;
+  private Entity receipt3;
+
   private Map<String, Object> map =
       ImmutableMap.of("com.google.appengine.api.users.UserService.user_id_key", "12345");
 
   private LocalServiceTestHelper testHelper =
       new LocalServiceTestHelper(
-              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+              // Queries without an ancestor miss every write, as they may in production.
+              new LocalDatastoreServiceTestConfig()
+                  .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+              new LocalUserServiceTestConfig())
           .setEnvAttributes(map)
           .setEnvIsLoggedIn(true)
           .setEnvAuthDomain("gmail")
@@ -74,13 +82,29 @@ public class QueryItemsTest {
     Assert.assertTrue(jsonString.indexOf("Peanut Butter") == -1);
   }
 
+  // A receipt stored after the receipts were cached is read once the cache entry is invalidated.
+  @Test
+  public void findExpiredItems_receiptReplacedAfterRead_displaysItsItems() {
+    query.findExpiredItems();
+    datastore.delete(receipt3.getKey());
+    Entity receipt =
+        createReceiptEntity("12345", "Whole Foods", "2020-07-20", "monday", "url3", 1.5f);
+    createItemEntity(receipt, "12345", "Milk", 1, 1.5f, "dairy", "1.0 Weeks");
+
+    MemcacheReadCache.forNamespace(MemcacheReadCache.RECEIPTS_NAMESPACE).invalidate("12345");
+
+    Assert.assertTrue(query.findExpiredItems().contains("Milk"));
+  }
+
   // Creates and Stores Receipt and Item entities in Datastore.
   private void createAndStoreEntites() {
+    userInfo = UserInfoRepository.create("12345");
+    datastore.put(userInfo);
     Entity receipt1 =
         createReceiptEntity("12345", "Whole Foods", "2020-07-27", "weekend", "url1", 2.5f);
     Entity receipt2 =
         createReceiptEntity("12345", "Whole Foods", "2020-07-23", "sunday", "url2", 3.5f);
-    Entity receipt3 =
+    receipt3 =
         createReceiptEntity("12345", "Whole Foods", "2020-08-01", "sunday", "url2", 3.5f);
     createItemEntity(receipt1, "12345", "Apple Juice", 5, 5.6f, "fruit", "6.0 Days");
     createItemEntity(receipt1, "12345", "Peanut Butter", 6, 4.8f, "protein", "1.0 Weeks");
@@ -91,7 +115,7 @@ public class QueryItemsTest {
   // Creates a Receipt Entity and stores it in Datastore.
   private Entity createReceiptEntity(
       String userId, String storeName, String date, String name, String fileUrl, float price) {
-    Entity receiptEntity = new Entity("Receipt");
+    Entity receiptEntity = new Entity("Receipt", userInfo.getKey());
     receiptEntity.setProperty("userId", userId);
     receiptEntity.setProperty("storeName", storeName);
     receiptEntity.setProperty("date", date);
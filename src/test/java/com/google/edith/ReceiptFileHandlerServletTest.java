@@ -14,6 +14,8 @@
 
 package com.google.edith;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -29,12 +31,17 @@ import com.google.edith.servlets.Item;
 import com.google.edith.servlets.Receipt;
 import com.google.edith.servlets.ReceiptFileHandlerServlet;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Date;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -48,6 +55,9 @@ public final class ReceiptFileHandlerServletTest {
   @Before
   public void setUp() {
     MockitoAnnotations.initMocks(this);
+    HttpSession session = RequestResultStoreTest.fakeSession();
+    when(request.getSession()).thenReturn(session);
+    when(request.getSession(false)).thenReturn(session);
     testHelper.setUp();
     receiptFileHandlerServlet = new ReceiptFileHandlerServlet(receiptFileHandler);
   }
@@ -92,4 +102,34 @@ public final class ReceiptFileHandlerServletTest {
 
     verify(receiptFileHandler, times(1)).createParsedReceipt(returnBlobKey.getKeyString(), "name");
   }
+
+  // The parsed receipt is returned to the browser that uploaded the file only.
+  @Test
+  public void doGet_afterUpload_writesReceiptForTokenOnly() throws IOException {
+    Date creationDate = new Date();
+    FileInfo uploadFile = new FileInfo("blob", creationDate, "receipt", 0L, "hash", "edith");
+    ImmutableList<FileInfo> files = ImmutableList.of(uploadFile);
+    BlobKey returnBlobKey = new BlobKey("blob");
+    Receipt receiptData =
+        new Receipt("userId", "storeName", "date", "name", "fileUrl", 0.5f, new Item[0]);
+    when(receiptFileHandler.getUploadedFileUrl(request, "receipt-file")).thenReturn(files);
+    when(receiptFileHandler.getBlobKey(files)).thenReturn(returnBlobKey);
+    when(receiptFileHandler.createParsedReceipt(returnBlobKey.getKeyString(), "unknown"))
+        .thenReturn(receiptData);
+    receiptFileHandlerServlet.doPost(request, response);
+    ArgumentCaptor<Cookie> captor = ArgumentCaptor.forClass(Cookie.class);
+    verify(response).addCookie(captor.capture());
+
+    StringWriter withToken = new StringWriter();
+    when(request.getCookies()).thenReturn(new Cookie[] {captor.getValue()});
+    when(response.getWriter()).thenReturn(new PrintWriter(withToken));
+    receiptFileHandlerServlet.doGet(request, response);
+    StringWriter withoutToken = new StringWriter();
+    when(request.getCookies()).thenReturn(null);
+    when(response.getWriter()).thenReturn(new PrintWriter(withoutToken));
+    receiptFileHandlerServlet.doGet(request, response);
+
+    assertTrue(withToken.toString().contains("storeName"));
+    assertEquals("null", withoutToken.toString().trim());
+  }
 }
@@ -0,0 +1,219 @@
+package com.google.edith;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.edith.servlets.RequestResultStore;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+@RunWith(JUnit4.class)
+public class RequestResultStoreTest {
+  private FakeClock clock;
+  private HttpSession session;
+  private RequestResultStore<String> store;
+  private HttpServletRequest request;
+
+  /** Ticker that only moves when the test advances it. */
+  static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long duration, TimeUnit unit) {
+      nanos += unit.toNanos(duration);
+    }
+  }
+
+  /** Clock that only moves when the test advances it. */
+  static class FakeClock extends Clock {
+    private long millis;
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    void advance(long duration, TimeUnit unit) {
+      millis += unit.toMillis(duration);
+    }
+  }
+
+  /**
+   * Returns a session that keeps its attributes in a map, like the session App Engine persists
+   * between requests.
+   */
+  static HttpSession fakeSession() {
+    Map<String, Object> attributes = new HashMap<>();
+    HttpSession session = mock(HttpSession.class);
+    doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+        .when(session)
+        .setAttribute(anyString(), any());
+    doAnswer(invocation -> attributes.remove(invocation.getArgument(0)))
+        .when(session)
+        .removeAttribute(anyString());
+    when(session.getAttribute(anyString()))
+        .thenAnswer(invocation -> attributes.get(invocation.getArgument(0)));
+    when(session.getAttributeNames())
+        .thenAnswer(invocation -> Collections.enumeration(new ArrayList<>(attributes.keySet())));
+    return session;
+  }
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    session = fakeSession();
+    store = new RequestResultStore<>("token", 2, 10, TimeUnit.MINUTES, clock);
+    request = mock(HttpServletRequest.class);
+    when(request.getSession()).thenReturn(session);
+    when(request.getSession(false)).thenReturn(session);
+  }
+
+  @Test
+  public void get_sameUserAndToken_returnsValue() {
+    sendWithRequest(put("user", "value"));
+
+    Assert.assertEquals(Optional.of("value"), store.get("user", request));
+  }
+
+  @Test
+  public void get_otherUser_returnsEmpty() {
+    sendWithRequest(put("user", "value"));
+
+    Assert.assertEquals(Optional.empty(), store.get("other", request));
+  }
+
+  @Test
+  public void get_eachPutHasOwnToken() {
+    Cookie first = put("user", "first");
+    Cookie second = put("user", "second");
+
+    sendWithRequest(first);
+    Assert.assertEquals(Optional.of("first"), store.get("user", request));
+    sendWithRequest(second);
+    Assert.assertEquals(Optional.of("second"), store.get("user", request));
+  }
+
+  @Test
+  public void get_noCookies_returnsEmpty() {
+    put("user", "value");
+
+    Assert.assertEquals(Optional.empty(), store.get("user", request));
+  }
+
+  @Test
+  public void get_afterExpiry_returnsEmpty() {
+    sendWithRequest(put("user", "value"));
+
+    clock.advance(11, TimeUnit.MINUTES);
+
+    Assert.assertEquals(Optional.empty(), store.get("user", request));
+  }
+
+  @Test
+  public void get_noSession_returnsEmpty() {
+    Cookie cookie = put("user", "value");
+    when(request.getSession(false)).thenReturn(null);
+
+    sendWithRequest(cookie);
+    Assert.assertEquals(Optional.empty(), store.get("user", request));
+  }
+
+  // Values are kept in the session, so a store on another instance reads them.
+  @Test
+  public void get_otherStoreWithSameSession_returnsValue() {
+    sendWithRequest(put("user", "value"));
+
+    RequestResultStore<String> otherInstance =
+        new RequestResultStore<>("token", 2, 10, TimeUnit.MINUTES, clock);
+
+    Assert.assertEquals(Optional.of("value"), otherInstance.get("user", request));
+  }
+
+  @Test
+  public void put_overMaximumSize_evictsOldest() {
+    Cookie oldest = put("user", "first");
+    clock.advance(1, TimeUnit.SECONDS);
+    Cookie second = put("user", "second");
+    clock.advance(1, TimeUnit.SECONDS);
+    put("user", "third");
+
+    sendWithRequest(oldest);
+    Assert.assertEquals(Optional.empty(), store.get("user", request));
+    sendWithRequest(second);
+    Assert.assertEquals(Optional.of("second"), store.get("user", request));
+  }
+
+  @Test
+  public void put_removesExpiredValues() {
+    put("user", "first");
+    clock.advance(11, TimeUnit.MINUTES);
+
+    put("user", "second");
+
+    Assert.assertEquals(1, Collections.list(session.getAttributeNames()).size());
+  }
+
+  @Test
+  public void put_setsCookieThatExpiresWithValue() {
+    Cookie cookie = put("user", "value");
+
+    Assert.assertEquals("token", cookie.getName());
+    Assert.assertEquals(600, cookie.getMaxAge());
+    Assert.assertTrue(cookie.isHttpOnly());
+  }
+
+  /** Stores the value and returns the cookie sent to the browser. */
+  private Cookie put(String userId, String value) {
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    store.put(userId, value, request, response);
+    ArgumentCaptor<Cookie> captor = ArgumentCaptor.forClass(Cookie.class);
+    verify(response).addCookie(captor.capture());
+    return captor.getValue();
+  }
+
+  private void sendWithRequest(Cookie cookie) {
+    when(request.getCookies()).thenReturn(new Cookie[] {cookie});
+  }
+}
@@ -0,0 +1,240 @@
+package com.google.edith;
+
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilter;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Query.SortPredicate;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.edith.services.NameTokens;
+import com.google.edith.services.SearchQueryPlanner;
+import com.google.edith.servlets.SearchCriteria;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+@RunWith(JUnit4.class)
+public class SearchQueryPlannerTest {
+  private static final String INDEX_FILE = "src/main/webapp/WEB-INF/datastore-indexes.xml";
+
+  private final LocalServiceTestHelper testHelper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    testHelper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    testHelper.tearDown();
+  }
+
+  @Test
+  public void plan_userOnly_filtersOnUser() {
+    Query query = SearchQueryPlanner.plan(criteria("Item", "", "", "", ""), "12345");
+
+    Assert.assertEquals(
+        new FilterPredicate("userId", Query.FilterOperator.EQUAL, "12345"), query.getFilter());
+    Assert.assertTrue(query.getSortPredicates().isEmpty());
+  }
+
+  @Test
+  public void plan_name_filtersOnNameToken() {
+    Query query = SearchQueryPlanner.plan(criteria("Item", "Kroger 2% Milk", "", "", ""), "12345");
+
+    Assert.assertTrue(
+        ((CompositeFilter) query.getFilter())
+            .getSubFilters()
+            .contains(
+                new FilterPredicate(
+                    NameTokens.PROPERTY, Query.FilterOperator.EQUAL, "kroger 2 milk")));
+  }
+
+  @Test
+  public void plan_sortOnFilteredDate_dropsSort() {
+    Query query =
+        SearchQueryPlanner.plan(
+            criteria("Item", "apple", "2020-07-01", "Ascending", "date"), "12345");
+
+    Assert.assertTrue(query.getSortPredicates().isEmpty());
+  }
+
+  @Test
+  public void plan_sortOnSearchedName_keepsSort() {
+    Query query =
+        SearchQueryPlanner.plan(criteria("Item", "milk", "", "Ascending", "name"), "12345");
+
+    Assert.assertEquals(
+        ImmutableList.of(new SortPredicate("name", SortDirection.ASCENDING)),
+        query.getSortPredicates());
+  }
+
+  @Test
+  public void plan_sortWithoutOrder_dropsSort() {
+    Query query = SearchQueryPlanner.plan(criteria("Receipt", "", "", "", "price"), "12345");
+
+    Assert.assertTrue(query.getSortPredicates().isEmpty());
+  }
+
+  @Test
+  public void plan_sortOnOtherProperty_keepsSort() {
+    Query query =
+        SearchQueryPlanner.plan(criteria("Receipt", "weekend", "", "Descending", "price"), "12345");
+
+    Assert.assertEquals(
+        ImmutableList.of(new SortPredicate("price", SortDirection.DESCENDING)),
+        query.getSortPredicates());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void plan_unknownKind_throwsException() {
+    SearchQueryPlanner.plan(criteria("UserInfo", "", "", "", ""), "12345");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void plan_unknownSortProperty_throwsException() {
+    SearchQueryPlanner.plan(criteria("Item", "", "", "Ascending", "quantity"), "12345");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void plan_unknownSortOrder_throwsException() {
+    SearchQueryPlanner.plan(criteria("Item", "", "", "Sideways", "price"), "12345");
+  }
+
+  /** Every query the planner can build must be served by the indexes in datastore-indexes.xml. */
+  @Test
+  public void plan_everySupportedSearch_hasDatastoreIndexes() throws Exception {
+    List<String> indexes = readIndexes();
+    List<String> sortOrders = new ArrayList<>(SearchQueryPlanner.SORT_ORDERS.keySet());
+    sortOrders.add("");
+    List<String> sortProperties = new ArrayList<>(SearchQueryPlanner.SORT_PROPERTIES);
+    sortProperties.add("");
+
+    for (String kind : SearchQueryPlanner.KINDS) {
+      for (String name : ImmutableList.of("", "apple")) {
+        for (String date : ImmutableList.of("", "2020-07-01")) {
+          for (String sortOrder : sortOrders) {
+            for (String sortOnProperty : sortProperties) {
+              Query query =
+                  SearchQueryPlanner.plan(
+                      criteria(kind, name, date, sortOrder, sortOnProperty), "12345");
+              Assert.assertTrue("Missing index for " + query, isServed(query, indexes));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /** Name searches with a date filter and a sort merge two indexes instead of needing a third. */
+  @Test
+  public void datastoreIndexes_nameTokensOnlyWithUserAndSort() throws Exception {
+    for (String index : readIndexes()) {
+      if (index.contains(NameTokens.PROPERTY)) {
+        Assert.assertTrue(index, index.contains(": userId asc, " + NameTokens.PROPERTY + " asc, "));
+        Assert.assertEquals(index, 3, index.split(", ").length);
+      }
+    }
+  }
+
+  @Test
+  public void datastoreIndexes_declareEachIndexOnce() throws Exception {
+    List<String> indexes = readIndexes();
+    Set<String> distinctIndexes = new HashSet<>();
+
+    for (String index : indexes) {
+      Assert.assertTrue("Duplicate index " + index, distinctIndexes.add(index));
+    }
+  }
+
+  /**
+   * Returns whether datastore can answer the query with the declared and built-in indexes. Queries
+   * with only equality filters merge the built-in single property indexes. Queries with a sort
+   * merge declared indexes that each hold some of the filtered properties followed by the sort, and
+   * together hold all of them.
+   */
+  private static boolean isServed(Query query, List<String> indexes) {
+    Set<String> filtered = new HashSet<>();
+    Filter filter = query.getFilter();
+    List<Filter> filters =
+        filter instanceof CompositeFilter
+            ? ((CompositeFilter) filter).getSubFilters()
+            : ImmutableList.of(filter);
+    for (Filter subFilter : filters) {
+      filtered.add(((FilterPredicate) subFilter).getPropertyName() + " asc");
+    }
+    if (query.getSortPredicates().isEmpty()) {
+      return true;
+    }
+    SortPredicate sort = Iterables.getOnlyElement(query.getSortPredicates());
+    String sortOrder =
+        sort.getPropertyName()
+            + (sort.getDirection() == SortDirection.ASCENDING ? " asc" : " desc");
+
+    Set<String> covered = new HashSet<>();
+    for (String index : indexes) {
+      if (!index.startsWith(query.getKind() + ": ")) {
+        continue;
+      }
+      List<String> properties =
+          Arrays.asList(index.substring(query.getKind().length() + 2).split(", "));
+      List<String> prefix = properties.subList(0, properties.size() - 1);
+      if (properties.get(properties.size() - 1).equals(sortOrder) && filtered.containsAll(prefix)) {
+        covered.addAll(prefix);
+      }
+    }
+    return covered.equals(filtered);
+  }
+
+  /** Describes every index declared in datastore-indexes.xml, in file order. */
+  private static List<String> readIndexes() throws Exception {
+    Document document =
+        DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(INDEX_FILE));
+    List<String> indexes = new ArrayList<>();
+    NodeList indexNodes = document.getElementsByTagName("datastore-index");
+    for (int i = 0; i < indexNodes.getLength(); i++) {
+      Element index = (Element) indexNodes.item(i);
+      List<String> properties = new ArrayList<>();
+      NodeList propertyNodes = index.getElementsByTagName("property");
+      for (int j = 0; j < propertyNodes.getLength(); j++) {
+        Element property = (Element) propertyNodes.item(j);
+        properties.add(property.getAttribute("name") + " " + property.getAttribute("direction"));
+      }
+      String kind = index.getAttribute("kind");
+      if (index.getAttribute("ancestor").equals("true")) {
+        kind += " ancestor";
+      }
+      indexes.add(kind + ": " + String.join(", ", properties));
+    }
+    return indexes;
+  }
+
+  private static SearchCriteria criteria(
+      String kind, String name, String date, String sortOrder, String sortOnProperty) {
+    return SearchCriteria.builder()
+        .setKind(kind)
+        .setName(name)
+        .setDate(date)
+        .setSortOrder(sortOrder)
+        .setSortOnProperty(sortOnProperty)
+        .build();
+  }
+}
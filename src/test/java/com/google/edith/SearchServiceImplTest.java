@@ -15,25 +15,37 @@
 package com.google.edith;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.edith.interfaces.SearchService.EntityPage;
+import com.google.edith.services.NameTokens;
 import com.google.edith.services.SearchServiceImpl;
+import com.google.edith.services.UserItemIndex;
 import com.google.edith.servlets.Item;
 import com.google.edith.servlets.Receipt;
+import com.google.edith.servlets.SearchCriteria;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.MockitoAnnotations;
 
 public final class SearchServiceImplTest {
@@ -63,90 +75,203 @@ public final class SearchServiceImplTest {
 
   @After
   public void tearDown() {
+    // The services share the index of this instance, which must not keep items between tests.
+    UserItemIndex.getInstance().invalidateAll();
     testHelper.tearDown();
   }
 
   // Filters entities of kind Receipt by userId and Name.
   @Test
-  public void findEntityFromDatastore_getsReceiptWithGivenNameOnly() {
+  public void findEntityPage_getsReceiptWithGivenNameOnly() {
     assertEquals(4, datastore.prepare(new Query("Receipt")).countEntities());
 
-    ImmutableList<Entity> foundEntities =
-        searchService.findEntityFromDatastore("weekend", "", "Receipt", "", "");
+    ImmutableList<Entity> foundEntities = find("weekend", "", "Receipt", "", "");
 
     assertEquals(1, foundEntities.size());
   }
 
   // Filters entities of kind Receipt by userId and Date.
   @Test
-  public void findEntityFromDatastore_getsReceiptWithGivenDateOnly() {
+  public void findEntityPage_getsReceiptWithGivenDateOnly() {
     assertEquals(4, datastore.prepare(new Query("Receipt")).countEntities());
 
-    ImmutableList<Entity> foundEntities =
-        searchService.findEntityFromDatastore("", "unknown", "Receipt", "", "");
+    ImmutableList<Entity> foundEntities = find("", "unknown", "Receipt", "", "");
 
     assertEquals(2, foundEntities.size());
   }
 
   // Filters entities of kind Receipt by userId, Date and Name.
   @Test
-  public void findEntityFromDatastore_getsReceiptWithGivenNameAndDate() {
+  public void findEntityPage_getsReceiptWithGivenNameAndDate() {
     assertEquals(4, datastore.prepare(new Query("Receipt")).countEntities());
 
-    ImmutableList<Entity> foundEntities =
-        searchService.findEntityFromDatastore("weekend", "unknown", "Receipt", "", "");
+    ImmutableList<Entity> foundEntities = find("weekend", "unknown", "Receipt", "", "");
 
     assertEquals(1, foundEntities.size());
   }
 
   // Filters entities of kind Item by userId and Name.
   @Test
-  public void findEntityFromDatastore_getsItemWithGivenNameOnly() {
+  public void findEntityPage_getsItemWithGivenNameOnly() {
     assertEquals(6, datastore.prepare(new Query("Item")).countEntities());
 
-    ImmutableList<Entity> foundEntities =
-        searchService.findEntityFromDatastore("apple", "", "Item", "", "");
+    ImmutableList<Entity> foundEntities = find("apple", "", "Item", "", "");
 
     assertEquals(3, foundEntities.size());
   }
 
   // Filters entities of kind Item by userId and Date.
   @Test
-  public void findEntityFromDatastore_getsItemWithGivenDateOnly() {
+  public void findEntityPage_getsItemWithGivenDateOnly() {
     assertEquals(6, datastore.prepare(new Query("Item")).countEntities());
 
-    ImmutableList<Entity> foundEntities =
-        searchService.findEntityFromDatastore("", "date1", "Item", "", "");
+    ImmutableList<Entity> foundEntities = find("", "date1", "Item", "", "");
     assertEquals(2, foundEntities.size());
 
-    foundEntities = searchService.findEntityFromDatastore("", "date4", "Item", "", "");
+    foundEntities = find("", "date4", "Item", "", "");
 
     assertEquals(1, foundEntities.size());
   }
 
   // Filters entities of kind Item by userId, Date and Name.
   @Test
-  public void findEntityFromDatastore_getsItemWithGivenNameAndDate() {
+  public void findEntityPage_getsItemWithGivenNameAndDate() {
     assertEquals(6, datastore.prepare(new Query("Item")).countEntities());
 
-    ImmutableList<Entity> foundEntities =
-        searchService.findEntityFromDatastore("apple", "date1", "Item", "", "");
+    ImmutableList<Entity> foundEntities = find("apple", "date1", "Item", "", "");
 
     assertEquals(2, foundEntities.size());
 
-    foundEntities = searchService.findEntityFromDatastore("apple", "date2", "Item", "", "");
+    foundEntities = find("apple", "date2", "Item", "", "");
 
     assertEquals(1, foundEntities.size());
   }
 
+  // Pages through the matching entities with the cursor of the previous page.
+  @Test
+  public void findEntityPage_withCursor_continuesAfterPreviousPage() {
+    SearchCriteria criteria =
+        SearchCriteria.builder()
+            .setKind("Item")
+            .setName("apple")
+            .setDate("")
+            .setSortOrder("Ascending")
+            .setSortOnProperty("price")
+            .build();
+
+    EntityPage firstPage = searchService.findEntityPage(criteria, 2, "");
+    assertEquals(2, ImmutableList.copyOf(firstPage).size());
+    String cursor = firstPage.nextCursor();
+    EntityPage secondPage = searchService.findEntityPage(criteria, 2, cursor);
+
+    assertEquals(1, ImmutableList.copyOf(secondPage).size());
+  }
+
+  // A user who grew past the index limit mid-search continues on datastore from the same offset.
+  @Test
+  public void findEntityPage_userNoLongerIndexed_continuesOnDatastoreFromOffset() {
+    UserItemIndex itemIndex =
+        new UserItemIndex(datastore, 4, 100, 5, TimeUnit.MINUTES, Ticker.systemTicker());
+    searchService = new SearchServiceImpl(datastore, userService, itemIndex);
+    SearchCriteria criteria =
+        SearchCriteria.builder()
+            .setKind("Item")
+            .setName("apple")
+            .setDate("")
+            .setSortOrder("Ascending")
+            .setSortOnProperty("price")
+            .build();
+    EntityPage firstPage = searchService.findEntityPage(criteria, 2, "");
+    ImmutableList<Entity> firstEntities = ImmutableList.copyOf(firstPage);
+    Entity receipt = createReceiptEntity("12345", "kro", "date5", "groceries", "url5", 1.5f);
+    itemIndex.add(
+        createItemEntity(receipt, "12345", "Apple Pie", 1, 9.5f, "bakery", "expire5", "date5"));
+
+    ImmutableList<Entity> secondEntities =
+        ImmutableList.copyOf(searchService.findEntityPage(criteria, 2, firstPage.nextCursor()));
+
+    assertEquals(2, firstEntities.size());
+    assertEquals(2, secondEntities.size());
+    assertEquals(4.8, (double) secondEntities.get(0).getProperty("price"), 0.001);
+    assertEquals("Apple Pie", secondEntities.get(1).getProperty("name"));
+  }
+
+  // Receipts are not indexed in memory, so their pages continue from a datastore cursor.
+  @Test
+  public void findEntityPage_receipts_continuesFromDatastoreCursor() {
+    SearchCriteria criteria =
+        SearchCriteria.builder()
+            .setKind("Receipt")
+            .setName("")
+            .setDate("unknown")
+            .setSortOrder("")
+            .setSortOnProperty("")
+            .build();
+
+    EntityPage firstPage = searchService.findEntityPage(criteria, 1, "");
+    assertEquals(1, ImmutableList.copyOf(firstPage).size());
+    EntityPage secondPage = searchService.findEntityPage(criteria, 1, firstPage.nextCursor());
+
+    assertEquals(1, ImmutableList.copyOf(secondPage).size());
+  }
+
+  // Items stored after the user's items were indexed are found once added to the index.
+  @Test
+  public void findEntityPage_itemAddedToIndex_findsItWithoutReload() {
+    UserItemIndex itemIndex = new UserItemIndex(datastore);
+    searchService = new SearchServiceImpl(datastore, userService, itemIndex);
+    assertEquals(3, find("apple", "", "Item", "", "").size());
+
+    Entity receipt = createReceiptEntity("12345", "kro", "date5", "groceries", "url5", 1.5f);
+    Entity item =
+        createItemEntity(receipt, "12345", "Apple Pie", 1, 6.5f, "bakery", "expire5", "date5");
+    itemIndex.add(item);
+
+    assertEquals(4, find("apple", "", "Item", "", "").size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void findEntityPage_invalidCursor_throwsException() {
+    SearchCriteria criteria =
+        SearchCriteria.builder()
+            .setKind("Item")
+            .setName("apple")
+            .setDate("")
+            .setSortOrder("")
+            .setSortOnProperty("")
+            .build();
+
+    searchService.findEntityPage(criteria, 2, "not a cursor!");
+  }
+
+  // Finds items by a lowercase prefix of any word run in their name.
+  @Test
+  public void findEntityPage_partialName_getsItemsContainingIt() {
+    Entity receipt = createReceiptEntity("12345", "kro", "date5", "groceries", "url5", 1.5f);
+    createItemEntity(receipt, "12345", "Kroger 2% Milk", 1, 3.5f, "dairy", "expire5", "date5");
+    createItemEntity(receipt, "12345", "Coconut Milk", 1, 2.5f, "dairy", "expire5", "date5");
+
+    assertEquals(2, find("MILK", "", "Item", "", "").size());
+    assertEquals(1, find("2 mi", "", "Item", "", "").size());
+    assertEquals(0, find("ilk", "", "Item", "", "").size());
+  }
+
+  // Searches without name and date filter on the user only.
+  @Test
+  public void findEntityPage_noNameOrDate_getsAllEntitiesOfUser() {
+    ImmutableList<Entity> foundEntities = find("", "", "Item", "Descending", "price");
+
+    assertEquals(4, foundEntities.size());
+    assertEquals(8.8, (double) foundEntities.get(0).getProperty("price"), 0.001);
+  }
+
   /**
    * Checks createReceiptObjects method returns Receipt[] with right number of receipt entities
    * found from the query.
    */
   @Test
   public void createReceiptObjects_returnsReceiptListwithRightSize() {
-    ImmutableList<Entity> foundEntities =
-        searchService.findEntityFromDatastore("", "unknown", "Receipt", "", "");
+    ImmutableList<Entity> foundEntities = find("", "unknown", "Receipt", "", "");
     ImmutableList<Receipt> receipts = searchService.createReceiptObjects(foundEntities);
 
     assertEquals(2, receipts.size());
@@ -158,12 +283,61 @@ public final class SearchServiceImplTest {
    */
   @Test
   public void createItemObjects_returnsReceiptListWithRightSize() {
-    ImmutableList<Entity> foundEntities =
-        searchService.findEntityFromDatastore("apple", "", "Item", "", "");
+    ImmutableList<Entity> foundEntities = find("apple", "", "Item", "", "");
     ImmutableList<Item> items = searchService.createItemObjects(foundEntities);
     assertEquals(3, items.size());
   }
 
+  /**
+   * Checks createReceiptObjects reads the items of all receipts of a user with one ancestor query
+   * and attaches each item to its own receipt only, skipping the items of other receipts.
+   */
+  @Test
+  public void createReceiptObjects_receiptsWithSameParent_queriesParentOnce()
+      throws EntityNotFoundException {
+    Entity userInfo = new Entity("UserInfo");
+    datastore.put(userInfo);
+    Entity first = createReceiptEntity(userInfo, "first");
+    Entity skipped = createReceiptEntity(userInfo, "skipped");
+    Entity last = createReceiptEntity(userInfo, "last");
+    createItemEntity(first, "12345", "apple", 1, 1.0f, "fruit", "expire1", "date1");
+    createItemEntity(first, "12345", "berry", 1, 1.0f, "fruit", "expire1", "date1");
+    createItemEntity(skipped, "12345", "cereal", 1, 1.0f, "grain", "expire1", "date1");
+    createItemEntity(last, "12345", "milk", 1, 1.0f, "dairy", "expire1", "date1");
+    DatastoreService countingDatastore =
+        mock(DatastoreService.class, AdditionalAnswers.delegatesTo(datastore));
+    SearchServiceImpl service = new SearchServiceImpl(countingDatastore, userService);
+
+    ImmutableList<Receipt> receipts =
+        service.createReceiptObjects(
+            ImmutableList.of(datastore.get(last.getKey()), datastore.get(first.getKey())));
+
+    ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+    verify(countingDatastore, times(1)).prepare(queries.capture());
+    assertEquals(userInfo.getKey(), queries.getValue().getAncestor());
+    assertEquals(1, receipts.get(0).getItems().length);
+    assertEquals("milk", receipts.get(0).getItems()[0].name());
+    assertEquals(2, receipts.get(1).getItems().length);
+  }
+
+  // Receipts stored without a parent have their items read with an ancestor query of their own.
+  @Test
+  public void createReceiptObjects_receiptsWithoutParent_findsItemsOfEachReceipt()
+      throws EntityNotFoundException {
+    Entity first = createReceiptEntity("12345", "kro", "date1", "first", "url1", 1.0f);
+    Entity second = createReceiptEntity("12345", "wal", "date2", "second", "url2", 2.0f);
+    createItemEntity(first, "12345", "apple", 1, 1.0f, "fruit", "expire1", "date1");
+    createItemEntity(second, "12345", "milk", 1, 1.0f, "dairy", "expire1", "date2");
+    createItemEntity(second, "12345", "bread", 1, 1.0f, "bakery", "expire1", "date2");
+
+    ImmutableList<Receipt> receipts =
+        searchService.createReceiptObjects(
+            ImmutableList.of(datastore.get(first.getKey()), datastore.get(second.getKey())));
+
+    assertEquals(1, receipts.get(0).getItems().length);
+    assertEquals(2, receipts.get(1).getItems().length);
+  }
+
   // Creates and Stores Receipt and Item entities in Datastore.
   private void createAndStoreEntites() {
     Entity receipt1 = createReceiptEntity("12345", "kro", "unknown", "weekend", "url1", 2.5f);
@@ -186,14 +360,29 @@ public final class SearchServiceImplTest {
     receiptEntity.setProperty("storeName", storeName);
     receiptEntity.setProperty("date", date);
     receiptEntity.setProperty("name", name);
+    receiptEntity.setProperty(NameTokens.PROPERTY, NameTokens.forName(name));
     receiptEntity.setProperty("fileUrl", fileUrl);
     receiptEntity.setProperty("price", price);
     datastore.put(receiptEntity);
     return receiptEntity;
   }
 
+  // Creates a Receipt Entity under the given parent and stores it in Datastore.
+  private Entity createReceiptEntity(Entity parent, String name) {
+    Entity receiptEntity = new Entity("Receipt", parent.getKey());
+    receiptEntity.setProperty("userId", "12345");
+    receiptEntity.setProperty("storeName", "kro");
+    receiptEntity.setProperty("date", "unknown");
+    receiptEntity.setProperty("name", name);
+    receiptEntity.setProperty(NameTokens.PROPERTY, NameTokens.forName(name));
+    receiptEntity.setProperty("fileUrl", "url");
+    receiptEntity.setProperty("price", 1.5f);
+    datastore.put(receiptEntity);
+    return receiptEntity;
+  }
+
   // Creates an Item entity and stores it in Datastore.
-  private void createItemEntity(
+  private Entity createItemEntity(
       Entity receipt,
       String userId,
       String name,
@@ -205,11 +394,27 @@ public final class SearchServiceImplTest {
     Entity itemEntity = new Entity("Item", receipt.getKey());
     itemEntity.setProperty("userId", userId);
     itemEntity.setProperty("name", name);
+    itemEntity.setProperty(NameTokens.PROPERTY, NameTokens.forName(name));
     itemEntity.setProperty("quantity", quantity);
     itemEntity.setProperty("price", price);
     itemEntity.setProperty("category", category);
     itemEntity.setProperty("expireDate", expireDate);
     itemEntity.setProperty("date", date);
     datastore.put(itemEntity);
+    return itemEntity;
+  }
+
+  /** Returns every entity the search finds, read as one page. */
+  private ImmutableList<Entity> find(
+      String name, String date, String kind, String sortOrder, String sortOnProperty) {
+    SearchCriteria criteria =
+        SearchCriteria.builder()
+            .setKind(kind)
+            .setName(name)
+            .setDate(date)
+            .setSortOrder(sortOrder)
+            .setSortOnProperty(sortOnProperty)
+            .build();
+    return ImmutableList.copyOf(searchService.findEntityPage(criteria, 100, ""));
   }
 }
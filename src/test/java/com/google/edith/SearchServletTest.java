@@ -15,7 +15,14 @@
 package com.google.edith;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -23,6 +30,10 @@ import static org.mockito.Mockito.when;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
@@ -31,15 +42,23 @@ import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.edith.interfaces.SearchService;
+import com.google.edith.interfaces.SearchService.EntityPage;
 import com.google.edith.servlets.Item;
 import com.google.edith.servlets.Receipt;
+import com.google.edith.servlets.RequestResultStore;
+import com.google.edith.servlets.SearchCriteria;
 import com.google.edith.servlets.SearchServlet;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -72,6 +91,9 @@ public final class SearchServletTest {
   @Before
   public void setUp() {
     MockitoAnnotations.initMocks(this);
+    HttpSession session = RequestResultStoreTest.fakeSession();
+    when(request.getSession()).thenReturn(session);
+    when(request.getSession(false)).thenReturn(session);
     testHelper.setUp();
     searchServlet = new SearchServlet(searchService);
   }
@@ -83,35 +105,139 @@ public final class SearchServletTest {
 
   // When entity kind is Receipt then createReceiptObjects method should be called.
   @Test
-  public void doPost_whenEntityKindIsReceipt_createsReceiptObjects() throws IOException {
-    ImmutableList<Entity> entities = ImmutableList.of();
-    ImmutableList<Receipt> receipts = ImmutableList.of();
-    when(request.getParameter("name")).thenReturn("weekend");
-    when(request.getParameter("kind")).thenReturn("Receipt");
-    when(searchService.findEntityFromDatastore("weekend", "", "Receipt", "", ""))
-        .thenReturn(entities);
-    when(searchService.createReceiptObjects(entities)).thenReturn(receipts);
+  public void doGet_whenEntityKindIsReceipt_createsReceiptObjects() throws IOException {
+    setUpPostForReceipt();
+    when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
 
-    searchServlet.doPost(request, response);
+    searchServlet.doGet(request, response);
 
-    verify(searchService, times(1)).createReceiptObjects(entities);
-    verify(searchService, times(0)).createItemObjects(entities);
+    verify(searchService, times(1)).createReceiptObjects(any());
+    verify(searchService, times(0)).createItemObjects(any());
   }
 
-  // When entity kind is Receipt then createReceiptObjects method should be called.
+  // When entity kind is Item then createItemObjects method should be called.
   @Test
-  public void doPost_whenEntityKindIsItem_createsItemObjects() throws IOException {
-    when(request.getParameter("kind")).thenReturn("Item");
-    when(request.getParameter("name")).thenReturn("apple");
-    ImmutableList<Entity> entities = ImmutableList.of();
-    ImmutableList<Item> items = ImmutableList.of();
-    when(searchService.findEntityFromDatastore("apple", "", "Item", "", "")).thenReturn(entities);
-    when(searchService.createItemObjects(entities)).thenReturn(items);
+  public void doGet_whenEntityKindIsItem_createsItemObjects() throws IOException {
+    setUpPostForItem();
+    when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
 
-    searchServlet.doPost(request, response);
+    searchServlet.doGet(request, response);
+
+    verify(searchService, times(1)).createItemObjects(any());
+    verify(searchService, times(0)).createReceiptObjects(any());
+  }
+
+  // The search runs when the results are requested, not when the form is submitted.
+  @Test
+  public void doPost_doesNotSearch() throws IOException {
+    setUpPostForReceipt();
+
+    verify(searchService, times(0)).findEntityPage(any(), anyInt(), anyString());
+  }
+
+  // Passes the page size and cursor parameters to the search service.
+  @Test
+  public void doGet_withPageSizeAndCursor_searchesPage() throws IOException {
+    setUpPostForItem();
+    when(request.getParameter("page-size")).thenReturn("20");
+    when(request.getParameter("cursor")).thenReturn("abc");
+    when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    ArgumentCaptor<SearchCriteria> captor = ArgumentCaptor.forClass(SearchCriteria.class);
+
+    searchServlet.doGet(request, response);
+
+    verify(searchService).findEntityPage(captor.capture(), eq(20), eq("abc"));
+    assertEquals("Item", captor.getValue().kind());
+    assertEquals("apple", captor.getValue().name());
+  }
+
+  // A full page ends with the cursor of the next page.
+  @Test
+  public void doGet_fullPage_writesCursor() throws IOException {
+    setUpPostForItem();
+    datastore.put(new Entity("Item"));
+    when(request.getParameter("page-size")).thenReturn("1");
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    searchServlet.doGet(request, response);
+
+    JsonObject page = JsonParser.parseString(stringWriter.toString()).getAsJsonObject();
+    assertEquals(1, page.getAsJsonArray("results").size());
+    assertTrue(page.has("cursor"));
+  }
+
+  // The last page has no cursor.
+  @Test
+  public void doGet_lastPage_hasNoCursor() throws IOException {
+    setUpPostForItem();
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
 
-    verify(searchService, times(1)).createItemObjects(entities);
-    verify(searchService, times(0)).createReceiptObjects(entities);
+    searchServlet.doGet(request, response);
+
+    JsonObject page = JsonParser.parseString(stringWriter.toString()).getAsJsonObject();
+    assertEquals(1, page.getAsJsonArray("results").size());
+    assertFalse(page.has("cursor"));
+  }
+
+  // Another user sending the same search token does not see the search.
+  @Test
+  public void doGet_searchOfOtherUser_writesEmptyResults() throws IOException {
+    UserService switchingUserService = mock(UserService.class);
+    when(switchingUserService.getCurrentUser())
+        .thenReturn(new User("a@gmail.com", "gmail", "12345"))
+        .thenReturn(new User("b@gmail.com", "gmail", "6789"));
+    searchServlet =
+        new SearchServlet(
+            searchService,
+            switchingUserService,
+            new RequestResultStore<>("search-token", 10, 1, TimeUnit.MINUTES));
+    setUpPostForItem();
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    searchServlet.doGet(request, response);
+
+    JsonObject page = JsonParser.parseString(stringWriter.toString()).getAsJsonObject();
+    assertEquals(0, page.getAsJsonArray("results").size());
+    verify(searchService, times(0)).findEntityPage(any(), anyInt(), anyString());
+  }
+
+  // Requesting results before any search returns an empty page.
+  @Test
+  public void doGet_beforeSearch_writesEmptyResults() throws IOException {
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    searchServlet.doGet(request, response);
+
+    JsonObject page = JsonParser.parseString(stringWriter.toString()).getAsJsonObject();
+    assertEquals(0, page.getAsJsonArray("results").size());
+  }
+
+  // A page size that is not a number is rejected.
+  @Test
+  public void doGet_invalidPageSize_sendsBadRequest() throws IOException {
+    setUpPostForItem();
+    when(request.getParameter("page-size")).thenReturn("ten");
+
+    searchServlet.doGet(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+  }
+
+  // A cursor the search service cannot parse is rejected.
+  @Test
+  public void doGet_invalidCursor_sendsBadRequest() throws IOException {
+    setUpPostForItem();
+    when(request.getParameter("cursor")).thenReturn("not a cursor");
+    when(searchService.findEntityPage(any(), anyInt(), eq("not a cursor")))
+        .thenThrow(new IllegalArgumentException("Invalid cursor"));
+
+    searchServlet.doGet(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
   }
 
   // Redirect to search-results section after form is submitted.
@@ -189,12 +315,11 @@ public final class SearchServletTest {
     assertTrue(servletResponse.contains("expiration"));
   }
 
-  // Sets up conditions by populating kind and receipt field of SearchServlet class.
+  // Submits a search for receipts and stubs the search service with one stored receipt.
   private void setUpPostForReceipt() throws IOException {
     when(request.getParameter("kind")).thenReturn("Receipt");
     when(request.getParameter("name")).thenReturn("weekend");
-    Entity receiptEntity = new Entity("Receipt");
-    ImmutableList<Entity> entities = ImmutableList.of(receiptEntity);
+    datastore.put(new Entity("Receipt"));
     Item item =
         Item.builder()
             .setUserId("12345")
@@ -209,18 +334,16 @@ public final class SearchServletTest {
     Receipt receipt1 = new Receipt("12345", "kro", "unknown", "weekend", "url1", 2.5f, items);
     ImmutableList<Receipt> receipts = ImmutableList.of(receipt1);
 
-    when(searchService.findEntityFromDatastore("weekend", "", "Receipt", "", ""))
-        .thenReturn(entities);
-    when(searchService.createReceiptObjects(entities)).thenReturn(receipts);
-    searchServlet.doPost(request, response);
+    stubFindEntityPage("Receipt");
+    when(searchService.createReceiptObjects(any())).thenReturn(receipts);
+    submitSearch();
   }
 
-  // Sets up conditions by populating kind and item field of SearchServlet class.
+  // Submits a search for items and stubs the search service with one stored item.
   private void setUpPostForItem() throws IOException {
     when(request.getParameter("kind")).thenReturn("Item");
     when(request.getParameter("name")).thenReturn("apple");
-    Entity itemEntity = new Entity("Item");
-    ImmutableList<Entity> entities = ImmutableList.of(itemEntity);
+    datastore.put(new Entity("Item"));
     Item item =
         Item.builder()
             .setUserId("12345")
@@ -232,8 +355,52 @@ public final class SearchServletTest {
             .setExpiration("expire1")
             .build();
     ImmutableList<Item> items = ImmutableList.of(item);
-    when(searchService.findEntityFromDatastore("apple", "", "Item", "", "")).thenReturn(entities);
-    when(searchService.createItemObjects(entities)).thenReturn(items);
+    stubFindEntityPage("Item");
+    when(searchService.createItemObjects(any())).thenReturn(items);
+    submitSearch();
+  }
+
+  // Submits the search form and sends the returned search token with later requests.
+  private void submitSearch() throws IOException {
     searchServlet.doPost(request, response);
+    ArgumentCaptor<Cookie> captor = ArgumentCaptor.forClass(Cookie.class);
+    verify(response, atLeastOnce()).addCookie(captor.capture());
+    when(request.getCookies()).thenReturn(new Cookie[] {captor.getValue()});
+  }
+
+  // Answers searches with a page of all stored entities of the given kind.
+  private void stubFindEntityPage(String kind) {
+    when(searchService.findEntityPage(any(), anyInt(), anyString()))
+        .thenAnswer(
+            invocation ->
+                new DatastorePage(
+                    datastore
+                        .prepare(new Query(kind))
+                        .asQueryResultIterator(
+                            FetchOptions.Builder.withLimit(invocation.getArgument(1)))));
+  }
+
+  // Page read from a datastore query, as served by SearchServiceImpl for receipts.
+  private static final class DatastorePage implements EntityPage {
+    private final QueryResultIterator<Entity> results;
+
+    DatastorePage(QueryResultIterator<Entity> results) {
+      this.results = results;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return results.hasNext();
+    }
+
+    @Override
+    public Entity next() {
+      return results.next();
+    }
+
+    @Override
+    public String nextCursor() {
+      return results.getCursor().toWebSafeString();
+    }
   }
 }
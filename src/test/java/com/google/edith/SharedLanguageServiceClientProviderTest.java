@@ -0,0 +1,154 @@
+package com.google.edith;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import com.google.api.gax.rpc.UnaryCallable;
+import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.stub.LanguageServiceStub;
+import com.google.edith.GroceryNameProcessor.LanguageServiceClientWrapper;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SharedLanguageServiceClientProviderTest {
+  private List<FakeLanguageServiceStub> stubs;
+  private SharedLanguageServiceClientProvider provider;
+
+  /** Stub that answers every request with the same response, or fails with the given status. */
+  class FakeLanguageServiceStub extends LanguageServiceStub {
+    private Status.Code failure;
+    private boolean shutdown;
+
+    @Override
+    public UnaryCallable<AnalyzeEntitiesRequest, AnalyzeEntitiesResponse>
+        analyzeEntitiesCallable() {
+      return new UnaryCallable<AnalyzeEntitiesRequest, AnalyzeEntitiesResponse>() {
+        @Override
+        public ApiFuture<AnalyzeEntitiesResponse> futureCall(
+            AnalyzeEntitiesRequest request, ApiCallContext context) {
+          if (failure != null) {
+            ApiException exception =
+                ApiExceptionFactory.createException(
+                    new RuntimeException(), GrpcStatusCode.of(failure), false);
+            return ApiFutures.immediateFailedFuture(exception);
+          }
+          return ApiFutures.immediateFuture(AnalyzeEntitiesResponse.getDefaultInstance());
+        }
+      };
+    }
+
+    @Override
+    public void shutdown() {
+      shutdown = true;
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return shutdown;
+    }
+
+    @Override
+    public void shutdownNow() {
+      shutdown = true;
+    }
+
+    @Override
+    public boolean awaitTermination(long duration, TimeUnit unit) {
+      return true;
+    }
+
+    @Override
+    public void close() {
+      shutdown = true;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    stubs = new ArrayList<>();
+    provider =
+        new SharedLanguageServiceClientProvider(
+            () -> {
+              FakeLanguageServiceStub stub = new FakeLanguageServiceStub();
+              stubs.add(stub);
+              return LanguageServiceClient.create(stub);
+            });
+  }
+
+  @Test
+  public void get_manyCalls_sharesOneClient() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      try (LanguageServiceClientWrapper client = provider.get()) {
+        client.analyzeEntities(AnalyzeEntitiesRequest.getDefaultInstance());
+      }
+    }
+
+    Assert.assertEquals(1, stubs.size());
+    Assert.assertFalse(stubs.get(0).isShutdown());
+  }
+
+  @Test
+  public void get_afterUnavailableCall_rebuildsClient() throws Exception {
+    try (LanguageServiceClientWrapper client = provider.get()) {
+      stubs.get(0).failure = Status.Code.UNAVAILABLE;
+      client.analyzeEntities(AnalyzeEntitiesRequest.getDefaultInstance());
+      Assert.fail();
+    } catch (ApiException e) {
+      Assert.assertTrue(stubs.get(0).isShutdown());
+    }
+
+    try (LanguageServiceClientWrapper client = provider.get()) {
+      client.analyzeEntities(AnalyzeEntitiesRequest.getDefaultInstance());
+    }
+    Assert.assertEquals(2, stubs.size());
+  }
+
+  @Test
+  public void get_afterInvalidArgumentCall_keepsClient() throws Exception {
+    try (LanguageServiceClientWrapper client = provider.get()) {
+      stubs.get(0).failure = Status.Code.INVALID_ARGUMENT;
+      client.analyzeEntities(AnalyzeEntitiesRequest.getDefaultInstance());
+      Assert.fail();
+    } catch (ApiException e) {
+      Assert.assertFalse(stubs.get(0).isShutdown());
+    }
+
+    provider.get();
+    Assert.assertEquals(1, stubs.size());
+  }
+
+  @Test
+  public void get_clientShutDown_rebuildsClient() throws Exception {
+    provider.get();
+    stubs.get(0).shutdown();
+    provider.get();
+
+    Assert.assertEquals(2, stubs.size());
+  }
+
+  @Test
+  public void close_closesSharedClient() throws Exception {
+    provider.get();
+    provider.close();
+
+    Assert.assertTrue(stubs.get(0).isShutdown());
+  }
+}
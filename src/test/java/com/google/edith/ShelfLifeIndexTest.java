@@ -0,0 +1,58 @@
+package com.google.edith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ShelfLifeIndexTest {
+  private static final String JSON =
+      "{\"sheets\": [{}, {}, {\"data\": ["
+          + product("Yogurt", "{\"Pantry_Max\": 1.0}, {\"Pantry_Metric\": \"Days\"}")
+          + ","
+          + product("Yogurt", "{\"Pantry_Max\": 9.0}, {\"Pantry_Metric\": \"Months\"}")
+          + ","
+          + product("Ice Cream", "{\"Pantry_Max\": null}, {\"Pantry_tips\": \"Keep frozen.\"}")
+          + "]}]}";
+
+  @Test
+  public void get_differentCapitalization_returnsShelfLife() throws IOException {
+    ShelfLifeIndex index = ShelfLifeIndex.load(new StringReader(JSON));
+    Assert.assertEquals("1.0 Days", index.get("YOGURT"));
+  }
+
+  @Test
+  public void get_duplicateProductNames_keepsFirstMatch() throws IOException {
+    ShelfLifeIndex index = ShelfLifeIndex.load(new StringReader(JSON));
+    Assert.assertEquals("1.0 Days", index.get("yogurt"));
+  }
+
+  @Test
+  public void get_productWithoutShelfLifeData_returnsNoExpiration() throws IOException {
+    ShelfLifeIndex index = ShelfLifeIndex.load(new StringReader(JSON));
+    Assert.assertEquals("NO_EXPIRATION", index.get("ice cream"));
+  }
+
+  @Test
+  public void get_productNotInFile_returnsNoExpiration() throws IOException {
+    ShelfLifeIndex index = ShelfLifeIndex.load(new StringReader(JSON));
+    Assert.assertEquals("NO_EXPIRATION", index.get("nothing"));
+  }
+
+  @Test
+  public void getInstance_productWithFreezerDataOnly_returnsNoExpiration() {
+    Assert.assertEquals("NO_EXPIRATION", ShelfLifeIndex.getInstance().get("milk"));
+  }
+
+  // Creates a product row padded so the shelf life fields start at index 6.
+  private static String product(String name, String shelfLifeFields) {
+    return "[{\"ID\": 1.0}, {\"Category_ID\": 1.0}, {\"Name\": \""
+        + name
+        + "\"}, {\"Name_subtitle\": null}, {\"Keywords\": \"\"}, {\"Pantry_Min\": null}, "
+        + shelfLifeFields
+        + "]";
+  }
+}
@@ -0,0 +1,124 @@
+package com.google.edith;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ShelfLifeSnapshotTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void read_writtenSnapshot_returnsSameIndex() throws IOException {
+    ShelfLifeIndex index =
+        ShelfLifeIndex.of(
+            ImmutableMap.of("buttermilk", "1.0 2.0 Weeks", "crème fraîche", "1.0 Days"));
+    File snapshot = folder.newFile();
+    try (OutputStream out = new FileOutputStream(snapshot)) {
+      ShelfLifeSnapshot.write(index, out);
+    }
+
+    Assert.assertEquals(index.asMap(), ShelfLifeSnapshot.read(snapshot.toPath()).asMap());
+  }
+
+  @Test
+  public void read_buildSnapshot_matchesStreamedJson() throws IOException {
+    URL snapshotResource = getClass().getClassLoader().getResource("foodkeeper.bin");
+    URL jsonResource = getClass().getClassLoader().getResource("foodkeeper.json");
+    ShelfLifeIndex fromSnapshot =
+        ShelfLifeSnapshot.read(new File(snapshotResource.getFile()).toPath());
+
+    try (FileReader reader = new FileReader(new File(jsonResource.getFile()))) {
+      Assert.assertEquals(ShelfLifeIndex.load(reader).asMap(), fromSnapshot.asMap());
+    }
+  }
+
+  @Test
+  public void get_snapshot_findsEveryProductByHash() throws IOException {
+    ShelfLifeIndex index =
+        ShelfLifeIndex.of(
+            ImmutableMap.of(
+                "zucchini", "4.0 5.0 Days",
+                "apples", "3.0 Weeks",
+                "émincé", "1.0 Days",
+                "milk", ShelfLifeIndex.NO_EXPIRATION));
+    ShelfLifeSnapshot snapshot = writeAndRead(index);
+
+    for (String name : index.names()) {
+      Assert.assertEquals(index.get(name), snapshot.get(name));
+    }
+    Assert.assertEquals("3.0 Weeks", snapshot.get("Apples"));
+  }
+
+  // "a?" and "b " have the same String hash code, so one of them is found by probing the next slot.
+  @Test
+  public void get_namesWithSameHash_findsEachProduct() throws IOException {
+    ShelfLifeSnapshot snapshot =
+        writeAndRead(
+            ShelfLifeIndex.of(
+                ImmutableMap.of(
+                    "a?", "1.0 Days", "b ", "2.0 Days", "\ud83c\udf4e apple", "3.0 Weeks")));
+
+    Assert.assertEquals("a?".hashCode(), "b ".hashCode());
+    Assert.assertEquals("1.0 Days", snapshot.get("A?"));
+    Assert.assertEquals("2.0 Days", snapshot.get("b "));
+    Assert.assertEquals(ShelfLifeIndex.NO_EXPIRATION, snapshot.get("b"));
+    Assert.assertEquals("3.0 Weeks", snapshot.get("\ud83c\udf4e Apple"));
+    Assert.assertEquals(ShelfLifeIndex.NO_EXPIRATION, snapshot.get("\ud83c apple"));
+  }
+
+  @Test
+  public void get_unknownProduct_returnsNoExpiration() throws IOException {
+    ShelfLifeSnapshot snapshot =
+        writeAndRead(
+            ShelfLifeIndex.of(ImmutableMap.of("apples", "3.0 Weeks", "milk", "1.0 Weeks")));
+
+    Assert.assertEquals(ShelfLifeIndex.NO_EXPIRATION, snapshot.get("apple"));
+    Assert.assertEquals(ShelfLifeIndex.NO_EXPIRATION, snapshot.get("aaa"));
+    Assert.assertEquals(ShelfLifeIndex.NO_EXPIRATION, snapshot.get("zzz"));
+  }
+
+  @Test
+  public void get_emptySnapshot_returnsNoExpiration() throws IOException {
+    ShelfLifeSnapshot snapshot = writeAndRead(ShelfLifeIndex.of(ImmutableMap.of()));
+
+    Assert.assertEquals(ShelfLifeIndex.NO_EXPIRATION, snapshot.get("milk"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void write_stringLongerThanShortLength_throwsIllegalArgumentException()
+      throws IOException {
+    String longShelfLife = Strings.repeat("1.0 Days ", ShelfLifeSnapshot.MAX_STRING_BYTES);
+    ShelfLifeSnapshot.write(
+        ShelfLifeIndex.of(ImmutableMap.of("milk", longShelfLife)), new ByteArrayOutputStream());
+  }
+
+  @Test(expected = IOException.class)
+  public void read_notASnapshot_throwsIOException() throws IOException {
+    File snapshot = folder.newFile();
+    try (OutputStream out = new FileOutputStream(snapshot)) {
+      out.write(new byte[12]);
+    }
+    ShelfLifeSnapshot.read(snapshot.toPath());
+  }
+
+  private ShelfLifeSnapshot writeAndRead(ShelfLifeIndex index) throws IOException {
+    File snapshot = folder.newFile();
+    try (OutputStream out = new FileOutputStream(snapshot)) {
+      ShelfLifeSnapshot.write(index, out);
+    }
+    return ShelfLifeSnapshot.read(snapshot.toPath());
+  }
+}
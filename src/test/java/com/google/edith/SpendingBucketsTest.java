@@ -0,0 +1,131 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.edith.services.SpendingBuckets;
+import com.google.edith.services.TimePeriod;
+import java.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class SpendingBucketsTest {
+  // Entities need an API environment for their keys.
+  private final LocalServiceTestHelper testHelper = new LocalServiceTestHelper();
+
+  private SpendingBuckets daily;
+
+  @Before
+  public void setUp() {
+    testHelper.setUp();
+    daily =
+        SpendingBuckets.ofItems(
+            ImmutableList.of(
+                item(5, 1, "fruit", "2020-06-29"),
+                item(6, 2, "dairy", "2020-06-30"),
+                item(7, 3, "fruit", "2020-07-11"),
+                item(1, 1, "fruit", "2020-07-11"),
+                item(2, 1, null, "2021-01-02"),
+                item(9, 1, "fruit", "unknown")));
+  }
+
+  @After
+  public void tearDown() {
+    testHelper.tearDown();
+  }
+
+  // One pass over the items totals each day and category, leaving out undated items.
+  @Test
+  public void ofItems_totalsPerDayAndCategory() {
+    assertEquals(
+        ImmutableSortedMap.of(
+            LocalDate.of(2020, 6, 29), ImmutableMap.of("fruit", 5.0),
+            LocalDate.of(2020, 6, 30), ImmutableMap.of("dairy", 12.0),
+            LocalDate.of(2020, 7, 11), ImmutableMap.of("fruit", 22.0),
+            LocalDate.of(2021, 1, 2), ImmutableMap.of(SpendingBuckets.UNKNOWN_CATEGORY, 2.0)),
+        daily.totalsByCategory());
+  }
+
+  // Weeks end on Sunday, like the weekly aggregate always did.
+  @Test
+  public void rollUp_week_totalsEachWeek() {
+    assertEquals(
+        ImmutableSortedMap.of(
+            LocalDate.of(2020, 7, 5), 17.0,
+            LocalDate.of(2020, 7, 12), 22.0,
+            LocalDate.of(2021, 1, 3), 2.0),
+        daily.rollUp(TimePeriod.WEEK).totals());
+  }
+
+  @Test
+  public void rollUp_monthThenYear_matchesYearFromDays() {
+    SpendingBuckets monthly = daily.rollUp(TimePeriod.MONTH);
+
+    assertEquals(
+        ImmutableSortedMap.of(
+            LocalDate.of(2020, 6, 30), ImmutableMap.of("dairy", 12.0, "fruit", 5.0),
+            LocalDate.of(2020, 7, 31), ImmutableMap.of("fruit", 22.0),
+            LocalDate.of(2021, 1, 31), ImmutableMap.of(SpendingBuckets.UNKNOWN_CATEGORY, 2.0)),
+        monthly.totalsByCategory());
+    assertEquals(
+        daily.rollUp(TimePeriod.YEAR).totalsByCategory(),
+        monthly.rollUp(TimePeriod.YEAR).totalsByCategory());
+    assertEquals(
+        ImmutableSortedMap.of(LocalDate.of(2020, 12, 31), 39.0, LocalDate.of(2021, 12, 31), 2.0),
+        monthly.rollUp(TimePeriod.YEAR).totals());
+  }
+
+  // Weeks cross month ends, so months cannot be summed from them.
+  @Test(expected = IllegalArgumentException.class)
+  public void rollUp_weekToMonth_throws() {
+    daily.rollUp(TimePeriod.WEEK).rollUp(TimePeriod.MONTH);
+  }
+
+  @Test
+  public void fitsInto_onlyNestedPeriods() {
+    assertTrue(TimePeriod.DAY.fitsInto(TimePeriod.WEEK));
+    assertTrue(TimePeriod.MONTH.fitsInto(TimePeriod.YEAR));
+    assertFalse(TimePeriod.WEEK.fitsInto(TimePeriod.YEAR));
+    assertFalse(TimePeriod.YEAR.fitsInto(TimePeriod.MONTH));
+  }
+
+  @Test
+  public void endOf_returnsLastDayOfPeriod() {
+    LocalDate monday = LocalDate.of(2020, 6, 29);
+    assertEquals(monday, TimePeriod.DAY.endOf(monday));
+    assertEquals(LocalDate.of(2020, 7, 5), TimePeriod.WEEK.endOf(monday));
+    assertEquals(LocalDate.of(2020, 7, 5), TimePeriod.WEEK.endOf(LocalDate.of(2020, 7, 5)));
+    assertEquals(LocalDate.of(2020, 6, 30), TimePeriod.MONTH.endOf(monday));
+    assertEquals(LocalDate.of(2020, 12, 31), TimePeriod.YEAR.endOf(monday));
+  }
+
+  private static Entity item(double price, long quantity, String category, String date) {
+    Entity item = new Entity("Item");
+    item.setProperty("price", price);
+    item.setProperty("quantity", quantity);
+    item.setProperty("category", category);
+    item.setProperty("date", date);
+    return item;
+  }
+}
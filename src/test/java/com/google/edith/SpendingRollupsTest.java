@@ -0,0 +1,118 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.edith.services.SpendingRollups;
+import com.google.edith.services.TimePeriod;
+import java.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class SpendingRollupsTest {
+  private final LocalServiceTestHelper testHelper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private SpendingRollups rollups;
+
+  @Before
+  public void setUp() {
+    testHelper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    rollups = new SpendingRollups(datastore);
+  }
+
+  @After
+  public void tearDown() {
+    testHelper.tearDown();
+  }
+
+  // Items are totaled per day and category.
+  @Test
+  public void add_itemsOfSeveralDays_totalsEachDayAndCategory() {
+    add(
+        "user1",
+        item(5, 1, "fruit", "2020-06-29"),
+        item(6, 2, "dairy", "2020-06-29"),
+        item(7, 3, "fruit", "2020-07-11"));
+
+    assertEquals(
+        ImmutableSortedMap.of(
+            LocalDate.of(2020, 6, 29), ImmutableMap.of("dairy", 12.0, "fruit", 5.0),
+            LocalDate.of(2020, 7, 11), ImmutableMap.of("fruit", 21.0)),
+        rollups.read("user1").totalsByCategory());
+  }
+
+  // Items dated in the past change that day's total and leave the later days alone.
+  @Test
+  public void add_backdatedItem_updatesPastWeek() {
+    add("user1", item(5, 1, "fruit", "2020-07-11"));
+    add("user1", item(2, 1, "fruit", "2020-06-30"), item(1, 1, "fruit", "2020-07-11"));
+
+    assertEquals(
+        ImmutableSortedMap.of(LocalDate.of(2020, 7, 5), 2.0, LocalDate.of(2020, 7, 12), 6.0),
+        rollups.read("user1").rollUp(TimePeriod.WEEK).totals());
+  }
+
+  // Items without a date and totals of other users are left out.
+  @Test
+  public void read_undatedItemsAndOtherUsers_leftOut() {
+    add("user1", item(5, 1, "fruit", "unknown"), item(3, 1, "fruit", "2020-07-01"));
+    add("user2", item(4, 1, "fruit", "2020-07-01"));
+
+    assertEquals(
+        ImmutableSortedMap.of(LocalDate.of(2020, 7, 1), 3.0), rollups.read("user1").totals());
+  }
+
+  // Rebuilding replaces every total, including days that no longer have items.
+  @Test
+  public void rebuild_replacesStoredTotals() {
+    add("user1", item(5, 1, "fruit", "2020-06-29"), item(6, 1, "fruit", "2020-07-11"));
+
+    Transaction transaction = datastore.beginTransaction();
+    rollups.rebuild(transaction, "user1", ImmutableList.of(item(4, 2, "fruit", "2020-07-11")));
+    transaction.commit();
+
+    assertEquals(
+        ImmutableSortedMap.of(LocalDate.of(2020, 7, 11), 8.0), rollups.read("user1").totals());
+  }
+
+  private void add(String userId, Entity... items) {
+    Transaction transaction = datastore.beginTransaction();
+    rollups.add(transaction, userId, ImmutableList.copyOf(items));
+    transaction.commit();
+  }
+
+  private static Entity item(double price, long quantity, String category, String date) {
+    Entity item = new Entity("Item");
+    item.setProperty("price", price);
+    item.setProperty("quantity", quantity);
+    item.setProperty("category", category);
+    item.setProperty("date", date);
+    return item;
+  }
+}
@@ -15,30 +15,62 @@
 package com.google.edith;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.edith.services.MemcacheReadCache;
+import com.google.edith.services.NameTokens;
 import com.google.edith.services.StoreReceiptService;
+import com.google.edith.services.TimePeriod;
+import com.google.edith.services.UserInfoRepository;
+import com.google.edith.services.UserItemIndex;
 import com.google.edith.servlets.Item;
 import com.google.edith.servlets.Receipt;
+import com.google.edith.servlets.UserInsightsInterface;
+import com.google.edith.servlets.UserInsightsService;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -49,7 +81,9 @@ public final class StoreReceiptServiceTest {
 
   private LocalServiceTestHelper testHelper =
       new LocalServiceTestHelper(
-              new LocalUserServiceTestConfig(), new LocalDatastoreServiceTestConfig())
+              new LocalUserServiceTestConfig(),
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig())
           .setEnvAttributes(userIdMap)
           .setEnvIsLoggedIn(true)
           .setEnvAuthDomain("gmail")
@@ -68,6 +102,8 @@ public final class StoreReceiptServiceTest {
 
   @After
   public void tearDown() {
+    // The services share the index of this instance, which must not keep items between tests.
+    UserItemIndex.getInstance().invalidateAll();
     testHelper.tearDown();
   }
 
@@ -132,6 +168,160 @@ public final class StoreReceiptServiceTest {
     assertTrue(item1.getKey().toString().contains("Receipt"));
   }
 
+  @Test
+  public void storeEntites_storesNameTokensForSearch() {
+    createUserInfoEntity();
+    Receipt testingReceipt = createEntities();
+
+    storeReceiptService.storeEntites(testingReceipt);
+
+    Query query =
+        new Query("Item")
+            .setFilter(
+                new Query.FilterPredicate(NameTokens.PROPERTY, Query.FilterOperator.EQUAL, "app"));
+    assertEquals("apple", datastore.prepare(query).asSingleEntity().getProperty("name"));
+    Entity receiptEntity = datastore.prepare(new Query("Receipt")).asSingleEntity();
+    assertEquals(NameTokens.forName("exp"), receiptEntity.getProperty(NameTokens.PROPERTY));
+  }
+
+  // Writes a receipt with as many items as fit in one commit with a single put.
+  @Test
+  public void storeEntites_mostItemsPerReceipt_storesInOnePut() {
+    DatastoreService countingDatastore = mock(DatastoreService.class, delegatesTo(datastore));
+    storeReceiptService = new StoreReceiptService(countingDatastore);
+    createUserInfoEntity();
+    Item[] items = new Item[StoreReceiptService.MAX_ITEMS_PER_RECEIPT];
+    Arrays.fill(items, createEntities().getItems()[0]);
+
+    storeReceiptService.storeEntites(new Receipt("23", "kro", "date", "exp", "url", 0.5f, items));
+
+    verify(countingDatastore, times(1)).put(any(Transaction.class), anyIterable());
+    verify(countingDatastore, never()).put(any(Transaction.class), any(Entity.class));
+    assertEquals(
+        1,
+        datastore.prepare(new Query("Receipt")).countEntities(FetchOptions.Builder.withDefaults()));
+    assertEquals(
+        StoreReceiptService.MAX_ITEMS_PER_RECEIPT,
+        datastore.prepare(new Query("Item")).countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  // Receipts with more items than fit in one commit are rejected before anything is written.
+  @Test
+  public void storeEntites_tooManyItems_throwsWithoutWriting() {
+    DatastoreService countingDatastore = mock(DatastoreService.class, delegatesTo(datastore));
+    storeReceiptService = new StoreReceiptService(countingDatastore);
+    createUserInfoEntity();
+    Item[] items = new Item[StoreReceiptService.MAX_ITEMS_PER_RECEIPT + 1];
+    Arrays.fill(items, createEntities().getItems()[0]);
+
+    try {
+      storeReceiptService.storeEntites(new Receipt("23", "kro", "date", "exp", "url", 0.5f, items));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals(
+          "Receipt has 500 items, at most 499 items of a receipt can be stored", e.getMessage());
+    }
+    verify(countingDatastore, never()).put(any(Transaction.class), anyIterable());
+    assertEquals(
+        0,
+        datastore.prepare(new Query("Receipt")).countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  // A retried request for the same uploaded file stores nothing the second time.
+  @Test
+  public void storeEntites_sameFileTwice_storesReceiptOnce() {
+    DatastoreService countingDatastore = mock(DatastoreService.class, delegatesTo(datastore));
+    storeReceiptService = new StoreReceiptService(countingDatastore);
+    createUserInfoEntity();
+
+    storeReceiptService.storeEntites(createEntities());
+    storeReceiptService.storeEntites(createEntities());
+
+    assertEquals(
+        1,
+        datastore.prepare(new Query("Receipt")).countEntities(FetchOptions.Builder.withDefaults()));
+    assertEquals(
+        2, datastore.prepare(new Query("Item")).countEntities(FetchOptions.Builder.withDefaults()));
+    verify(countingDatastore, times(1)).put(any(Transaction.class), anyIterable());
+  }
+
+  // Receipts of different files, or without a file, are all stored.
+  @Test
+  public void storeEntites_differentFiles_storesEachReceipt() {
+    createUserInfoEntity();
+    Item[] items = createEntities().getItems();
+
+    storeReceiptService.storeEntites(new Receipt("23", "kro", "date", "exp", "url1", 0.5f, items));
+    storeReceiptService.storeEntites(new Receipt("23", "kro", "date", "exp", "url2", 0.5f, items));
+    storeReceiptService.storeEntites(new Receipt("23", "kro", "date", "exp", "", 0.5f, items));
+    storeReceiptService.storeEntites(new Receipt("23", "kro", "date", "exp", "", 0.5f, items));
+
+    assertEquals(
+        4,
+        datastore.prepare(new Query("Receipt")).countEntities(FetchOptions.Builder.withDefaults()));
+    assertEquals(
+        8, datastore.prepare(new Query("Item")).countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  // Storing a receipt drops the user's cached receipts so the grocery list sees it.
+  @Test
+  public void storeEntites_invalidatesCachedReceipts() {
+    createUserInfoEntity();
+    MemcacheService receiptCache =
+        MemcacheServiceFactory.getMemcacheService(MemcacheReadCache.RECEIPTS_NAMESPACE);
+    receiptCache.put("23", ImmutableList.of());
+
+    storeReceiptService.storeEntites(createEntities());
+
+    assertFalse(receiptCache.contains("23"));
+  }
+
+  // Stored items are added to the stats and spending rollups of a user who has stats.
+  @Test
+  public void storeEntites_userWithStats_addsItemsToStats() {
+    createUserInfoEntity();
+    UserInsightsService userInsights = new UserInsightsService(datastore);
+    userInsights.createUserStats("23");
+    Item[] items = datedItems();
+
+    storeReceiptService.storeEntites(new Receipt("23", "kro", "date", "exp", "url", 0.5f, items));
+
+    assertEquals(
+        ImmutableMap.of(LocalDate.of(2020, 7, 1), ImmutableMap.of("fruit", 3.0, "notfruit", 2.5)),
+        userInsights.aggregateSpending("23", TimePeriod.DAY).totalsByCategory());
+  }
+
+  // A retried request adds the items of the receipt stored by the request that failed.
+  @Test
+  public void storeEntites_statsUpdateFailed_retryAddsStoredItems() {
+    createUserInfoEntity();
+    UserInsightsInterface userInsights = mock(UserInsightsInterface.class);
+    doThrow(new DatastoreFailureException("deadline exceeded"))
+        .doNothing()
+        .when(userInsights)
+        .updateUserStats(eq("23"), anyList());
+    storeReceiptService =
+        new StoreReceiptService(
+            datastore,
+            UserItemIndex.getInstance(),
+            new UserInfoRepository(datastore),
+            userInsights);
+
+    try {
+      storeReceiptService.storeEntites(createEntities());
+      fail();
+    } catch (DatastoreFailureException e) {
+      // The receipt was committed before the stats were updated.
+    }
+    storeReceiptService.storeEntites(createEntities());
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<Key>> itemKeys = ArgumentCaptor.forClass(List.class);
+    verify(userInsights, times(2)).updateUserStats(eq("23"), itemKeys.capture());
+    assertEquals(2, itemKeys.getAllValues().get(1).size());
+    assertEquals(itemKeys.getAllValues().get(0), itemKeys.getAllValues().get(1));
+  }
+
   // Helper method to create entity of type UserInfo.
   private Entity createUserInfoEntity() {
     Entity userInfoEntity = new Entity("UserInfo");
@@ -144,6 +334,24 @@ public final class StoreReceiptServiceTest {
     return userInfoEntity;
   }
 
+  // Returns the items of createEntities bought on 2020-07-01.
+  private Item[] datedItems() {
+    List<Item> items = new ArrayList<>();
+    for (Item item : createEntities().getItems()) {
+      items.add(
+          Item.builder()
+              .setUserId(item.userId())
+              .setName(item.name())
+              .setPrice(item.price())
+              .setQuantity(item.quantity())
+              .setDate("2020-07-01")
+              .setCategory(item.category())
+              .setExpiration(item.expiration())
+              .build());
+    }
+    return items.toArray(new Item[0]);
+  }
+
   // Helper method to create Receipt entity with items having two
   // Item objects.
   private Receipt createEntities() {
@@ -14,6 +14,8 @@
 
 package com.google.edith;
 
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -86,4 +88,20 @@ public class StoreReceiptTest {
     verify(storeReceiptImplementation, times(1)).storeEntites(receipt);
     verify(response, times(1)).sendRedirect("/");
   }
+
+  @Test
+  public void doPost_receiptCannotBeStored_respondsWithBadRequest() throws IOException {
+    BufferedReader reader = new BufferedReader(new StringReader("testJson"));
+    Receipt receipt = new Receipt("23", "kro", "date", "exp", "url", 0.5f, new Item[0]);
+    when(request.getReader()).thenReturn(reader);
+    when(storeReceiptImplementation.parseReceiptFromForm(reader)).thenReturn(receipt);
+    doThrow(new IllegalArgumentException("too many items"))
+        .when(storeReceiptImplementation)
+        .storeEntites(receipt);
+
+    storeReceipt.doPost(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "too many items");
+    verify(response, never()).sendRedirect("/");
+  }
 }
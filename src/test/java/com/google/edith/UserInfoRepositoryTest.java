@@ -0,0 +1,175 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.edith.RequestResultStoreTest.FakeTicker;
+import com.google.edith.services.MemcacheReadCache;
+import com.google.edith.services.UserInfoRepository;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+
+public final class UserInfoRepositoryTest {
+  private final LocalServiceTestHelper testHelper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  private DatastoreService datastore;
+  private FakeTicker ticker;
+  private MemcacheReadCache sharedCache;
+  private UserInfoRepository repository;
+
+  @Before
+  public void setUp() {
+    testHelper.setUp();
+    datastore =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    ticker = new FakeTicker();
+    sharedCache =
+        new MemcacheReadCache(
+            MemcacheServiceFactory.getMemcacheService("UserInfoRepositoryTest"),
+            Expiration.byDeltaSeconds(60));
+    repository = new UserInfoRepository(datastore, sharedCache, 10, 1, TimeUnit.MINUTES, ticker);
+  }
+
+  @After
+  public void tearDown() {
+    testHelper.tearDown();
+  }
+
+  // Entities keyed by user id are read with a get instead of a query.
+  @Test
+  public void get_entityKeyedByUserId_readsWithoutQuery() throws EntityNotFoundException {
+    Entity stored = UserInfoRepository.create("12345");
+    stored.setProperty("userName", "user");
+    DatastoreServiceFactory.getDatastoreService().put(stored);
+
+    assertEquals("user", repository.get("12345").get().getProperty("userName"));
+    verify(datastore, times(1)).get(any(Key.class));
+    verify(datastore, never()).prepare(any(Query.class));
+  }
+
+  // Entities stored before they were keyed by user id are found by their id property.
+  @Test
+  public void get_entityWithIdProperty_findsItWithQuery() {
+    Entity stored = new Entity("UserInfo");
+    stored.setProperty("id", "12345");
+    DatastoreServiceFactory.getDatastoreService().put(stored);
+
+    assertEquals(stored.getKey(), repository.get("12345").get().getKey());
+  }
+
+  // Repeated lookups are served from memory, then from Memcache once the near cache expires.
+  @Test
+  public void get_repeatedLookups_readsCachesBeforeDatastore() throws EntityNotFoundException {
+    repository.put(UserInfoRepository.create("12345"));
+
+    repository.get("12345");
+    repository.get("12345");
+    assertEquals(0, sharedCache.hitCount() + sharedCache.missCount());
+
+    ticker.advance(2, TimeUnit.MINUTES);
+    repository.get("12345");
+    repository.get("12345");
+    assertEquals(1, sharedCache.hitCount());
+    verify(datastore, never()).get(any(Key.class));
+  }
+
+  // Near cache misses that Memcache cannot answer are read from datastore and cached there.
+  @Test
+  public void get_notInMemcache_readsDatastoreOnce() throws EntityNotFoundException {
+    DatastoreServiceFactory.getDatastoreService().put(UserInfoRepository.create("12345"));
+
+    repository.get("12345");
+    ticker.advance(2, TimeUnit.MINUTES);
+    repository.get("12345");
+
+    verify(datastore, times(1)).get(any(Key.class));
+    assertEquals(1, sharedCache.missCount());
+    assertEquals(1, sharedCache.hitCount());
+  }
+
+  // Stored entities replace the cached lookup, including a cached miss.
+  @Test
+  public void put_afterMiss_returnsStoredEntity() {
+    assertFalse(repository.get("12345").isPresent());
+    Entity entity = UserInfoRepository.create("12345");
+    entity.setProperty("userName", "user");
+
+    repository.put(entity);
+
+    assertEquals("user", repository.get("12345").get().getProperty("userName"));
+  }
+
+  // Entities stored by another instance after a miss are found without waiting for expiry.
+  @Test
+  public void get_storedElsewhereAfterMiss_returnsStoredEntity() {
+    assertFalse(repository.get("12345").isPresent());
+    UserInfoRepository otherInstance =
+        new UserInfoRepository(datastore, sharedCache, 10, 1, TimeUnit.MINUTES, new FakeTicker());
+
+    otherInstance.put(UserInfoRepository.create("12345"));
+
+    assertTrue(repository.get("12345").isPresent());
+  }
+
+  // Callers can change the returned entity without changing the cached one.
+  @Test
+  public void get_modifiedResult_doesNotChangeCache() {
+    Entity entity = UserInfoRepository.create("12345");
+    entity.setProperty("userName", "user");
+    repository.put(entity);
+
+    repository.get("12345").get().setProperty("userName", "changed");
+    entity.setProperty("userName", "changed too");
+
+    assertEquals("user", repository.get("12345").get().getProperty("userName"));
+  }
+
+  // Invalidated users are read from datastore again.
+  @Test
+  public void invalidate_readsDatastoreAgain() {
+    assertFalse(repository.get("12345").isPresent());
+    DatastoreServiceFactory.getDatastoreService().put(UserInfoRepository.create("12345"));
+
+    repository.invalidate("12345");
+
+    assertEquals("12345", repository.get("12345").get().getProperty("id"));
+  }
+}
@@ -1,8 +1,17 @@
 package com.google.edith;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
@@ -10,18 +19,27 @@ import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.edith.services.TimePeriod;
+import com.google.edith.services.UserStatsItems;
 import com.google.edith.servlets.Item;
 import com.google.edith.servlets.UserInsightsInterface;
 import com.google.edith.servlets.UserInsightsService;
 import com.google.edith.servlets.WeekInfo;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.junit.After;
@@ -86,17 +104,11 @@ public final class UserInsightsServiceTest {
 
   @Test
   public void updateUserStats_addsNewItems() {
-    // The Items property in thie UserStats entity should be equal to
+    // The items in the stats of this user should be equal to
     // {@code items}
     List<Key> items = createTestKeyList(0, 5);
     userInsights.updateUserStats(USER_ID, items);
-    assertEquals(
-        items,
-        datastore
-            .prepare(new Query("UserStats"))
-            .asList(FetchOptions.Builder.withLimit(10))
-            .get(0)
-            .getProperty("Items"));
+    assertEquals(items, statsItemKeys());
   }
 
   @Test
@@ -115,13 +127,23 @@ public final class UserInsightsServiceTest {
         allItems.add(items2.get(i - 5));
       }
     }
+    assertEquals(allItems, statsItemKeys());
+  }
+
+  @Test
+  public void updateUserStats_writesOnlyNewItems() {
+    // Each item is a child of the UserStats entity, which itself is not rewritten.
+    userInsights.updateUserStats(USER_ID, createTestKeyList(0, 5));
+    Entity userStats = userInsights.retreiveUserStats(USER_ID).get();
+
+    userInsights.updateUserStats(USER_ID, createTestKeyList(3, 4));
+
     assertEquals(
-        allItems,
+        7,
         datastore
-            .prepare(new Query("UserStats"))
-            .asList(FetchOptions.Builder.withLimit(10))
-            .get(0)
-            .getProperty("Items"));
+            .prepare(new Query("UserStatsItem").setAncestor(userStats.getKey()))
+            .countEntities(FetchOptions.Builder.withDefaults()));
+    assertEquals(null, userInsights.retreiveUserStats(USER_ID).get().getProperty("Items"));
   }
 
   @Test
@@ -175,6 +197,192 @@ public final class UserInsightsServiceTest {
     assertTrue(compareOrderedLists(expected, userInsights.aggregateUserData(USER_ID)));
   }
 
+  @Test
+  public void aggregateUserData_keysOutOfDateOrder_sortsByDate() {
+    List<Key> items = createTestKeyList(0, 3);
+    String[] dates = {"2020-07-12", "2020-06-29", "2020-07-06"};
+    for (int i = 0; i < items.size(); i++) {
+      Entity entity = new Entity(items.get(i));
+      setEntityProperties(entity, "corn", USER_ID, "vegetable", i + 1, 1, dates[i]);
+      datastore.put(entity);
+    }
+
+    List<WeekInfo> expected = new ArrayList<>();
+    expected.add(new WeekInfo("2020-07-05", "2.0"));
+    expected.add(new WeekInfo("2020-07-12", "4.0"));
+
+    userInsights.updateUserStats(USER_ID, items);
+
+    assertTrue(compareOrderedLists(expected, userInsights.aggregateUserData(USER_ID)));
+  }
+
+  @Test
+  public void aggregateUserData_withMissingOrUndatedItems_skipsThem() {
+    List<Key> items = createTestKeyList(0, 3);
+    Entity dated = new Entity(items.get(0));
+    setEntityProperties(dated, "corn", USER_ID, "vegetable", 5, 1, "2020-06-29");
+    datastore.put(dated);
+    Entity undated = new Entity(items.get(1));
+    setEntityProperties(undated, "corn", USER_ID, "vegetable", 6, 1, "unknown");
+    datastore.put(undated);
+
+    List<WeekInfo> expected = new ArrayList<>();
+    expected.add(new WeekInfo("2020-07-05", "5.0"));
+
+    userInsights.updateUserStats(USER_ID, items);
+
+    assertTrue(compareOrderedLists(expected, userInsights.aggregateUserData(USER_ID)));
+  }
+
+  @Test
+  public void updateUserStats_backdatedItem_updatesPastWeek() {
+    List<Key> items = createTestKeyList(0, 2);
+    Entity newEntity = new Entity(items.get(0));
+    setEntityProperties(newEntity, "corn", USER_ID, "vegetable", 7, 1, "2020-07-11");
+    datastore.put(newEntity);
+    Entity backdated = new Entity(items.get(1));
+    setEntityProperties(backdated, "corn", USER_ID, "vegetable", 5, 1, "2020-06-29");
+    datastore.put(backdated);
+
+    userInsights.updateUserStats(USER_ID, items.subList(0, 1));
+    userInsights.updateUserStats(USER_ID, items);
+
+    List<WeekInfo> expected = new ArrayList<>();
+    expected.add(new WeekInfo("2020-07-05", "5.0"));
+    expected.add(new WeekInfo("2020-07-12", "7.0"));
+    assertTrue(compareOrderedLists(expected, userInsights.aggregateUserData(USER_ID)));
+  }
+
+  @Test
+  public void updateUserStats_repeatedKeys_countsItemsOnce() {
+    List<Key> items = createTestKeyList(0, 1);
+    Entity newEntity = new Entity(items.get(0));
+    setEntityProperties(newEntity, "corn", USER_ID, "vegetable", 5, 1, "2020-06-29");
+    datastore.put(newEntity);
+
+    userInsights.updateUserStats(USER_ID, items);
+    userInsights.updateUserStats(USER_ID, items);
+
+    List<WeekInfo> expected = new ArrayList<>();
+    expected.add(new WeekInfo("2020-07-05", "5.0"));
+    assertTrue(compareOrderedLists(expected, userInsights.aggregateUserData(USER_ID)));
+  }
+
+  @Test
+  public void aggregateUserData_statsWithoutRollups_rebuildsFromItems() {
+    // UserStats stored before the weekly rollups existed only have the Items list.
+    List<Key> items = createTestKeyList(0, 1);
+    Entity newEntity = new Entity(items.get(0));
+    setEntityProperties(newEntity, "corn", USER_ID, "vegetable", 5, 2, "2020-06-29");
+    datastore.put(newEntity);
+    Entity legacyStats = new Entity("UserStats");
+    legacyStats.setProperty("userId", UNKNOWN_USER_ID);
+    legacyStats.setProperty("Items", items);
+    datastore.put(legacyStats);
+
+    List<WeekInfo> expected = new ArrayList<>();
+    expected.add(new WeekInfo("2020-07-05", "10.0"));
+    assertTrue(compareOrderedLists(expected, userInsights.aggregateUserData(UNKNOWN_USER_ID)));
+
+    // The Items list is moved into children of the UserStats entity.
+    Entity userStats = userInsights.retreiveUserStats(UNKNOWN_USER_ID).get();
+    assertEquals(null, userStats.getProperty("Items"));
+    assertEquals(
+        items, new UserStatsItems(datastore).page(userStats.getKey(), null, 10).itemKeys());
+  }
+
+  @Test
+  public void aggregateSpending_legacyItemsList_migratesInBatches() {
+    DatastoreService countingDatastore = mock(DatastoreService.class, delegatesTo(datastore));
+    userInsights = new UserInsightsService(countingDatastore, 2, 10);
+    List<Key> items = storeLegacyStats(5);
+
+    assertEquals(
+        ImmutableMap.of(LocalDate.of(2020, 12, 31), ImmutableMap.of("vegetable", 5.0)),
+        userInsights.aggregateSpending(UNKNOWN_USER_ID, TimePeriod.YEAR).totalsByCategory());
+
+    // Each batch of two items is migrated in its own transaction.
+    verify(countingDatastore, times(3)).beginTransaction(any(TransactionOptions.class));
+    Entity userStats = userInsights.retreiveUserStats(UNKNOWN_USER_ID).get();
+    assertEquals(null, userStats.getProperty("Items"));
+    assertEquals(null, userStats.getProperty("migratedItems"));
+    assertEquals(
+        items, new UserStatsItems(datastore).page(userStats.getKey(), null, 10).itemKeys());
+  }
+
+  @Test
+  public void aggregateSpending_migrationStoppedPartWay_resumesAfterLastBatch() {
+    DatastoreService failingDatastore = mock(DatastoreService.class, delegatesTo(datastore));
+    AtomicInteger statsWrites = new AtomicInteger();
+    doAnswer(
+            invocation -> {
+              Entity entity = invocation.getArgument(1);
+              if (entity.getKind().equals("UserStats") && statsWrites.incrementAndGet() == 2) {
+                throw new DatastoreFailureException("deadline exceeded");
+              }
+              return datastore.put((Transaction) invocation.getArgument(0), entity);
+            })
+        .when(failingDatastore)
+        .put(any(Transaction.class), any(Entity.class));
+    userInsights = new UserInsightsService(failingDatastore, 2, 10);
+    storeLegacyStats(5);
+
+    try {
+      userInsights.aggregateSpending(UNKNOWN_USER_ID, TimePeriod.YEAR);
+      fail();
+    } catch (DatastoreFailureException expected) {
+      // The second batch was not committed.
+    }
+    Entity stoppedStats =
+        datastore
+            .prepare(new Query("UserStats").setFilter(userIdFilter(UNKNOWN_USER_ID)))
+            .asSingleEntity();
+    assertEquals(2L, stoppedStats.getProperty("migratedItems"));
+
+    // The items of the first batch are not counted again.
+    assertEquals(
+        ImmutableMap.of(LocalDate.of(2020, 12, 31), ImmutableMap.of("vegetable", 5.0)),
+        userInsights.aggregateSpending(UNKNOWN_USER_ID, TimePeriod.YEAR).totalsByCategory());
+  }
+
+  @Test
+  public void aggregateUserData_monthly_totalsEachMonth() {
+    List<Key> items = createTestKeyList(0, 3);
+    String[] dates = {"2020-06-29", "2020-06-30", "2020-07-01"};
+    for (int i = 0; i < items.size(); i++) {
+      Entity entity = new Entity(items.get(i));
+      setEntityProperties(entity, "corn", USER_ID, "vegetable", i + 1, 1, dates[i]);
+      datastore.put(entity);
+    }
+
+    List<WeekInfo> expected = new ArrayList<>();
+    expected.add(new WeekInfo("2020-06-30", "3.0"));
+    expected.add(new WeekInfo("2020-07-31", "3.0"));
+
+    userInsights.updateUserStats(USER_ID, items);
+
+    assertTrue(
+        compareOrderedLists(expected, userInsights.aggregateUserData(USER_ID, TimePeriod.MONTH)));
+  }
+
+  @Test
+  public void aggregateSpending_totalsEachCategory() {
+    List<Key> items = createTestKeyList(0, 2);
+    Entity corn = new Entity(items.get(0));
+    setEntityProperties(corn, "corn", USER_ID, "vegetable", 5, 1, "2020-06-29");
+    datastore.put(corn);
+    Entity milk = new Entity(items.get(1));
+    setEntityProperties(milk, "milk", USER_ID, "dairy", 3, 2, "2020-07-01");
+    datastore.put(milk);
+
+    userInsights.updateUserStats(USER_ID, items);
+
+    assertEquals(
+        ImmutableMap.of(
+            LocalDate.of(2020, 12, 31), ImmutableMap.of("dairy", 6.0, "vegetable", 5.0)),
+        userInsights.aggregateSpending(USER_ID, TimePeriod.YEAR).totalsByCategory());
+  }
+
   @Test
   public void createJson_returnsCorrectJsonString() {
     List<Key> items = createTestKeyList(0, 4);
@@ -255,6 +463,34 @@ public final class UserInsightsServiceTest {
     assertEquals(expectedJson, userInsights.createJson(USER_ID));
   }
 
+  @Test
+  public void createJson_withCursor_returnsPageAfterIt() {
+    userInsights = new UserInsightsService(datastore, 200, 2);
+    List<Key> items = createTestKeyList(0, 3);
+    for (int i = 0; i < items.size(); i++) {
+      Entity entity = new Entity(items.get(i));
+      setEntityProperties(entity, "corn" + i, USER_ID, "vegetable", 1, 1, "2020-06-2" + i);
+      datastore.put(entity);
+    }
+    userInsights.updateUserStats(USER_ID, items);
+
+    JsonObject firstPage =
+        JsonParser.parseString(userInsights.createJson(USER_ID)).getAsJsonObject();
+    JsonObject secondPage =
+        JsonParser.parseString(
+                userInsights.createJson(USER_ID, firstPage.get("nextCursor").getAsString()))
+            .getAsJsonObject();
+
+    assertEquals(
+        2, JsonParser.parseString(firstPage.get("items").getAsString()).getAsJsonArray().size());
+    JsonArray lastItems =
+        JsonParser.parseString(secondPage.get("items").getAsString()).getAsJsonArray();
+    assertEquals(1, lastItems.size());
+    assertEquals("corn2", lastItems.get(0).getAsJsonObject().get("name").getAsString());
+    assertEquals("", secondPage.get("weeklyAggregate").getAsString());
+    assertFalse(secondPage.has("nextCursor"));
+  }
+
   @Test
   public void retreiveUserStats_withUnknownUser_returnsEmptyOptional() {
     // If a userStats object is not created with the given userId, an empty
@@ -282,6 +518,34 @@ public final class UserInsightsServiceTest {
     assertEquals(new Gson().toJson(userJson), userInsights.createJson(USER_ID));
   }
 
+  /**
+   * Stores UserStats of {@code UNKNOWN_USER_ID} from before items were children, with an Items list
+   * of the given number of items bought on the same day for 1.0 each.
+   */
+  private List<Key> storeLegacyStats(int itemCount) {
+    List<Key> items = createTestKeyList(0, itemCount);
+    for (Key item : items) {
+      Entity entity = new Entity(item);
+      setEntityProperties(entity, "corn", UNKNOWN_USER_ID, "vegetable", 1, 1, "2020-06-29");
+      datastore.put(entity);
+    }
+    Entity legacyStats = new Entity("UserStats");
+    legacyStats.setProperty("userId", UNKNOWN_USER_ID);
+    legacyStats.setProperty("Items", items);
+    datastore.put(legacyStats);
+    return items;
+  }
+
+  private static Query.Filter userIdFilter(String userId) {
+    return new Query.FilterPredicate("userId", Query.FilterOperator.EQUAL, userId);
+  }
+
+  /** Returns the keys of the items in the stats of this user, in the order they are listed. */
+  private List<Key> statsItemKeys() {
+    Key userStatsKey = userInsights.retreiveUserStats(USER_ID).get().getKey();
+    return new UserStatsItems(datastore).page(userStatsKey, null, 100).itemKeys();
+  }
+
   /**
    * Creates a list of Item keys.
    *
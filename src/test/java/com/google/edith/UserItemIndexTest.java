@@ -0,0 +1,269 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.edith.services.NameTokens;
+import com.google.edith.services.SearchQueryPlanner;
+import com.google.edith.services.UserItemIndex;
+import com.google.edith.servlets.SearchCriteria;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+
+public final class UserItemIndexTest {
+  private final LocalServiceTestHelper testHelper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  private DatastoreService datastore;
+  private UserItemIndex itemIndex;
+
+  @Before
+  public void setUp() {
+    testHelper.setUp();
+    datastore =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    itemIndex = new UserItemIndex(datastore);
+    storeItem("user1", "Apple Juice", 3.5, "drinks", "date1");
+    storeItem("user1", "Green Apple", 1.25, "fruit", "date1");
+    storeItem("user1", "Apple", 0.5, "fruit", "date2");
+    storeItem("user1", "Milk", 2.0, "dairy", "date1");
+    storeItem("user2", "Apple", 0.75, "fruit", "date1");
+  }
+
+  @After
+  public void tearDown() {
+    testHelper.tearDown();
+  }
+
+  // Answers searches with the same entities in the same order as datastore.
+  @Test
+  public void run_matchesDatastoreResults() {
+    for (String name : ImmutableList.of("", "apple", "APP", "milk", "pear")) {
+      for (String date : ImmutableList.of("", "date1")) {
+        for (String sortOn : ImmutableList.of("", "name", "price", "date")) {
+          for (String sortOrder : ImmutableList.of("Ascending", "Descending")) {
+            Query query = plan(name, date, sortOrder, sortOn);
+            ImmutableList<Entity> expected =
+                ImmutableList.copyOf(
+                    datastore.prepare(query).asIterable(FetchOptions.Builder.withDefaults()));
+
+            assertEquals(query.toString(), expected, itemIndex.run(query).get());
+          }
+        }
+      }
+    }
+  }
+
+  // Loads the items of a user with one query and reuses them for later searches.
+  @Test
+  public void run_repeatedSearches_queriesDatastoreOnce() {
+    itemIndex.run(plan("apple", "", "", ""));
+    itemIndex.run(plan("milk", "date1", "Ascending", "price"));
+
+    verify(datastore, times(1)).prepare(any(Query.class));
+  }
+
+  // Items stored after the user was indexed are found without querying datastore again.
+  @Test
+  public void add_indexedUser_findsNewItem() {
+    itemIndex.run(plan("", "", "", ""));
+    itemIndex.add(storeItem("user1", "Apple Pie", 6.0, "bakery", "date3"));
+
+    ImmutableList<Entity> results = itemIndex.run(plan("apple", "", "Descending", "price")).get();
+
+    assertEquals(4, results.size());
+    assertEquals("Apple Pie", results.get(0).getProperty("name"));
+    verify(datastore, times(1)).prepare(any(Query.class));
+  }
+
+  // Items another instance stored after the user was indexed are found on the next search.
+  @Test
+  public void add_otherInstance_reloadsUser() {
+    UserItemIndex otherInstance = new UserItemIndex(datastore);
+    itemIndex.run(plan("", "", "", ""));
+    otherInstance.run(plan("", "", "", ""));
+
+    otherInstance.add(storeItem("user1", "Apple Pie", 6.0, "bakery", "date3"));
+
+    assertEquals(4, itemIndex.run(plan("apple", "", "", "")).get().size());
+    assertEquals(4, otherInstance.run(plan("apple", "", "", "")).get().size());
+    verify(datastore, times(3)).prepare(any(Query.class));
+  }
+
+  // Items of other users do not reload the indexed user.
+  @Test
+  public void add_otherUser_keepsIndexedUser() {
+    UserItemIndex otherInstance = new UserItemIndex(datastore);
+    itemIndex.run(plan("", "", "", ""));
+
+    otherInstance.add(storeItem("user2", "Apple Pie", 6.0, "bakery", "date3"));
+    itemIndex.run(plan("", "", "", ""));
+
+    verify(datastore, times(1)).prepare(any(Query.class));
+  }
+
+  // A changed item replaces its earlier version and its old name no longer matches.
+  @Test
+  public void add_existingKey_replacesItem() {
+    itemIndex.run(plan("", "", "", ""));
+    Entity item = itemIndex.run(plan("milk", "", "", "")).get().get(0).clone();
+    item.setProperty("name", "Oat Drink");
+    item.setProperty(NameTokens.PROPERTY, NameTokens.forName("Oat Drink"));
+
+    itemIndex.add(item);
+
+    assertEquals(0, itemIndex.run(plan("milk", "", "", "")).get().size());
+    assertEquals(1, itemIndex.run(plan("oat", "", "", "")).get().size());
+    assertEquals(4, itemIndex.run(plan("", "", "", "")).get().size());
+  }
+
+  // Users that are not indexed yet are loaded on their next search instead.
+  @Test
+  public void add_userNotIndexed_doesNotLoadUser() {
+    itemIndex.add(storeItem("user3", "Bread", 2.5, "bakery", "date1"));
+
+    verify(datastore, never()).prepare(any(Query.class));
+    assertEquals(1, itemIndex.run(plan("bread", "", "", "", "user3")).get().size());
+  }
+
+  // Invalidating a user reloads their items from datastore on the next search.
+  @Test
+  public void invalidate_reloadsFromDatastore() {
+    itemIndex.run(plan("", "", "", ""));
+    storeItem("user1", "Apple Cider", 4.0, "drinks", "date4");
+    assertEquals(3, itemIndex.run(plan("apple", "", "", "")).get().size());
+
+    itemIndex.invalidate("user1");
+
+    assertEquals(4, itemIndex.run(plan("apple", "", "", "")).get().size());
+    verify(datastore, times(2)).prepare(any(Query.class));
+  }
+
+  // Users with more items than the limit are left to datastore.
+  @Test
+  public void run_userOverItemLimit_returnsEmpty() {
+    itemIndex = new UserItemIndex(datastore, 3, 100, 5, TimeUnit.MINUTES, Ticker.systemTicker());
+
+    assertFalse(itemIndex.run(plan("apple", "", "", "")).isPresent());
+    assertEquals(1, itemIndex.run(plan("apple", "", "", "", "user2")).get().size());
+  }
+
+  // Adding items past the limit drops the user, who is then left to datastore.
+  @Test
+  public void add_userGrowsOverItemLimit_returnsEmpty() {
+    itemIndex = new UserItemIndex(datastore, 4, 100, 5, TimeUnit.MINUTES, Ticker.systemTicker());
+    assertEquals(3, itemIndex.run(plan("apple", "", "", "")).get().size());
+
+    itemIndex.add(storeItem("user1", "Apple Pie", 6.0, "bakery", "date3"));
+
+    assertFalse(itemIndex.run(plan("apple", "", "", "")).isPresent());
+  }
+
+  // Results returned before items are added are not changed by the later add.
+  @Test
+  public void add_afterSearch_leavesEarlierResultsUnchanged() {
+    ImmutableList<Entity> before = itemIndex.run(plan("apple", "", "", "")).get();
+
+    itemIndex.add(storeItem("user1", "Apple Pie", 6.0, "bakery", "date3"));
+
+    assertEquals(3, before.size());
+    assertEquals(4, itemIndex.run(plan("apple", "", "", "")).get().size());
+  }
+
+  // Adding items does not extend the time until the user's items are reloaded.
+  @Test
+  public void add_indexedUser_expiresFromLoadTime() {
+    RequestResultStoreTest.FakeTicker ticker = new RequestResultStoreTest.FakeTicker();
+    itemIndex = new UserItemIndex(datastore, 100, 100, 5, TimeUnit.MINUTES, ticker);
+    itemIndex.run(plan("", "", "", ""));
+
+    ticker.advance(4, TimeUnit.MINUTES);
+    itemIndex.add(storeItem("user1", "Apple Pie", 6.0, "bakery", "date3"));
+    ticker.advance(2, TimeUnit.MINUTES);
+    itemIndex.run(plan("", "", "", ""));
+
+    verify(datastore, times(2)).prepare(any(Query.class));
+  }
+
+  // Only item searches are answered from the index.
+  @Test
+  public void run_receiptSearch_returnsEmpty() {
+    SearchCriteria criteria =
+        SearchCriteria.builder()
+            .setKind("Receipt")
+            .setName("apple")
+            .setDate("")
+            .setSortOrder("")
+            .setSortOnProperty("")
+            .build();
+
+    assertFalse(itemIndex.run(SearchQueryPlanner.plan(criteria, "user1")).isPresent());
+  }
+
+  private static Query plan(String name, String date, String sortOrder, String sortOn) {
+    return plan(name, date, sortOrder, sortOn, "user1");
+  }
+
+  private static Query plan(
+      String name, String date, String sortOrder, String sortOn, String userId) {
+    SearchCriteria criteria =
+        SearchCriteria.builder()
+            .setKind("Item")
+            .setName(name)
+            .setDate(date)
+            .setSortOrder(sortOrder)
+            .setSortOnProperty(sortOn)
+            .build();
+    return SearchQueryPlanner.plan(criteria, userId);
+  }
+
+  // Stores an Item entity the way StoreReceiptService does and returns it.
+  private Entity storeItem(String userId, String name, double price, String category, String date) {
+    Entity item = new Entity("Item");
+    item.setProperty("userId", userId);
+    item.setProperty("name", name);
+    item.setProperty(NameTokens.PROPERTY, NameTokens.forName(name));
+    item.setProperty("quantity", 1L);
+    item.setProperty("price", price);
+    item.setProperty("category", category);
+    item.setProperty("expireDate", "unknown");
+    item.setProperty("date", date);
+    datastore.put(item);
+    return item;
+  }
+}
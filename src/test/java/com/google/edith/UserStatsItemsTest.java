@@ -0,0 +1,124 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.edith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.edith.services.UserStatsItems;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class UserStatsItemsTest {
+  private final LocalServiceTestHelper testHelper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private UserStatsItems statsItems;
+  private Key userStatsKey;
+
+  @Before
+  public void setUp() {
+    testHelper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    statsItems = new UserStatsItems(datastore);
+    userStatsKey = datastore.put(new Entity("UserStats"));
+  }
+
+  @After
+  public void tearDown() {
+    testHelper.tearDown();
+  }
+
+  // Only keys that are not in the stats yet are returned, once each.
+  @Test
+  public void findNew_skipsStoredAndRepeatedKeys() {
+    add(ImmutableList.of(itemKey("a"), itemKey("b")), ImmutableMap.of());
+
+    Transaction transaction = datastore.beginTransaction();
+    ImmutableList<Key> newKeys =
+        statsItems.findNew(
+            transaction,
+            userStatsKey,
+            ImmutableList.of(itemKey("c"), itemKey("a"), itemKey("c"), itemKey("d")));
+    transaction.rollback();
+
+    assertEquals(ImmutableList.of(itemKey("c"), itemKey("d")), newKeys);
+  }
+
+  // Items are listed by date, then by key, one page at a time.
+  @Test
+  public void page_readsItemsByDateInPages() {
+    add(
+        ImmutableList.of(itemKey("a"), itemKey("b"), itemKey("c")),
+        ImmutableMap.of(
+            itemKey("a"), item("a", "2020-07-12"),
+            itemKey("b"), item("b", "2020-06-29"),
+            itemKey("c"), item("c", "2020-07-01")));
+
+    UserStatsItems.Page first = statsItems.page(userStatsKey, null, 2);
+    UserStatsItems.Page second = statsItems.page(userStatsKey, first.nextCursor().get(), 2);
+
+    assertEquals(ImmutableList.of(itemKey("b"), itemKey("c")), first.itemKeys());
+    assertEquals(ImmutableList.of(itemKey("a")), second.itemKeys());
+    assertFalse(second.nextCursor().isPresent());
+  }
+
+  // Items of other stats are not listed.
+  @Test
+  public void all_returnsOnlyItemsOfTheseStats() {
+    add(ImmutableList.of(itemKey("a"), itemKey("b")), ImmutableMap.of());
+    Key otherStatsKey = datastore.put(new Entity("UserStats"));
+    Transaction transaction = datastore.beginTransaction();
+    statsItems.add(transaction, otherStatsKey, ImmutableList.of(itemKey("c")), ImmutableMap.of());
+    transaction.commit();
+
+    transaction = datastore.beginTransaction();
+    List<Key> itemKeys = new ArrayList<>(statsItems.all(transaction, userStatsKey));
+    transaction.rollback();
+
+    assertEquals(ImmutableSet.of(itemKey("a"), itemKey("b")), ImmutableSet.copyOf(itemKeys));
+  }
+
+  private void add(List<Key> itemKeys, ImmutableMap<Key, Entity> items) {
+    Transaction transaction = datastore.beginTransaction();
+    statsItems.add(transaction, userStatsKey, itemKeys, items);
+    transaction.commit();
+  }
+
+  private static Key itemKey(String name) {
+    return KeyFactory.createKey("Item", name);
+  }
+
+  private static Entity item(String name, String date) {
+    Entity item = new Entity(itemKey(name));
+    item.setProperty("date", date);
+    return item;
+  }
+}
@@ -1,13 +1,21 @@
 package com.google.edith;
 
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
 import com.google.edith.servlets.UserInsightsInterface;
 import com.google.edith.servlets.UserStatsServlet;
 import com.google.gson.Gson;
@@ -16,6 +24,7 @@ import java.io.BufferedReader;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.Optional;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.Assert;
@@ -40,6 +49,7 @@ public final class UserStatsServletTest {
   public void setUp() {
     TEST_HELPER.setUp();
     DATASTORE = DatastoreServiceFactory.getDatastoreService();
+    when(USER_SERVICE.getCurrentUser()).thenReturn(new User("user@gmail.com", "gmail", USER_ID));
   }
 
   @Test
@@ -66,14 +76,113 @@ public final class UserStatsServletTest {
     Assert.assertTrue(stringWriter.toString().contains("Item posted"));
   }
 
+  @Test
+  public void doPost_existingStats_addsOnlyNewItem() throws Exception {
+    UserInsightsInterface userInsights = Mockito.mock(UserInsightsInterface.class);
+    when(userInsights.retreiveUserStats(USER_ID)).thenReturn(Optional.of(new Entity("UserStats")));
+    storeItem(USER_ID);
+    when(REQUEST.getReader()).thenReturn(new BufferedReader(new StringReader(itemJson())));
+    when(RESPONSE.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+    new UserStatsServlet(DATASTORE, userInsights, USER_SERVICE).doPost(REQUEST, RESPONSE);
+
+    Key newItemKey = findItemKey("Corn");
+    verify(userInsights).updateUserStats(USER_ID, ImmutableList.of(newItemKey));
+    verify(userInsights, never()).createUserStats(USER_ID);
+  }
+
+  @Test
+  public void doPost_noStats_createsStatsFromItemsOfUser() throws Exception {
+    UserInsightsInterface userInsights = Mockito.mock(UserInsightsInterface.class);
+    when(userInsights.retreiveUserStats(USER_ID)).thenReturn(Optional.empty());
+    Key earlierItemKey = storeItem(USER_ID);
+    storeItem("otherUserId");
+    when(REQUEST.getReader()).thenReturn(new BufferedReader(new StringReader(itemJson())));
+    when(RESPONSE.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+    new UserStatsServlet(DATASTORE, userInsights, USER_SERVICE).doPost(REQUEST, RESPONSE);
+
+    Key newItemKey = findItemKey("Corn");
+    verify(userInsights).createUserStats(USER_ID);
+    verify(userInsights).updateUserStats(USER_ID, ImmutableList.of(earlierItemKey, newItemKey));
+  }
+
   @Test
   public void testServlet_doGet_runsCorrectly() throws Exception {
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
     when(RESPONSE.getWriter()).thenReturn(writer);
-    when(USER_INSIGHTS.createJson(USER_ID)).thenReturn("");
+    when(USER_INSIGHTS.createJson(USER_ID, null)).thenReturn("");
 
     new UserStatsServlet(DATASTORE, USER_INSIGHTS, USER_SERVICE).doGet(REQUEST, RESPONSE);
-    verify(USER_INSIGHTS, Mockito.atLeast(1)).createJson(USER_ID);
+    verify(USER_INSIGHTS, Mockito.atLeast(1)).createJson(USER_ID, null);
+  }
+
+  @Test
+  public void doGet_withCursor_returnsPageAfterIt() throws Exception {
+    UserInsightsInterface userInsights = Mockito.mock(UserInsightsInterface.class);
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    when(request.getParameter("cursor")).thenReturn("cursor");
+    when(userInsights.createJson(USER_ID, "cursor")).thenReturn("page");
+    StringWriter stringWriter = new StringWriter();
+    when(RESPONSE.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+
+    new UserStatsServlet(DATASTORE, userInsights, USER_SERVICE).doGet(request, RESPONSE);
+
+    Assert.assertEquals("page", stringWriter.toString().trim());
+  }
+
+  @Test
+  public void doGet_invalidCursor_respondsWithBadRequest() throws Exception {
+    UserInsightsInterface userInsights = Mockito.mock(UserInsightsInterface.class);
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    when(request.getParameter("cursor")).thenReturn("invalid");
+    when(userInsights.createJson(USER_ID, "invalid")).thenThrow(new IllegalArgumentException());
+
+    new UserStatsServlet(DATASTORE, userInsights, USER_SERVICE).doGet(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+  }
+
+  @Test
+  public void doGet_requestsOfDifferentUsers_returnsStatsOfEachUser() throws Exception {
+    UserInsightsInterface userInsights = Mockito.mock(UserInsightsInterface.class);
+    UserService userService = Mockito.mock(UserService.class);
+    when(userService.getCurrentUser())
+        .thenReturn(new User("user@gmail.com", "gmail", USER_ID))
+        .thenReturn(new User("other@gmail.com", "gmail", "otherUserId"));
+    when(RESPONSE.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    UserStatsServlet servlet = new UserStatsServlet(DATASTORE, userInsights, userService);
+
+    servlet.doGet(REQUEST, RESPONSE);
+    servlet.doGet(REQUEST, RESPONSE);
+
+    verify(userInsights).createJson(USER_ID, null);
+    verify(userInsights).createJson("otherUserId", null);
+  }
+
+  private static String itemJson() {
+    JsonObject testJson = new JsonObject();
+    testJson.addProperty("itemName", "Corn");
+    testJson.addProperty("itemCategory", "Vegetable");
+    testJson.addProperty("itemPrice", "5.00");
+    testJson.addProperty("itemQuantity", "4");
+    testJson.addProperty("itemDate", "2020-07-14");
+    return GSON.toJson(testJson);
+  }
+
+  // Stores an item posted before and returns its key.
+  private static Key storeItem(String userId) {
+    Entity item = new Entity("Item");
+    item.setProperty("name", "Apple");
+    item.setProperty("userId", userId);
+    return DATASTORE.put(item);
+  }
+
+  private static Key findItemKey(String name) {
+    Query query =
+        new Query("Item").setFilter(new FilterPredicate("name", FilterOperator.EQUAL, name));
+    return DATASTORE.prepare(query).asSingleEntity().getKey();
   }
 }